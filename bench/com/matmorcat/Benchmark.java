@@ -0,0 +1,135 @@
+package com.matmorcat;
+
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+
+/**
+ * A small harness for measuring the throughput and allocation rate of an
+ * operation. Each measurement runs the operation repeatedly for a warm-up
+ * period, so that the JIT compiler has settled, and then for a number of
+ * timed iterations. The allocation rate is read from the JVM's per-thread
+ * allocation counter, so it only counts memory allocated by the benchmark
+ * thread itself.
+ */
+public final class Benchmark {
+
+    // Time spent warming up and measuring each operation (in milliseconds)
+    private static final long WARMUP_MILLIS = Long.getLong("benchmark.warmup", 1000);
+    private static final long ITERATION_MILLIS = Long.getLong("benchmark.iteration", 500);
+    private static final int ITERATIONS = Integer.getInteger("benchmark.iterations", 5);
+
+    // The number of operations run between checks of the clock
+    private static final int BATCH_SIZE = 64;
+
+    /**
+     * An operation to measure. The result is consumed by the harness so that
+     * the JIT compiler cannot remove the work that produced it.
+     */
+    public interface Operation {
+        long run() throws Exception;
+    }
+
+    private final String filter;
+
+    // Consumes the results of the operations
+    private long sink;
+
+    /**
+     * @param filter    only operations whose name contains this text are run
+     *                  (null to run everything)
+     */
+    public Benchmark(String filter) {
+
+        this.filter = filter;
+
+        System.out.println(String.format(Locale.ROOT, "%-28s %8s %14s %12s %12s %12s",
+                "Benchmark", "Payload", "ops/s", "ns/op", "B/op", "MB/s alloc"));
+    }
+
+    /**
+     * Measure an operation and print its results.
+     *
+     * @param name          the name of the operation
+     * @param payloadLength the payload length in bytes the operation works on
+     * @param operation     the operation to measure
+     * @throws Exception    if the operation fails
+     */
+    public void measure(String name, int payloadLength, Operation operation) throws Exception {
+
+        if (filter != null && !name.contains(filter)) {
+            return;
+        }
+
+        runFor(operation, WARMUP_MILLIS);
+
+        long operations = 0;
+        long nanos = 0;
+        long allocated = 0;
+
+        for (int i = 0; i < ITERATIONS; i++) {
+
+            long allocatedBefore = allocatedBytes();
+            long start = System.nanoTime();
+
+            operations += runFor(operation, ITERATION_MILLIS);
+
+            nanos += System.nanoTime() - start;
+            allocated += allocatedBytes() - allocatedBefore;
+        }
+
+        double nanosPerOperation = (double) nanos / operations;
+        double bytesPerOperation = (double) allocated / operations;
+
+        System.out.println(String.format(Locale.ROOT, "%-28s %8d %14.0f %12.1f %12.1f %12.1f",
+                name, payloadLength, 1e9 / nanosPerOperation, nanosPerOperation,
+                bytesPerOperation, bytesPerOperation * 1e3 / nanosPerOperation));
+    }
+
+    /**
+     * Run the operation in batches until the time has passed.
+     *
+     * @return  the number of times the operation was run
+     */
+    private long runFor(Operation operation, long millis) throws Exception {
+
+        long end = System.nanoTime() + millis * 1_000_000;
+        long operations = 0;
+
+        do {
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                sink += operation.run();
+            }
+
+            operations += BATCH_SIZE;
+
+        } while (System.nanoTime() < end);
+
+        return operations;
+    }
+
+    /**
+     * Get the number of bytes allocated by this thread so far, if the JVM
+     * can report it.
+     */
+    private static long allocatedBytes() {
+
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(
+                    Thread.currentThread().getId());
+        }
+
+        return 0;
+    }
+
+    /**
+     * Get the combined results of every operation that was run, so that
+     * they are not optimized away.
+     *
+     * @return  the combined results
+     */
+    public long getSink() {
+        return sink;
+    }
+}
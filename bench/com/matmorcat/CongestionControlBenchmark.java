@@ -0,0 +1,79 @@
+package com.matmorcat;
+
+/**
+ * Measures the cost of handling an acknowledgment in each
+ * {@link CongestionControl}, with a loss every few thousand
+ * acknowledgments so that the algorithms spend time in each phase.
+ *
+ * The measurement time of each algorithm can be changed with
+ * {@code -Dbenchmark.iteration} (milliseconds).
+ */
+public class CongestionControlBenchmark {
+
+    private static final String[] ALGORITHMS = {"reno", "newreno", "cubic", "bbr"};
+
+    private static final int MSS = 1460;
+
+    // The simulated time between acknowledgments, and the round-trip time
+    private static final long ACK_INTERVAL_NANOS = 10_000;
+    private static final long RTT_NANOS = 20_000_000;
+
+    // The acknowledgments between losses
+    private static final int LOSS_INTERVAL = 5000;
+
+    public static void main(String[] args) {
+
+        long iteration = Long.getLong("benchmark.iteration", 1000);
+
+        System.out.println(String.format("%10s %16s %14s", "Algorithm", "acks/s", "ns/ack"));
+
+        for (String name : ALGORITHMS) {
+
+            // Warm up, then measure
+            run(name, iteration / 2);
+            double rate = run(name, iteration);
+
+            System.out.println(String.format("%10s %,16.0f %14.1f", name, rate, 1e9 / rate));
+        }
+    }
+
+    /**
+     * Feed acknowledgments to an algorithm for a time.
+     *
+     * @return  the number of acknowledgments per second
+     */
+    private static double run(String name, long millis) {
+
+        CongestionControl control = CongestionControl.create(name);
+        control.reset(MSS, 0);
+
+        long now = 0;
+        long count = 0;
+        long deadline = System.nanoTime() + millis * 1_000_000;
+
+        while (System.nanoTime() < deadline) {
+
+            for (int i = 0; i < LOSS_INTERVAL; i++) {
+
+                now += ACK_INTERVAL_NANOS;
+                control.onAcknowledgment(MSS, RTT_NANOS + (i & 0xFF) * 1000, control.getCongestionWindow(), now);
+            }
+
+            // One loss, recovered with two partial acknowledgments
+            control.onLoss(control.getCongestionWindow(), now);
+            control.onDuplicateAcknowledgment(now);
+            control.onPartialAcknowledgment(MSS, RTT_NANOS, now);
+            control.onPartialAcknowledgment(MSS, RTT_NANOS, now);
+            control.onRecovered(MSS, RTT_NANOS, now);
+
+            count += LOSS_INTERVAL + 5;
+        }
+
+        // Keep the result live so the loop is not optimized away
+        if (control.getCongestionWindow() < 0) {
+            throw new IllegalStateException(control.toString());
+        }
+
+        return count / (millis / 1e3);
+    }
+}
@@ -0,0 +1,74 @@
+package com.matmorcat;
+
+/**
+ * Compares running simulated connections on virtual threads with running them
+ * on a fixed pool of platform threads. Each connection is a client and a
+ * server that exchange a segment back and forth (see {@link ConnectionRunner}),
+ * so every side spends most of its time parked in
+ * {@link TransportLayer#receiveSegment()}.
+ *
+ * A blocking task holds its thread while it waits, so the platform pool must
+ * have a thread for every side of every connection; counts that need more
+ * platform threads than {@code benchmark.maxPlatformThreads} (4,000 by
+ * default) are only run on virtual threads. Virtual threads need Java 21 or
+ * later and are skipped on older versions.
+ *
+ * Run with optional arguments for the number of round trips per connection
+ * and the connection counts, for example "100 10 1000 20000".
+ */
+public class ConnectionBenchmark {
+
+    private static final String DATA =
+            "AAAA995555555555000600E012C45678FFFFFFFFBBBBBBBB603F1B3472345E551D341234F2345678";
+
+    private static final int[] CONNECTION_COUNTS = {10, 100, 1000, 10000};
+
+    public static void main(String[] args) throws Exception {
+
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        int[] counts = CONNECTION_COUNTS;
+
+        if (args.length > 1) {
+
+            counts = new int[args.length - 1];
+
+            for (int i = 1; i < args.length; i++) {
+                counts[i - 1] = Integer.parseInt(args[i]);
+            }
+        }
+
+        int maxPlatformThreads = Integer.getInteger("benchmark.maxPlatformThreads", 4000);
+
+        if (!SchedulerConfig.isVirtualThreadAvailable()) {
+            System.out.println("(virtual threads need Java 21 or later, only platform threads are measured)");
+        }
+
+        System.out.println(String.format("%-10s %12s %10s %16s %12s",
+                "Threads", "Connections", "Rounds", "round trips/s", "ms"));
+
+        for (int connections : counts) {
+
+            if (SchedulerConfig.isVirtualThreadAvailable()) {
+                measure(new SchedulerConfig().setMode(SchedulerConfig.Mode.VIRTUAL), connections, rounds);
+            }
+
+            if (connections * 2 <= maxPlatformThreads) {
+                measure(new SchedulerConfig().setMode(SchedulerConfig.Mode.PLATFORM)
+                        .setPlatformPoolSize(connections * 2), connections, rounds);
+            }
+        }
+    }
+
+    private static void measure(SchedulerConfig config, int connections, int rounds) throws Exception {
+
+        ConnectionRunner runner = new ConnectionRunner(config);
+
+        // Run once to warm up, then measure a second run
+        runner.run(DATA, connections, rounds);
+        long elapsed = runner.run(DATA, connections, rounds);
+
+        System.out.println(String.format("%-10s %12d %10d %16.0f %12.1f",
+                config.getMode().toString().toLowerCase(), connections, rounds,
+                runner.getRoundTripCount() / (elapsed / 1e9), elapsed / 1e6));
+    }
+}
@@ -0,0 +1,130 @@
+package com.matmorcat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures lookups in a {@link ConnectionTable} holding from thousands to
+ * millions of connections, from one thread and from several threads reading
+ * at once.
+ *
+ * Run with optional arguments for the table sizes, for example
+ * "10000 1000000 4000000". The measurement time of each run can be changed
+ * with {@code -Dbenchmark.iteration} (milliseconds).
+ */
+public class ConnectionTableBenchmark {
+
+    private static final int[] SIZES = {10000, 1000000};
+
+    // The number of 4-tuples the readers cycle through (a power of 2)
+    private static final int LOOKUP_KEYS = 1 << 16;
+
+    public static void main(String[] args) throws Exception {
+
+        int[] sizes = SIZES;
+
+        if (args.length > 0) {
+
+            sizes = new int[args.length];
+
+            for (int i = 0; i < args.length; i++) {
+                sizes[i] = Integer.parseInt(args[i]);
+            }
+        }
+
+        long iteration = Long.getLong("benchmark.iteration", 1000);
+        int processors = Runtime.getRuntime().availableProcessors();
+
+        System.out.println(String.format("%12s %8s %16s", "Connections", "Threads", "lookups/s"));
+
+        for (int size : sizes) {
+
+            ConnectionTable<Object> table = new ConnectionTable<>(size);
+            Random random = new Random(size);
+
+            long[] sources = new long[LOOKUP_KEYS];
+            int[] ports = new int[LOOKUP_KEYS];
+            Object connection = new Object();
+
+            for (int i = 0; i < size; i++) {
+
+                long source = random.nextInt() & 0xFFFFFFFFL;
+                int port = random.nextInt(0x10000);
+
+                table.put(source, 0x55555555L, port, 80, connection);
+
+                if (i < LOOKUP_KEYS) {
+                    sources[i] = source;
+                    ports[i] = port;
+                }
+            }
+
+            for (int threads = 1; threads <= processors; threads *= 2) {
+
+                // Warm up, then measure
+                lookup(table, sources, ports, Math.min(size, LOOKUP_KEYS), threads, iteration / 2);
+                double rate = lookup(table, sources, ports, Math.min(size, LOOKUP_KEYS), threads, iteration);
+
+                System.out.println(String.format("%12d %8d %,16.0f", size, threads, rate));
+            }
+        }
+    }
+
+    /**
+     * Look up keys on the given number of threads for a time.
+     *
+     * @return  the number of lookups per second across all threads
+     */
+    private static double lookup(final ConnectionTable<Object> table, final long[] sources, final int[] ports,
+                                 final int keys, int threads, long millis) throws Exception {
+
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final LongAdder lookups = new LongAdder();
+        final LongAdder hits = new LongAdder();
+        List<Thread> readers = new ArrayList<>();
+
+        for (int t = 0; t < threads; t++) {
+
+            final int offset = t * 7919;
+
+            Thread reader = new Thread(() -> {
+
+                long count = 0;
+                long found = 0;
+
+                for (int i = offset; running.get(); i++, count++) {
+
+                    int key = (i & Integer.MAX_VALUE) % keys;
+
+                    if (table.get(sources[key], 0x55555555L, ports[key], 80) != null) {
+                        found++;
+                    }
+                }
+
+                lookups.add(count);
+                hits.add(found);
+            });
+
+            readers.add(reader);
+            reader.start();
+        }
+
+        long start = System.nanoTime();
+        Thread.sleep(millis);
+        running.set(false);
+
+        for (Thread reader : readers) {
+            reader.join();
+        }
+
+        // Every key is in the table, so every lookup must find it
+        if (hits.sum() != lookups.sum()) {
+            throw new IllegalStateException("Only " + hits.sum() + " of " + lookups.sum() + " lookups found a connection!");
+        }
+
+        return lookups.sum() / ((System.nanoTime() - start) / 1e9);
+    }
+}
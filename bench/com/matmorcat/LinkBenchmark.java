@@ -0,0 +1,112 @@
+package com.matmorcat;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how much simulated traffic a {@link Link} carries per second of
+ * real time. A source pushes bursts of 1460 byte segments onto the link at
+ * its bandwidth, and a sink releases them as they are delivered, so the
+ * measurement covers the queue, the loss models, the ring of arriving
+ * segments and the events of the {@link Simulation}.
+ *
+ * Run with an optional argument for the simulated seconds of each case,
+ * for example "2".
+ */
+public class LinkBenchmark {
+
+    private static final int PAYLOAD_LENGTH = 1460;
+
+    // The segments the source pushes at a time
+    private static final int BURST = 32;
+
+    private static final long LATENCY_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * A Transport Layer that releases what it receives.
+     */
+    private static final class Sink extends TransportLayer {
+
+        @Override
+        boolean pullSegment(Segment segment) {
+
+            segment.release();
+            return true;
+        }
+    }
+
+    /**
+     * Sets up the link of a case.
+     */
+    private interface Setup {
+        void apply(Link link);
+    }
+
+    public static void main(String[] args) throws Exception {
+
+        double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 1;
+
+        Segment template = new Segment(SegmentBenchmark.createSegmentHex(PAYLOAD_LENGTH));
+        template.generateNewChecksum();
+
+        System.out.println(String.format("%-28s %14s %16s %12s", "Link", "segments/s", "simulated Gb/s", "x real time"));
+
+        // Warm up, then measure
+        run("warm-up", template, 10_000_000_000L, seconds / 4, link -> { }, false);
+
+        run("10 Gb/s", template, 10_000_000_000L, seconds, link -> { }, true);
+        run("10 Gb/s, drop-tail", template, 10_000_000_000L, seconds,
+                link -> link.setQueueLimit(1 << 20), true);
+        run("10 Gb/s, RED", template, 10_000_000_000L, seconds,
+                link -> link.setRandomEarlyDetection(1 << 18, 1 << 20, 0.1, 0.002), true);
+        run("10 Gb/s, loss, reorder, dup", template, 10_000_000_000L, seconds,
+                link -> link.setGilbertElliottLoss(0.001, 0.3, 0.0001, 0.5)
+                        .setReordering(0.01, 10, TimeUnit.MICROSECONDS)
+                        .setDuplication(0.001), true);
+        run("100 Gb/s", template, 100_000_000_000L, seconds / 10, link -> { }, true);
+    }
+
+    /**
+     * Push segments through a link for a time, a burst at a time, with
+     * each burst sent a little faster than the link can carry it so the
+     * queue builds up.
+     */
+    private static void run(String name, Segment template, long bandwidth, double seconds, Setup setup,
+                            boolean print) throws Exception {
+
+        Simulation simulation = new Simulation();
+        Link link = new Link(simulation, new Sink(), LATENCY_NANOS, TimeUnit.NANOSECONDS)
+                .setBandwidth(bandwidth);
+        setup.apply(link);
+
+        SegmentPool pool = new SegmentPool(4096);
+        TransportLayer source = new TransportLayer();
+
+        long burstNanos = BURST * (long) template.getTotalLengthInBits() * 1_000_000_000L / bandwidth;
+        long interval = burstNanos - burstNanos / 100;
+
+        simulation.schedule(0, TimeUnit.NANOSECONDS, new Simulation.Event() {
+
+            @Override
+            public void fire(Object argument) throws Exception {
+
+                for (int i = 0; i < BURST; i++) {
+
+                    source.setSegment(pool.acquire(template));
+                    source.pushSegment(link);
+                }
+
+                simulation.schedule(interval, TimeUnit.NANOSECONDS, this);
+            }
+        });
+
+        long start = System.nanoTime();
+        simulation.runFor((long) (seconds * 1e9), TimeUnit.NANOSECONDS);
+        double elapsed = (System.nanoTime() - start) / 1e9;
+
+        if (print) {
+            System.out.println(String.format("%-28s %,14.0f %,16.1f %,12.2f", name,
+                    link.getDeliveredSegmentCount() / elapsed, link.getSentBits() / elapsed / 1e9,
+                    seconds / elapsed));
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.matmorcat;
+
+import java.util.Random;
+
+/**
+ * Benchmarks the main operations on segments across a range of payload
+ * lengths: parsing hex and binary input, calculating and checking checksums,
+ * producing output and pushing segments between Transport Layers.
+ *
+ * The TCP length field of the pseudo-header holds the length of the segment
+ * in bits, so the largest payload a segment can carry is 8,171 bytes (65,535
+ * bits less the 160-bit header).
+ *
+ * Run with an optional argument to only run the benchmarks whose names
+ * contain it, for example "checksum".
+ */
+public class SegmentBenchmark {
+
+    // The payload lengths to measure (in bytes)
+    private static final int[] PAYLOAD_LENGTHS = {1, 16, 64, 256, 1024, 1460, 4096, 8171};
+
+    // The pseudo-header and header fields (without the TCP length) of each segment
+    private static final String PSEUDO_HEADER_PREFIX = "AAAA9955555555550006";
+    private static final String HEADER = "12C45678FFFFFFFFBBBBBBBB50381B3400005E55";
+
+    public static void main(String[] args) throws Exception {
+
+        Benchmark benchmark = new Benchmark(args.length > 0 ? args[0] : null);
+
+        for (int payloadLength : PAYLOAD_LENGTHS) {
+
+            String hex = createSegmentHex(payloadLength);
+            String binary = Segment.hexToBinary(hex);
+
+            final Segment segment = new Segment(hex);
+            segment.generateNewChecksum();
+
+            final byte[] payload = new byte[payloadLength];
+            new Random(payloadLength).nextBytes(payload);
+
+            final TransportLayer sender = new TransportLayer();
+            final TransportLayer receiver = new TransportLayer();
+            sender.setSegment(segment);
+
+            final InputDecoder decoder = new InputDecoder();
+            decoder.decode(hex);
+
+            final byte[] wire = decoder.getData();
+            final int lengthInBits = decoder.getLengthInBits();
+            final ValidationResult result = new ValidationResult();
+
+            final SegmentPool pool = new SegmentPool(16);
+            final TransportLayer pooledSender = new TransportLayer();
+            final TransportLayer pooledReceiver = new TransportLayer();
+
+            // Parsing
+            benchmark.measure("parse.hex", payloadLength,
+                    () -> new Segment(hex).getChecksum());
+            benchmark.measure("parse.binary", payloadLength,
+                    () -> new Segment(binary).getChecksum());
+
+            // Checksums
+            benchmark.measure("checksum.calculate", payloadLength,
+                    () -> segment.calculateChecksum().length());
+            benchmark.measure("checksum.generate", payloadLength, () -> {
+                segment.generateNewChecksum();
+                return segment.getChecksum();
+            });
+            benchmark.measure("checksum.validate", payloadLength,
+                    () -> segment.segmentHasValidChecksum() ? 1 : 0);
+            benchmark.measure("checksum.sumWords", payloadLength,
+                    () -> Checksum.sumWords(payload, 0, payload.length, 0));
+            benchmark.measure("checksum.sumLanes", payloadLength,
+                    () -> Checksum.sumLanes(payload, 0, payload.length, 0));
+
+            // Output
+            benchmark.measure("output.bits", payloadLength,
+                    () -> segment.bits().length());
+            benchmark.measure("output.hex", payloadLength,
+                    () -> segment.hex().length());
+            benchmark.measure("output.toString", payloadLength,
+                    () -> segment.toString().length());
+
+            // Transport
+            benchmark.measure("transport.pushSegment", payloadLength,
+                    () -> sender.pushSegment(receiver) ? 1 : 0);
+            benchmark.measure("transport.pooledPush", payloadLength, () -> {
+                pooledSender.setSegment(pool.acquire(wire, 0, lengthInBits, Segment.ParseMode.STRICT, result));
+                return pooledSender.pushSegment(pooledReceiver) ? 1 : 0;
+            });
+        }
+
+        System.out.println("(sink " + benchmark.getSink() + ")");
+    }
+
+    /**
+     * Create the pseudo-header + segment in hex for a payload of the given
+     * length. The payload bytes are random but the same for every run.
+     *
+     * @param payloadLength the length of the payload in bytes
+     * @return              the pseudo-header + segment in hex
+     */
+    static String createSegmentHex(int payloadLength) {
+
+        byte[] payload = new byte[payloadLength];
+        new Random(payloadLength).nextBytes(payload);
+
+        int segmentLengthInBits = HEADER.length() * 4 + payloadLength * 8;
+
+        return PSEUDO_HEADER_PREFIX + String.format("%04X", segmentLengthInBits) + HEADER
+                + HexCodec.encodeHex(payload, payloadLength * 2);
+    }
+}
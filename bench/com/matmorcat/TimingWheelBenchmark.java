@@ -0,0 +1,113 @@
+package com.matmorcat;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures arming, cancelling and expiring millions of timers in a
+ * {@link TimingWheel} driven by a {@link VirtualClock}, with 1 ms ticks and
+ * deadlines spread over a minute, as for the retransmission timers of many
+ * connections.
+ *
+ * Run with optional arguments for the numbers of timers, for example
+ * "1000000 4000000".
+ */
+public class TimingWheelBenchmark {
+
+    private static final int[] SIZES = {100000, 1000000};
+
+    // The latest deadline of a timer
+    private static final long SPAN_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    // How far the clock moves between advances
+    private static final long STEP_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * A timer that counts its expiries.
+     */
+    private static final class CountingTimer extends WheelTimer {
+
+        static long expired;
+
+        @Override
+        protected void expire() {
+            expired++;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+
+        int[] sizes = SIZES;
+
+        if (args.length > 0) {
+
+            sizes = new int[args.length];
+
+            for (int i = 0; i < args.length; i++) {
+                sizes[i] = Integer.parseInt(args[i]);
+            }
+        }
+
+        System.out.println(String.format("%10s %14s %14s %14s", "Timers", "arm ns/op", "cancel ns/op", "expire ns/op"));
+
+        for (int size : sizes) {
+
+            // Warm up, then measure
+            run(Math.min(size, 100000), false);
+            run(size, true);
+        }
+    }
+
+    /**
+     * Arm the timers, cancel half of them and advance until the rest expire.
+     */
+    private static void run(int size, boolean print) throws Exception {
+
+        VirtualClock clock = new VirtualClock();
+        TimingWheel wheel = new TimingWheel(clock, 1, TimeUnit.MILLISECONDS);
+        Random random = new Random(size);
+
+        CountingTimer[] timers = new CountingTimer[size];
+        long[] deadlines = new long[size];
+
+        for (int i = 0; i < size; i++) {
+            timers[i] = new CountingTimer();
+            deadlines[i] = (long) (random.nextDouble() * SPAN_NANOS);
+        }
+
+        long start = System.nanoTime();
+
+        for (int i = 0; i < size; i++) {
+            wheel.scheduleAt(timers[i], deadlines[i]);
+        }
+
+        long armed = System.nanoTime();
+
+        for (int i = 0; i < size; i += 2) {
+            wheel.cancel(timers[i]);
+        }
+
+        long cancelled = System.nanoTime();
+
+        CountingTimer.expired = 0;
+
+        while (wheel.size() > 0) {
+            clock.advanceBy(STEP_NANOS, TimeUnit.NANOSECONDS);
+            wheel.advance();
+        }
+
+        long expired = System.nanoTime();
+
+        // Every timer that was not cancelled must have expired
+        if (CountingTimer.expired != size / 2) {
+            throw new IllegalStateException(CountingTimer.expired + " of " + size / 2 + " timers expired!");
+        }
+
+        if (print) {
+            System.out.println(String.format("%10d %14.1f %14.1f %14.1f", size,
+                    (armed - start) / (double) size,
+                    (cancelled - armed) / (double) ((size + 1) / 2),
+                    (expired - cancelled) / (double) (size / 2)));
+        }
+    }
+}
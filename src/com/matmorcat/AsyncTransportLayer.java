@@ -0,0 +1,360 @@
+package com.matmorcat;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A Transport Layer that receives segments on a thread of its own. Segments
+ * pushed to it by a sender are placed in a bounded lock-free queue (see
+ * {@link SpscRing}) and the receiving thread takes them from the queue and
+ * checks and accepts them in the same way as {@link TransportLayer}, so the
+ * sender and receiver can run on different cores and segments can queue up
+ * between them.
+ *
+ * The queue has a single producer, so only one thread may push segments to
+ * a given receiver. Each pushed segment must be a separate object, such as a
+ * segment from a {@link SegmentPool}, since the receiver works on it after
+ * {@link #pushSegment} has returned. What happens when the queue is full is
+ * set by its {@link Backpressure}.
+ *
+ * A waiting thread parks for at most {@link #PARK_NANOS} at a time before it
+ * checks the queue again, so a wake-up that is missed while the other thread
+ * is going to sleep only costs one park interval.
+ *
+ * A segment that is queued while the Transport Layer is being closed may be
+ * left in the queue after the receiving thread has stopped. Such segments
+ * are released rather than received, and the push of one fails.
+ */
+public class AsyncTransportLayer extends TransportLayer {
+
+    /**
+     * What a sender does when it pushes a segment to a full queue.
+     */
+    public enum Backpressure {
+
+        /** Park the sender until the receiver makes room. */
+        BLOCK,
+
+        /** Discard the new segment, which counts as a dropped segment. */
+        DROP_TAIL,
+
+        /**
+         * Retry for a short time while the receiver makes room, then park the
+         * sender as with {@link #BLOCK}. This reacts faster to a brief burst
+         * at the cost of keeping a core busy while it retries.
+         */
+        SPIN_THEN_PARK
+    }
+
+    // The longest time a waiting thread parks before checking again
+    static final long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    // The number of times a thread retries before it parks
+    private static final int SPIN_LIMIT = 1000;
+
+    private final SpscRing<Segment> queue;
+    private final Backpressure backpressure;
+    private final ThreadFactory threadFactory;
+
+    private Thread receiverThread;
+
+    // The sending and receiving threads while they are parked, so they can be woken
+    private volatile Thread parkedSender;
+    private volatile Thread parkedReceiver;
+
+    private volatile boolean closed;
+
+    // The first failure of the receiving thread, reported by close()
+    private volatile Exception failure;
+
+    // Written by the sending thread
+    private volatile long droppedSegmentCount;
+
+    // Written by the receiving thread
+    private volatile long receivedSegmentCount;
+
+    /**
+     * Creates a Transport Layer whose receiving thread is a platform thread.
+     *
+     * @param capacity      the least number of segments the queue can hold
+     *                      (rounded up to a power of 2)
+     * @param backpressure  what a sender does when the queue is full
+     */
+    public AsyncTransportLayer(int capacity, Backpressure backpressure) {
+        this(capacity, backpressure, Executors.defaultThreadFactory());
+    }
+
+    /**
+     * Creates a Transport Layer whose receiving thread is made by the given
+     * factory.
+     *
+     * @param capacity      the least number of segments the queue can hold
+     *                      (rounded up to a power of 2)
+     * @param backpressure  what a sender does when the queue is full
+     * @param threadFactory makes the receiving thread
+     */
+    public AsyncTransportLayer(int capacity, Backpressure backpressure, ThreadFactory threadFactory) {
+
+        this.queue = new SpscRing<>(capacity);
+        this.backpressure = backpressure;
+        this.threadFactory = threadFactory;
+    }
+
+
+    // -------------------------------------------------------------------------
+    //
+    // Receiving Thread Lifecycle Methods
+    //
+    // -------------------------------------------------------------------------
+
+
+    /**
+     * Start the receiving thread. Segments pushed before this is called wait
+     * in the queue.
+     *
+     * @return  this Transport Layer
+     */
+    public synchronized AsyncTransportLayer start() {
+
+        if (receiverThread != null) {
+            throw new IllegalStateException("The Transport Layer was already started!");
+        }
+
+        if (closed) {
+            throw new IllegalStateException("The Transport Layer is closed!");
+        }
+
+        receiverThread = threadFactory.newThread(this::receive);
+        receiverThread.start();
+
+        return this;
+    }
+
+    /**
+     * Stop accepting segments, wait for the receiving thread to finish the
+     * segments already queued, then stop it. Segments still in the queue
+     * after that, because they were queued while the thread was stopping,
+     * are released.
+     *
+     * @throws Exception    if the receiving thread failed to receive a segment
+     */
+    public void close() throws Exception {
+
+        closed = true;
+
+        discardQueued(null);
+
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Wait for the receiving thread to stop, then release the segments left
+     * in the queue. Only called once the Transport Layer is closed; the lock
+     * keeps the closing and sending threads from taking from the queue at
+     * the same time, since only the stopped receiving thread may otherwise.
+     *
+     * @param segment       a segment to look for in the queue, or null
+     * @return              true if the segment was left in the queue
+     * @throws Exception    if interrupted while waiting for the thread
+     */
+    private synchronized boolean discardQueued(Segment segment) throws Exception {
+
+        if (receiverThread != null) {
+
+            LockSupport.unpark(receiverThread);
+            receiverThread.join();
+        }
+
+        boolean found = false;
+        Segment queued;
+
+        while ((queued = queue.poll()) != null) {
+
+            found |= queued == segment;
+            queued.release();
+        }
+
+        return found;
+    }
+
+    /**
+     * The loop of the receiving thread.
+     */
+    private void receive() {
+
+        int idle = 0;
+
+        while (true) {
+
+            Segment segment = queue.poll();
+
+            if (segment == null) {
+
+                // Stop once closed and every queued segment has been received
+                if (closed && queue.isEmpty()) {
+                    return;
+                }
+
+                if (++idle < SPIN_LIMIT) {
+                    continue;
+                }
+
+                parkedReceiver = Thread.currentThread();
+
+                if (queue.isEmpty() && !closed) {
+                    LockSupport.parkNanos(this, PARK_NANOS);
+                }
+
+                parkedReceiver = null;
+                continue;
+            }
+
+            idle = 0;
+
+            // Let a sender waiting for room continue
+            Thread sender = parkedSender;
+
+            if (sender != null) {
+                LockSupport.unpark(sender);
+            }
+
+            try {
+
+                super.pullSegment(segment);
+                receivedSegmentCount++;
+
+            } catch (Exception e) {
+
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+    }
+
+
+    // -------------------------------------------------------------------------
+    //
+    // Segment Queueing Methods
+    //
+    // -------------------------------------------------------------------------
+
+
+    /**
+     * Queue a segment pushed by the sending host, to be received on the
+     * receiving thread.
+     *
+     * @param segment       the segment that was pushed
+     * @return              true if the segment was queued, false if it was
+     *                      dropped because the queue was full
+     * @throws Exception    if the Transport Layer is closed (the segment is
+     *                      released), or the sender was
+     *                      interrupted while it waited for room
+     */
+    @Override
+    boolean pullSegment(Segment segment) throws Exception {
+
+        if (closed) {
+
+            // The segment was handed over, so nothing else will release it
+            segment.release();
+
+            throw new IllegalStateException("The Transport Layer is closed!");
+        }
+
+        int spins = 0;
+
+        while (!queue.offer(segment)) {
+
+            if (backpressure == Backpressure.DROP_TAIL) {
+
+                droppedSegmentCount++;
+
+                // Nothing else holds a dropped pooled segment
+                segment.release();
+
+                return false;
+            }
+
+            if (backpressure == Backpressure.SPIN_THEN_PARK && ++spins < SPIN_LIMIT) {
+                continue;
+            }
+
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+
+            parkedSender = Thread.currentThread();
+
+            if (queue.size() == queue.capacity()) {
+                LockSupport.parkNanos(this, PARK_NANOS);
+            }
+
+            parkedSender = null;
+        }
+
+        // Wake the receiving thread if it is waiting for a segment
+        Thread receiver = parkedReceiver;
+
+        if (receiver != null) {
+            LockSupport.unpark(receiver);
+        }
+
+        // Closed while the segment was being queued, so the receiving thread
+        // may have stopped before taking it
+        if (closed && discardQueued(segment)) {
+            throw new IllegalStateException("The Transport Layer was closed before the segment was received!");
+        }
+
+        return true;
+    }
+
+
+    // -------------------------------------------------------------------------
+    //
+    // Transport Layer Statistics Getter Methods
+    //
+    // -------------------------------------------------------------------------
+
+
+    public Backpressure getBackpressure() {
+        return backpressure;
+    }
+
+    public int getCapacity() {
+        return queue.capacity();
+    }
+
+    /**
+     * Get the number of segments waiting in the queue.
+     *
+     * @return  the number of queued segments
+     */
+    public int getQueuedSegmentCount() {
+        return queue.size();
+    }
+
+    /**
+     * Get the number of segments the receiving thread has taken from the
+     * queue, whether they were accepted or discarded as corrupted.
+     *
+     * @return  the number of received segments
+     */
+    public long getReceivedSegmentCount() {
+        return receivedSegmentCount;
+    }
+
+    /**
+     * Get the number of segments that were dropped because the queue was
+     * full.
+     *
+     * @return  the number of dropped segments
+     */
+    public long getDroppedSegmentCount() {
+        return droppedSegmentCount;
+    }
+}
@@ -0,0 +1,304 @@
+package com.matmorcat;
+
+import java.util.Arrays;
+
+/**
+ * A simplified form of BBR. Rather than reacting to losses, BBR keeps a
+ * model of the path: the most bytes per second delivered over the last few
+ * round trips and the shortest round-trip time over the last few seconds.
+ * Their product is the bandwidth-delay product (BDP), the bytes that fill
+ * the path without building a queue, and the congestion window is set from
+ * it.
+ *
+ * The window grows as in slow start until the delivery rate stops rising
+ * (STARTUP), shrinks to the BDP to empty the queue that built up (DRAIN),
+ * then cycles through a round at 125% of the BDP to look for more bandwidth,
+ * a round at 75% to empty what that queued, and six rounds at the BDP
+ * (PROBE_BANDWIDTH). This version limits the window only and does not pace
+ * segments, and losses do not change the window.
+ *
+ * Bytes acknowledged during recovery still count towards the delivery rate
+ * of the round. A round in which a loss was found delivers less than the
+ * path can carry, while the hole is repaired, so its rate only goes into
+ * the estimate if it raises it, as BBR does for rounds limited by the
+ * application. A burst of losses therefore does not drag the bandwidth, and
+ * with it the window, down.
+ */
+public class BbrCongestionControl implements CongestionControl {
+
+    /**
+     * The phases of the algorithm.
+     */
+    public enum Mode {
+        STARTUP,
+        DRAIN,
+        PROBE_BANDWIDTH
+    }
+
+    // The window gains of the rounds of PROBE_BANDWIDTH
+    private static final double[] PROBE_GAINS = {1.25, 0.75, 1, 1, 1, 1, 1, 1};
+
+    // The number of round trips the bandwidth is the maximum over
+    private static final int BANDWIDTH_ROUNDS = 10;
+
+    // How long a minimum round-trip time is kept before it may rise
+    private static final long MIN_RTT_WINDOW_NANOS = 10_000_000_000L;
+
+    // STARTUP ends after this many rounds without the bandwidth growing by 25%
+    private static final int FULL_BANDWIDTH_ROUNDS = 3;
+
+    // The least window in segments
+    private static final int MIN_WINDOW_SEGMENTS = 4;
+
+    private int maxSegmentSize;
+    private long congestionWindow;
+    private Mode mode;
+
+    // The delivery rate of each of the last rounds in bytes per second
+    private final long[] bandwidthSamples = new long[BANDWIDTH_ROUNDS];
+    private long roundCount;
+
+    // The bytes delivered in total, and the time and total at the start of
+    // the current round
+    private long delivered;
+    private long roundStart;
+    private long roundStartDelivered;
+
+    // Whether a loss was found during the current round
+    private boolean lossInRound;
+
+    private long minRtt;
+    private long minRttTime;
+
+    // The bandwidth STARTUP last saw grow, and the rounds since
+    private long fullBandwidth;
+    private int roundsWithoutGrowth;
+
+    private int cycleIndex;
+
+    @Override
+    public void reset(int maxSegmentSize, long now) {
+
+        this.maxSegmentSize = maxSegmentSize;
+        this.congestionWindow = (long) RenoCongestionControl.INITIAL_WINDOW_SEGMENTS * maxSegmentSize;
+        this.mode = Mode.STARTUP;
+
+        Arrays.fill(bandwidthSamples, 0);
+        roundCount = 0;
+        delivered = 0;
+        lossInRound = false;
+        roundStart = now;
+        roundStartDelivered = 0;
+        minRtt = Long.MAX_VALUE;
+        minRttTime = now;
+        fullBandwidth = 0;
+        roundsWithoutGrowth = 0;
+        cycleIndex = 0;
+    }
+
+    @Override
+    public void onAcknowledgment(long acknowledged, long rtt, long bytesInFlight, long now) {
+
+        if (minRtt == Long.MAX_VALUE && rtt <= 0) {
+
+            delivered += acknowledged;
+            congestionWindow += acknowledged;
+            return;
+        }
+
+        updateModel(acknowledged, rtt, now);
+        updateWindow(acknowledged, bytesInFlight);
+    }
+
+    /**
+     * Count delivered bytes and a round-trip time in the model of the path,
+     * ending the round if a minimum round-trip time has passed.
+     */
+    private void updateModel(long acknowledged, long rtt, long now) {
+
+        delivered += acknowledged;
+
+        // Take a new minimum, or let it rise once it is too old
+        if (rtt > 0 && (rtt <= minRtt || now - minRttTime > MIN_RTT_WINDOW_NANOS)) {
+            minRtt = rtt;
+            minRttTime = now;
+        }
+
+        if (minRtt != Long.MAX_VALUE && now - roundStart >= minRtt) {
+            endRound(now);
+        }
+    }
+
+    /**
+     * Record the delivery rate of the round that has ended and move through
+     * the phases.
+     */
+    private void endRound(long now) {
+
+        long rate = (long) ((delivered - roundStartDelivered) * 1e9 / (now - roundStart));
+
+        // A round with a loss in it only says the path carries at least this much
+        if (!lossInRound || rate >= getBandwidth()) {
+            bandwidthSamples[(int) (roundCount++ % BANDWIDTH_ROUNDS)] = rate;
+        }
+
+        lossInRound = false;
+        roundStart = now;
+        roundStartDelivered = delivered;
+
+        if (mode == Mode.STARTUP) {
+
+            long bandwidth = getBandwidth();
+
+            if (bandwidth >= fullBandwidth + fullBandwidth / 4) {
+                fullBandwidth = bandwidth;
+                roundsWithoutGrowth = 0;
+            } else if (++roundsWithoutGrowth >= FULL_BANDWIDTH_ROUNDS) {
+                mode = Mode.DRAIN;
+            }
+
+        } else if (mode == Mode.PROBE_BANDWIDTH) {
+            cycleIndex = (cycleIndex + 1) % PROBE_GAINS.length;
+        }
+    }
+
+    /**
+     * Set the window for the current phase.
+     */
+    private void updateWindow(long acknowledged, long bytesInFlight) {
+
+        long bdp = getBandwidthDelayProduct();
+        long minimum = (long) MIN_WINDOW_SEGMENTS * maxSegmentSize;
+
+        switch (mode) {
+
+            case STARTUP:
+                congestionWindow += acknowledged;
+                break;
+
+            case DRAIN:
+                congestionWindow = Math.max(bdp, minimum);
+
+                if (bytesInFlight <= bdp) {
+                    mode = Mode.PROBE_BANDWIDTH;
+                    cycleIndex = 0;
+                }
+                break;
+
+            case PROBE_BANDWIDTH:
+                congestionWindow = Math.max((long) (bdp * PROBE_GAINS[cycleIndex]), minimum);
+                break;
+        }
+    }
+
+    /**
+     * Losses do not change the window, but they mark the round.
+     */
+    @Override
+    public void onLoss(long bytesInFlight, long now) {
+        lossInRound = true;
+    }
+
+    @Override
+    public void onDuplicateAcknowledgment(long now) {
+    }
+
+    /**
+     * The bytes delivered during recovery still count towards the delivery
+     * rate of the round, which another hole has marked.
+     */
+    @Override
+    public boolean onPartialAcknowledgment(long acknowledged, long rtt, long now) {
+
+        delivered += acknowledged;
+        lossInRound = true;
+
+        return true;
+    }
+
+    @Override
+    public void onRecovered(long acknowledged, long rtt, long now) {
+        delivered += acknowledged;
+    }
+
+    @Override
+    public void onRetransmissionTimeout(long bytesInFlight, long now) {
+
+        // Start again from a small window; the model sets it back once
+        // acknowledgments return
+        congestionWindow = (long) MIN_WINDOW_SEGMENTS * maxSegmentSize;
+        lossInRound = true;
+    }
+
+
+    // -------------------------------------------------------------------------
+    //
+    // Path Model Getter Methods
+    //
+    // -------------------------------------------------------------------------
+
+
+    /**
+     * Get the highest delivery rate over the last rounds.
+     *
+     * @return  the bandwidth in bytes per second
+     */
+    public long getBandwidth() {
+
+        long bandwidth = 0;
+
+        for (long sample : bandwidthSamples) {
+            bandwidth = Math.max(bandwidth, sample);
+        }
+
+        return bandwidth;
+    }
+
+    /**
+     * Get the shortest round-trip time measured recently.
+     *
+     * @return  the minimum round-trip time in nanoseconds, or
+     *          {@link Long#MAX_VALUE} before the first measurement
+     */
+    public long getMinRtt() {
+        return minRtt;
+    }
+
+    /**
+     * Get the bytes that fill the path without building a queue.
+     *
+     * @return  the bandwidth-delay product in bytes
+     */
+    public long getBandwidthDelayProduct() {
+        return minRtt == Long.MAX_VALUE ? 0 : (long) (getBandwidth() * (minRtt / 1e9));
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    @Override
+    public long getCongestionWindow() {
+        return congestionWindow;
+    }
+
+    /**
+     * BBR has no slow start threshold.
+     *
+     * @return  {@link Long#MAX_VALUE}
+     */
+    @Override
+    public long getSlowStartThreshold() {
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public String toString() {
+        return "BbrCongestionControl{" +
+                "mode=" + mode +
+                ", congestionWindow=" + congestionWindow +
+                ", bandwidth=" + getBandwidth() +
+                ", minRtt=" + minRtt +
+                '}';
+    }
+}
@@ -0,0 +1,77 @@
+package com.matmorcat;
+
+/**
+ * Helper methods for reading and writing fields that are packed into a byte
+ * array in network (big-endian) order. Offsets and lengths are given in bits
+ * so that fields which do not start on a byte boundary, such as the header
+ * length and control flags of the TCP header, can be accessed directly.
+ */
+final class Bits {
+
+    private Bits() {}
+
+    /**
+     * Read an unsigned field of up to 32 bits out of the data.
+     *
+     * @param data      the bytes to read from
+     * @param offset    the offset of the first bit of the field
+     * @param length    the number of bits in the field
+     * @return          the value of the field
+     */
+    static long read(byte[] data, int offset, int length) {
+
+        long value = 0;
+
+        // Fast path for fields that are aligned to whole bytes
+        if ((offset & 7) == 0 && (length & 7) == 0) {
+
+            for (int i = offset >>> 3; i < (offset + length) >>> 3; i++) {
+                value = (value << 8) | (data[i] & 0xFF);
+            }
+
+            return value;
+        }
+
+        for (int i = offset; i < offset + length; i++) {
+            value = (value << 1) | ((data[i >>> 3] >>> (7 - (i & 7))) & 1);
+        }
+
+        return value;
+    }
+
+    /**
+     * Write an unsigned field of up to 32 bits into the data. Bits of the
+     * value above the length of the field are ignored.
+     *
+     * @param data      the bytes to write to
+     * @param offset    the offset of the first bit of the field
+     * @param length    the number of bits in the field
+     * @param value     the value of the field
+     */
+    static void write(byte[] data, int offset, int length, long value) {
+
+        // Fast path for fields that are aligned to whole bytes
+        if ((offset & 7) == 0 && (length & 7) == 0) {
+
+            for (int i = ((offset + length) >>> 3) - 1; i >= offset >>> 3; i--) {
+                data[i] = (byte) value;
+                value >>>= 8;
+            }
+
+            return;
+        }
+
+        for (int i = offset + length - 1; i >= offset; i--) {
+
+            int mask = 1 << (7 - (i & 7));
+
+            if ((value & 1) != 0) {
+                data[i >>> 3] |= mask;
+            } else {
+                data[i >>> 3] &= ~mask;
+            }
+
+            value >>>= 1;
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package com.matmorcat;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * This class calculates the internet checksum (RFC 1071) used by TCP directly
+ * on the bytes of a segment. The data is summed 32 bits at a time into a
+ * 64-bit accumulator and the end-around carries are only folded back into 16
+ * bits once at the end, so no work or memory is spent per 16-bit word.
+ *
+ * A checksum over several ranges (such as the pseudo-header followed by the
+ * segment) is calculated by passing the partial sum of one range as the
+ * initial sum of the next. Every range except the last must have an even
+ * length so that the 16-bit words stay aligned.
+ *
+ * Large ranges, such as the payloads of bulk transfers, are summed in byte
+ * lanes instead (see {@link #sumLanes(byte[], int, int, long)}), which the
+ * JIT compiler can turn into SIMD instructions.
+ */
+public final class Checksum {
+
+    // Ranges at least this long (in bytes) are summed in byte lanes
+    static final int LANE_THRESHOLD_IN_BYTES = 128;
+
+    // The number of 8-byte blocks that can be summed in the lanes before
+    // they could overflow (4 bytes of at most 255 each per block)
+    private static final int LANE_FLUSH_INTERVAL = 1 << 20;
+
+    private Checksum() {}
+
+    /**
+     * Add a range of bytes to a partial one's complement sum. If the range has
+     * an odd length, the last byte is padded with 0s on the right to form a
+     * 16-bit word.
+     *
+     * @param data      the bytes to sum
+     * @param offset    the index of the first byte to sum
+     * @param length    the number of bytes to sum
+     * @param sum       the partial sum of any preceding data (0 if none)
+     * @return          the new partial sum (not yet folded to 16 bits)
+     */
+    public static long sum(byte[] data, int offset, int length, long sum) {
+
+        if (length >= LANE_THRESHOLD_IN_BYTES) {
+
+            return sumLanes(data, offset, length, sum);
+        }
+
+        return sumWords(data, offset, length, sum);
+    }
+
+    /**
+     * Add a range of bytes to a partial sum one 32-bit word at a time.
+     *
+     * @param data      the bytes to sum
+     * @param offset    the index of the first byte to sum
+     * @param length    the number of bytes to sum
+     * @param sum       the partial sum of any preceding data (0 if none)
+     * @return          the new partial sum (not yet folded to 16 bits)
+     */
+    static long sumWords(byte[] data, int offset, int length, long sum) {
+
+        int end = offset + length;
+        int i = offset;
+
+        // Sum every 32 bits of the data as unsigned words
+        for (; i + 3 < end; i += 4) {
+
+            sum += ((data[i] & 0xFF) << 24 | (data[i + 1] & 0xFF) << 16
+                    | (data[i + 2] & 0xFF) << 8 | (data[i + 3] & 0xFF)) & 0xFFFFFFFFL;
+        }
+
+        // Sum the remaining 16-bit word, if there is one
+        if (i + 1 < end) {
+
+            sum += (data[i] & 0xFF) << 8 | (data[i + 1] & 0xFF);
+            i += 2;
+        }
+
+        // Pad the remaining byte, if there is one
+        if (i < end) {
+
+            sum += (data[i] & 0xFF) << 8;
+        }
+
+        return sum;
+    }
+
+    /**
+     * Add a range of bytes to a partial sum by adding the high and low bytes
+     * of every 16-bit word into two separate lanes. Each step of the loop is
+     * the same independent addition, so it can be vectorized, and the lanes
+     * are only combined (high lane shifted up by 8 bits) when they are
+     * flushed into the sum.
+     *
+     * @param data      the bytes to sum
+     * @param offset    the index of the first byte to sum
+     * @param length    the number of bytes to sum
+     * @param sum       the partial sum of any preceding data (0 if none)
+     * @return          the new partial sum (not yet folded to 16 bits)
+     */
+    static long sumLanes(byte[] data, int offset, int length, long sum) {
+
+        int end = offset + length;
+        int i = offset;
+
+        while (i + 7 < end) {
+
+            int high = 0;
+            int low = 0;
+
+            // Sum blocks of 8 bytes until the lanes could overflow
+            int blockEnd = i + 8 * Math.min(LANE_FLUSH_INTERVAL, (end - i) >>> 3);
+
+            for (; i < blockEnd; i += 8) {
+
+                high += (data[i] & 0xFF) + (data[i + 2] & 0xFF)
+                        + (data[i + 4] & 0xFF) + (data[i + 6] & 0xFF);
+                low += (data[i + 1] & 0xFF) + (data[i + 3] & 0xFF)
+                        + (data[i + 5] & 0xFF) + (data[i + 7] & 0xFF);
+            }
+
+            sum += ((long) high << 8) + low;
+        }
+
+        // Sum the remaining bytes that do not fill a block
+        return sumWords(data, i, end - i, sum);
+    }
+
+    /**
+     * Add a range of a buffer to a partial one's complement sum. The buffer is
+     * read with absolute indexes, so its position and limit are not changed.
+     * Buffers in either byte order are read as network (big-endian) order.
+     *
+     * @param buffer    the buffer to sum
+     * @param offset    the index of the first byte to sum
+     * @param length    the number of bytes to sum
+     * @param sum       the partial sum of any preceding data (0 if none)
+     * @return          the new partial sum (not yet folded to 16 bits)
+     */
+    public static long sum(ByteBuffer buffer, int offset, int length, long sum) {
+
+        if (buffer.hasArray()) {
+
+            return sum(buffer.array(), buffer.arrayOffset() + offset, length, sum);
+        }
+
+        boolean swap = buffer.order() != ByteOrder.BIG_ENDIAN;
+        int end = offset + length;
+        int i = offset;
+
+        // Sum every 32 bits of the data as unsigned words
+        for (; i + 3 < end; i += 4) {
+
+            int word = buffer.getInt(i);
+
+            if (swap) {
+                word = Integer.reverseBytes(word);
+            }
+
+            sum += word & 0xFFFFFFFFL;
+        }
+
+        // Sum the remaining 16-bit word, if there is one
+        if (i + 1 < end) {
+
+            sum += (buffer.get(i) & 0xFF) << 8 | (buffer.get(i + 1) & 0xFF);
+            i += 2;
+        }
+
+        // Pad the remaining byte, if there is one
+        if (i < end) {
+
+            sum += (buffer.get(i) & 0xFF) << 8;
+        }
+
+        return sum;
+    }
+
+    /**
+     * Update a checksum for a 16-bit word of the data that has changed, without
+     * summing the rest of the data again (RFC 1624, equation 3). To update for
+     * a field that spans several words, update once for each word.
+     *
+     * @param checksum  the checksum before the change
+     * @param oldWord   the 16-bit word before the change
+     * @param newWord   the 16-bit word after the change
+     * @return          the checksum after the change
+     */
+    public static int update(int checksum, int oldWord, int newWord) {
+        return complement((~checksum & 0xFFFF) + (~oldWord & 0xFFFF) + (newWord & 0xFFFF));
+    }
+
+    /**
+     * Fold the carries of a partial sum back into the lowest 16 bits.
+     *
+     * @param sum   the partial sum
+     * @return      the one's complement sum in 16 bits
+     */
+    public static int fold(long sum) {
+
+        // Wrap the carries around until the sum fits in 16 bits
+        while ((sum >>> 16) != 0) {
+
+            sum = (sum & 0xFFFF) + (sum >>> 16);
+        }
+
+        return (int) sum;
+    }
+
+    /**
+     * Find the checksum of a partial sum, which is the one's complement of the
+     * folded sum. The checksum of data which already includes a valid checksum
+     * is 0.
+     *
+     * @param sum   the partial sum
+     * @return      the checksum in 16 bits
+     */
+    public static int complement(long sum) {
+        return ~fold(sum) & 0xFFFF;
+    }
+}
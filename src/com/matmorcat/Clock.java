@@ -0,0 +1,22 @@
+package com.matmorcat;
+
+/**
+ * A source of time for timers. {@link #SYSTEM} follows wall time, while a
+ * {@link VirtualClock} only moves when it is told to, so a simulation can
+ * skip over idle time and repeat a run exactly.
+ */
+public interface Clock {
+
+    /**
+     * The clock of {@link System#nanoTime()}.
+     */
+    Clock SYSTEM = System::nanoTime;
+
+    /**
+     * Get the current time. Only the difference between two times has a
+     * meaning, as with {@link System#nanoTime()}.
+     *
+     * @return  the current time in nanoseconds
+     */
+    long nanoTime();
+}
@@ -0,0 +1,128 @@
+package com.matmorcat;
+
+/**
+ * A congestion control algorithm for a {@link SlidingWindowSender}. The
+ * sender detects acknowledgments, losses and timeouts and tells the
+ * algorithm about them, and the algorithm keeps the congestion window,
+ * which limits the bytes in flight along with the peer's window.
+ *
+ * The sender runs fast retransmit and fast recovery itself (RFC 5681): on
+ * the third duplicate acknowledgment it sends the oldest unacknowledged
+ * segment again and stays in recovery until every byte sent before the loss
+ * is acknowledged. The algorithm decides how the window changes along the
+ * way, and whether a partial acknowledgment during recovery retransmits the
+ * next hole (as NewReno does) or ends recovery (as Reno does).
+ *
+ * Each hook is called for every acknowledgment, so implementations only do
+ * arithmetic on their own fields and create no objects. All sizes are in
+ * bytes and all times in nanoseconds of the sender's clock.
+ */
+public interface CongestionControl {
+
+    /**
+     * Create an algorithm by name.
+     *
+     * @param name  reno, newreno, cubic or bbr, in any case
+     * @return      a new instance of the algorithm
+     */
+    static CongestionControl create(String name) {
+
+        switch (name.toLowerCase()) {
+            case "reno":
+                return new RenoCongestionControl();
+            case "newreno":
+                return new NewRenoCongestionControl();
+            case "cubic":
+                return new CubicCongestionControl();
+            case "bbr":
+                return new BbrCongestionControl();
+            default:
+                throw new IllegalArgumentException("Unknown congestion control " + name);
+        }
+    }
+
+    /**
+     * Start over for a new connection.
+     *
+     * @param maxSegmentSize    the sender's maximum segment size
+     * @param now               the current time
+     */
+    void reset(int maxSegmentSize, long now);
+
+    /**
+     * New bytes were acknowledged outside of recovery.
+     *
+     * @param acknowledged  the number of bytes newly acknowledged
+     * @param rtt           a round-trip time measured by this
+     *                      acknowledgment, or -1 if it gave none
+     * @param bytesInFlight the bytes still in flight
+     * @param now           the current time
+     */
+    void onAcknowledgment(long acknowledged, long rtt, long bytesInFlight, long now);
+
+    /**
+     * A third duplicate acknowledgment signalled a lost segment, and the
+     * sender is entering fast recovery.
+     *
+     * @param bytesInFlight the bytes in flight when the loss was detected
+     * @param now           the current time
+     */
+    void onLoss(long bytesInFlight, long now);
+
+    /**
+     * Another duplicate acknowledgment arrived during recovery, which means
+     * another segment has left the network.
+     *
+     * @param now   the current time
+     */
+    void onDuplicateAcknowledgment(long now);
+
+    /**
+     * Some but not all of the bytes sent before the loss were acknowledged
+     * during recovery.
+     *
+     * @param acknowledged  the number of bytes newly acknowledged
+     * @param rtt           a round-trip time measured by this
+     *                      acknowledgment, or -1 if it gave none
+     * @param now           the current time
+     * @return              true to retransmit the next unacknowledged
+     *                      segment and stay in recovery, false to end
+     *                      recovery
+     */
+    boolean onPartialAcknowledgment(long acknowledged, long rtt, long now);
+
+    /**
+     * Recovery has ended with an acknowledgment, which is not also passed to
+     * {@link #onAcknowledgment(long, long, long, long)}.
+     *
+     * @param acknowledged  the number of bytes newly acknowledged by the
+     *                      acknowledgment that ended recovery
+     * @param rtt           a round-trip time measured by this
+     *                      acknowledgment, or -1 if it gave none
+     * @param now           the current time
+     */
+    void onRecovered(long acknowledged, long rtt, long now);
+
+    /**
+     * The retransmission timer expired, and every byte in flight is being
+     * sent again.
+     *
+     * @param bytesInFlight the bytes in flight when the timer expired
+     * @param now           the current time
+     */
+    void onRetransmissionTimeout(long bytesInFlight, long now);
+
+    /**
+     * Get the most bytes the sender may have in flight.
+     *
+     * @return  the congestion window
+     */
+    long getCongestionWindow();
+
+    /**
+     * Get the window below which the congestion window grows exponentially.
+     *
+     * @return  the slow start threshold
+     */
+    long getSlowStartThreshold();
+}
@@ -0,0 +1,69 @@
+package com.matmorcat;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A Transport Layer that receives segments for many connections and passes
+ * each one on to the Transport Layer of the connection it belongs to, found
+ * by its 4-tuple in a {@link ConnectionTable}. Connections are registered
+ * with the addresses and ports that their incoming segments carry.
+ *
+ * Segments can be pushed to a demultiplexer from several threads at once, as
+ * long as each connection only receives segments on one thread at a time.
+ */
+public class ConnectionDemultiplexer extends TransportLayer {
+
+    private final ConnectionTable<TransportLayer> connections;
+
+    private final LongAdder unmatchedSegmentCount = new LongAdder();
+
+    /**
+     * Creates a demultiplexer with no connections.
+     *
+     * @param expectedConnections   the number of connections to make room for
+     */
+    public ConnectionDemultiplexer(int expectedConnections) {
+        this.connections = new ConnectionTable<>(expectedConnections);
+    }
+
+    /**
+     * Pass a segment on to the connection it belongs to. A segment that
+     * belongs to no connection is discarded.
+     */
+    @Override
+    boolean pullSegment(Segment segment) throws Exception {
+
+        TransportLayer connection = connections.get(segment);
+
+        if (connection == null) {
+
+            unmatchedSegmentCount.increment();
+
+            // Nothing else holds a discarded pooled segment
+            segment.release();
+
+            return false;
+        }
+
+        return connection.pullSegment(segment);
+    }
+
+    /**
+     * Get the table of connections, to register and remove connections.
+     *
+     * @return  the connections by 4-tuple
+     */
+    public ConnectionTable<TransportLayer> getConnections() {
+        return connections;
+    }
+
+    /**
+     * Get the number of segments discarded because they belonged to no
+     * connection.
+     *
+     * @return  the number of discarded segments
+     */
+    public long getUnmatchedSegmentCount() {
+        return unmatchedSegmentCount.sum();
+    }
+}
@@ -0,0 +1,152 @@
+package com.matmorcat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Simulates many connections at once, each made of a client and a server
+ * Transport Layer that exchange segments back and forth. The client and the
+ * server of every connection run as tasks of their own, on threads created
+ * according to a {@link SchedulerConfig}, and each waits for the other's
+ * segment with {@link TransportLayer#receiveSegment()}.
+ *
+ * In each round the client pushes a segment to the server, and the server
+ * acknowledges it by pushing the same segment back with its acknowledgment
+ * number set. A single segment object travels back and forth, so no segments
+ * are created once the connections have started.
+ */
+public final class ConnectionRunner {
+
+    private final SchedulerConfig config;
+
+    private long elapsedNanos;
+    private long roundTripCount;
+
+    public ConnectionRunner(SchedulerConfig config) {
+        this.config = config;
+    }
+
+    /**
+     * Run the connections until each has finished its rounds.
+     *
+     * @param data          the pseudo-header + segment each connection starts
+     *                      with, in binary or hex
+     * @param connections   the number of connections
+     * @param rounds        the number of round trips per connection
+     * @return              the time the connections took in nanoseconds
+     * @throws Exception    if the segment was invalid or a connection failed
+     */
+    public long run(String data, int connections, int rounds) throws Exception {
+
+        // Every task blocks while it waits for its peer, so a pool that is too
+        // small would leave some tasks waiting forever for a thread
+        if (config.getMode() == SchedulerConfig.Mode.PLATFORM
+                && config.getPlatformPoolSize() < connections * 2) {
+
+            throw new IllegalArgumentException(connections + " connections need a pool of at least "
+                    + connections * 2 + " platform threads!");
+        }
+
+        List<Runnable> tasks = new ArrayList<>(connections * 2);
+
+        for (int i = 0; i < connections; i++) {
+
+            Segment segment = new Segment(data);
+            segment.setSourcePort(i);
+
+            TransportLayer client = new TransportLayer();
+            TransportLayer server = new TransportLayer();
+
+            tasks.add(() -> runClient(client, server, segment, rounds));
+            tasks.add(() -> runServer(server, client, rounds));
+        }
+
+        ExecutorService executor = config.createExecutor();
+        List<Future<?>> futures = new ArrayList<>(tasks.size());
+
+        long start = System.nanoTime();
+
+        try {
+
+            for (Runnable task : tasks) {
+                futures.add(executor.submit(task));
+            }
+
+            for (Future<?> future : futures) {
+                future.get();
+            }
+
+        } finally {
+
+            executor.shutdownNow();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+
+        elapsedNanos = System.nanoTime() - start;
+        roundTripCount = (long) connections * rounds;
+
+        return elapsedNanos;
+    }
+
+    private static void runClient(TransportLayer client, TransportLayer server, Segment segment, int rounds) {
+
+        try {
+
+            for (int round = 0; round < rounds; round++) {
+
+                segment.setSequenceNumber(round);
+                client.setSegment(segment);
+                client.pushSegment(server);
+
+                // Wait for the acknowledgment, which brings the segment back
+                segment = client.receiveSegment();
+            }
+
+        } catch (Exception e) {
+            throw new IllegalStateException("Client failed!", e);
+        }
+    }
+
+    private static void runServer(TransportLayer server, TransportLayer client, int rounds) {
+
+        try {
+
+            for (int round = 0; round < rounds; round++) {
+
+                Segment segment = server.receiveSegment();
+                segment.setAcknowledgmentNumber(segment.getSequenceNumber() + 1);
+
+                server.setSegment(segment);
+                server.pushSegment(client);
+            }
+
+        } catch (Exception e) {
+            throw new IllegalStateException("Server failed!", e);
+        }
+    }
+
+    public SchedulerConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * Get the time the last run took.
+     *
+     * @return  the time in nanoseconds
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * Get the number of round trips completed in the last run.
+     *
+     * @return  the number of round trips across all connections
+     */
+    public long getRoundTripCount() {
+        return roundTripCount;
+    }
+}
@@ -0,0 +1,393 @@
+package com.matmorcat;
+
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * A table of connections keyed by the 4-tuple of a segment: the source and
+ * destination addresses of its pseudo-header and its source and destination
+ * ports. The addresses are packed into one {@code long} and the ports into
+ * one {@code int}, and the table stores them in primitive arrays with open
+ * addressing (linear probing), so a lookup creates no objects and a table of
+ * millions of connections costs about 16 bytes per slot besides the
+ * connections themselves.
+ *
+ * Lookups can run on any number of threads at once. They first read the
+ * table without locking and only take the read lock if a change was made
+ * while they read (see {@link StampedLock}), so lookups do not contend with
+ * each other. Changes to the table take the write lock.
+ *
+ * @param <V>   the type of the connections
+ */
+public final class ConnectionTable<V> {
+
+    private static final int MIN_CAPACITY = 16;
+    private static final int MAX_CAPACITY = 1 << 30;
+
+    private final StampedLock lock = new StampedLock();
+
+    // Replaced as a whole when the table grows, so a reader always sees
+    // arrays and a mask that belong together
+    private volatile Slots slots;
+
+    private int size;
+
+    /**
+     * The arrays of the table. A slot is empty if its value is null.
+     */
+    private static final class Slots {
+
+        final long[] addresses;
+        final int[] ports;
+        final Object[] values;
+        final int mask;
+
+        Slots(int capacity) {
+            this.addresses = new long[capacity];
+            this.ports = new int[capacity];
+            this.values = new Object[capacity];
+            this.mask = capacity - 1;
+        }
+    }
+
+    /**
+     * Creates an empty table.
+     *
+     * @param expectedSize  the number of connections the table should hold
+     *                      without growing
+     */
+    public ConnectionTable(int expectedSize) {
+        this.slots = new Slots(capacityFor(expectedSize));
+    }
+
+
+    // -------------------------------------------------------------------------
+    //
+    // Connection Lookup Methods
+    //
+    // -------------------------------------------------------------------------
+
+
+    /**
+     * Get the connection of a 4-tuple.
+     *
+     * @param sourceAddress the source address (32 bits)
+     * @param destAddress   the destination address (32 bits)
+     * @param sourcePort    the source port (16 bits)
+     * @param destPort      the destination port (16 bits)
+     * @return              the connection, or null if there is none
+     */
+    public V get(long sourceAddress, long destAddress, int sourcePort, int destPort) {
+        return find(addressKey(sourceAddress, destAddress), portKey(sourcePort, destPort));
+    }
+
+    /**
+     * Get the connection that a segment belongs to.
+     *
+     * @param segment   the segment
+     * @return          the connection, or null if there is none
+     */
+    public V get(Segment segment) {
+
+        PseudoHeader pseudoHeader = segment.getPseudoHeader();
+
+        return get(pseudoHeader.getSourceAddress(), pseudoHeader.getDestAddress(),
+                segment.getSourcePort(), segment.getDestPort());
+    }
+
+    /**
+     * Get the connection that a segment in a buffer belongs to.
+     *
+     * @param view  the view of the segment
+     * @return      the connection, or null if there is none
+     */
+    public V get(SegmentView view) {
+        return get(view.getSourceAddress(), view.getDestAddress(), view.getSourcePort(), view.getDestPort());
+    }
+
+    @SuppressWarnings("unchecked")
+    private V find(long addressKey, int portKey) {
+
+        // Read without locking, and check afterwards that nothing changed meanwhile
+        long stamp = lock.tryOptimisticRead();
+
+        if (stamp != 0) {
+
+            Object value = probe(slots, addressKey, portKey);
+
+            if (lock.validate(stamp)) {
+                return (V) value;
+            }
+        }
+
+        stamp = lock.readLock();
+
+        try {
+            return (V) probe(slots, addressKey, portKey);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Find the value of a key. The search gives up after visiting every slot,
+     * so that a read racing with a change can never loop forever.
+     */
+    private static Object probe(Slots slots, long addressKey, int portKey) {
+
+        int index = indexOf(addressKey, portKey, slots.mask);
+
+        for (int probes = 0; probes <= slots.mask; probes++) {
+
+            Object value = slots.values[index];
+
+            if (value == null) {
+                return null;
+            }
+
+            if (slots.addresses[index] == addressKey && slots.ports[index] == portKey) {
+                return value;
+            }
+
+            index = (index + 1) & slots.mask;
+        }
+
+        return null;
+    }
+
+
+    // -------------------------------------------------------------------------
+    //
+    // Connection Update Methods
+    //
+    // -------------------------------------------------------------------------
+
+
+    /**
+     * Add a connection, or replace the connection of a 4-tuple.
+     *
+     * @param sourceAddress the source address (32 bits)
+     * @param destAddress   the destination address (32 bits)
+     * @param sourcePort    the source port (16 bits)
+     * @param destPort      the destination port (16 bits)
+     * @param connection    the connection
+     * @return              the connection it replaced, or null if there was none
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long sourceAddress, long destAddress, int sourcePort, int destPort, V connection) {
+
+        if (connection == null) {
+            throw new NullPointerException("The connection cannot be null!");
+        }
+
+        long addressKey = addressKey(sourceAddress, destAddress);
+        int portKey = portKey(sourcePort, destPort);
+
+        long stamp = lock.writeLock();
+
+        try {
+
+            Slots current = slots;
+            int index = indexOf(addressKey, portKey, current.mask);
+
+            while (current.values[index] != null) {
+
+                if (current.addresses[index] == addressKey && current.ports[index] == portKey) {
+
+                    Object replaced = current.values[index];
+                    current.values[index] = connection;
+
+                    return (V) replaced;
+                }
+
+                index = (index + 1) & current.mask;
+            }
+
+            current.addresses[index] = addressKey;
+            current.ports[index] = portKey;
+            current.values[index] = connection;
+
+            // Grow once the table is two thirds full, while probe sequences are still short
+            if (++size * 3L > current.values.length * 2L) {
+                grow();
+            }
+
+            return null;
+
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Remove the connection of a 4-tuple.
+     *
+     * @param sourceAddress the source address (32 bits)
+     * @param destAddress   the destination address (32 bits)
+     * @param sourcePort    the source port (16 bits)
+     * @param destPort      the destination port (16 bits)
+     * @return              the removed connection, or null if there was none
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long sourceAddress, long destAddress, int sourcePort, int destPort) {
+
+        long addressKey = addressKey(sourceAddress, destAddress);
+        int portKey = portKey(sourcePort, destPort);
+
+        long stamp = lock.writeLock();
+
+        try {
+
+            Slots current = slots;
+            int index = indexOf(addressKey, portKey, current.mask);
+
+            while (current.values[index] != null) {
+
+                if (current.addresses[index] == addressKey && current.ports[index] == portKey) {
+
+                    Object removed = current.values[index];
+
+                    closeGap(current, index);
+                    size--;
+
+                    return (V) removed;
+                }
+
+                index = (index + 1) & current.mask;
+            }
+
+            return null;
+
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Empty a slot and move later entries of the same probe sequence back
+     * into the gap, so that no markers for removed entries are needed.
+     */
+    private static void closeGap(Slots slots, int gap) {
+
+        int index = gap;
+
+        while (true) {
+
+            index = (index + 1) & slots.mask;
+
+            if (slots.values[index] == null) {
+                break;
+            }
+
+            int home = indexOf(slots.addresses[index], slots.ports[index], slots.mask);
+
+            // Move the entry back if its home slot is not between the gap and itself
+            if (((index - home) & slots.mask) >= ((index - gap) & slots.mask)) {
+
+                slots.addresses[gap] = slots.addresses[index];
+                slots.ports[gap] = slots.ports[index];
+                slots.values[gap] = slots.values[index];
+                gap = index;
+            }
+        }
+
+        slots.values[gap] = null;
+    }
+
+    private void grow() {
+
+        Slots old = slots;
+
+        if (old.values.length >= MAX_CAPACITY) {
+            throw new IllegalStateException("The connection table is full!");
+        }
+
+        Slots grown = new Slots(old.values.length * 2);
+
+        for (int i = 0; i < old.values.length; i++) {
+
+            if (old.values[i] != null) {
+
+                int index = indexOf(old.addresses[i], old.ports[i], grown.mask);
+
+                while (grown.values[index] != null) {
+                    index = (index + 1) & grown.mask;
+                }
+
+                grown.addresses[index] = old.addresses[i];
+                grown.ports[index] = old.ports[i];
+                grown.values[index] = old.values[i];
+            }
+        }
+
+        slots = grown;
+    }
+
+    /**
+     * Remove every connection.
+     */
+    public void clear() {
+
+        long stamp = lock.writeLock();
+
+        try {
+
+            slots = new Slots(MIN_CAPACITY);
+            size = 0;
+
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public int size() {
+
+        long stamp = lock.readLock();
+
+        try {
+            return size;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+
+    // -------------------------------------------------------------------------
+    //
+    // Helper Key Methods
+    //
+    // -------------------------------------------------------------------------
+
+
+    /**
+     * Pack the source and destination addresses into one key.
+     */
+    static long addressKey(long sourceAddress, long destAddress) {
+        return (sourceAddress & 0xFFFFFFFFL) << 32 | (destAddress & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Pack the source and destination ports into one key.
+     */
+    static int portKey(int sourcePort, int destPort) {
+        return (sourcePort & 0xFFFF) << 16 | (destPort & 0xFFFF);
+    }
+
+    private static int indexOf(long addressKey, int portKey, int mask) {
+
+        // Mix every bit of the key into the low bits used for the index
+        long hash = (addressKey ^ (portKey * 0x9E3779B97F4A7C15L)) * 0xC2B2AE3D27D4EB4FL;
+
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    private static int capacityFor(int expectedSize) {
+
+        long needed = Math.max((long) expectedSize * 3 / 2 + 1, MIN_CAPACITY);
+
+        if (needed > MAX_CAPACITY) {
+            throw new IllegalArgumentException("The connection table cannot hold " + expectedSize + " connections!");
+        }
+
+        return Integer.highestOneBit((int) needed - 1) << 1;
+    }
+}
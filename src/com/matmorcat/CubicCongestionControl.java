@@ -0,0 +1,126 @@
+package com.matmorcat;
+
+/**
+ * The congestion control of CUBIC (RFC 9438). In congestion avoidance the
+ * window follows a cubic function of the time since the last loss, which
+ * flattens out around the window at that loss and then probes beyond it, so
+ * the window climbs back quickly on paths with a large bandwidth-delay
+ * product. A loss cuts the window to 70% rather than half. Recovery works
+ * as in {@link NewRenoCongestionControl}.
+ *
+ * The window is also kept at least as large as Reno's would be on the same
+ * path, so CUBIC is no slower than Reno where Reno does well.
+ */
+public class CubicCongestionControl extends NewRenoCongestionControl {
+
+    // The scaling constant of the cubic function, in segments per second^3
+    private static final double C = 0.4;
+
+    // The factor the window is cut by after a loss
+    private static final double BETA = 0.7;
+
+    // The window at the last loss, in segments
+    private double maxWindow;
+
+    // The start of the current growth period, or -1 before it starts, and
+    // the time and window at which the cubic function is flat
+    private long epochStart;
+    private double flatTime;
+    private double originWindow;
+
+    // The window Reno would have in segments (RFC 9438 4.3)
+    private double renoWindow;
+
+    private long minRtt;
+
+    @Override
+    public void reset(int maxSegmentSize, long now) {
+
+        super.reset(maxSegmentSize, now);
+
+        maxWindow = 0;
+        epochStart = -1;
+        minRtt = Long.MAX_VALUE;
+    }
+
+    @Override
+    public void onAcknowledgment(long acknowledged, long rtt, long bytesInFlight, long now) {
+
+        if (rtt > 0) {
+            minRtt = Math.min(minRtt, rtt);
+        }
+
+        super.onAcknowledgment(acknowledged, rtt, bytesInFlight, now);
+    }
+
+    @Override
+    public boolean onPartialAcknowledgment(long acknowledged, long rtt, long now) {
+
+        if (rtt > 0) {
+            minRtt = Math.min(minRtt, rtt);
+        }
+
+        return super.onPartialAcknowledgment(acknowledged, rtt, now);
+    }
+
+    @Override
+    public void onRecovered(long acknowledged, long rtt, long now) {
+
+        if (rtt > 0) {
+            minRtt = Math.min(minRtt, rtt);
+        }
+
+        super.onRecovered(acknowledged, rtt, now);
+    }
+
+    @Override
+    protected void increaseInAvoidance(long acknowledged, long now) {
+
+        double window = (double) congestionWindow / maxSegmentSize;
+
+        if (epochStart < 0) {
+
+            epochStart = now;
+
+            if (window < maxWindow) {
+                flatTime = Math.cbrt((maxWindow - window) / C);
+                originWindow = maxWindow;
+            } else {
+                flatTime = 0;
+                originWindow = window;
+            }
+
+            renoWindow = window;
+        }
+
+        // The window the cubic function gives one round trip from now
+        double elapsed = (now - epochStart + (minRtt == Long.MAX_VALUE ? 0 : minRtt)) / 1e9 - flatTime;
+        double target = originWindow + C * elapsed * elapsed * elapsed;
+
+        renoWindow += 3 * (1 - BETA) / (1 + BETA) * acknowledged / congestionWindow;
+
+        target = Math.max(target, renoWindow);
+
+        // Close the gap to the target over about a round trip, but grow by
+        // no more than half a window per round trip
+        if (target > window) {
+
+            double growth = Math.min(target - window, window / 2) * acknowledged / congestionWindow;
+
+            congestionWindow += (long) (growth * maxSegmentSize);
+        }
+    }
+
+    @Override
+    protected long reducedWindow(long bytesInFlight) {
+
+        double window = (double) congestionWindow / maxSegmentSize;
+
+        // Fast convergence: give up some room to a newer flow whose losses
+        // come before the window has climbed back to its last maximum
+        maxWindow = window < maxWindow ? window * (1 + BETA) / 2 : window;
+        epochStart = -1;
+
+        return Math.max((long) (congestionWindow * BETA), 2L * maxSegmentSize);
+    }
+}
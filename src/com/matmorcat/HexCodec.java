@@ -0,0 +1,231 @@
+package com.matmorcat;
+
+/**
+ * Converts between bytes and their text form in hexadecimal or binary. All
+ * conversions are a single pass over the input that writes into a character
+ * or byte array sized up front, using lookup tables in place of parsing and
+ * formatting each digit.
+ */
+final class HexCodec {
+
+    // The value of each character as a hex digit, or -1 if it is not one
+    private static final byte[] HEX_VALUES = new byte[128];
+
+    // The hex digit of each 4-bit value
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    // The 8 binary digits of each byte value, stored end to end
+    private static final char[] BINARY_DIGITS = new char[256 * 8];
+
+    static {
+        java.util.Arrays.fill(HEX_VALUES, (byte) -1);
+
+        for (int i = 0; i < 16; i++) {
+            HEX_VALUES[Character.toUpperCase(HEX_DIGITS[i])] = (byte) i;
+            HEX_VALUES[Character.toLowerCase(HEX_DIGITS[i])] = (byte) i;
+        }
+
+        for (int i = 0; i < 256; i++) {
+            for (int bit = 0; bit < 8; bit++) {
+                BINARY_DIGITS[i * 8 + bit] = ((i >>> (7 - bit)) & 1) == 0 ? '0' : '1';
+            }
+        }
+    }
+
+    private HexCodec() {}
+
+    /**
+     * Get the value of a character as a hex digit.
+     *
+     * @param c the character
+     * @return  the value of the digit (0-15), or -1 if it is not a hex digit
+     */
+    static int hexValue(char c) {
+        return c < 128 ? HEX_VALUES[c] : -1;
+    }
+
+    /**
+     * Decode a range of hex characters into bytes. If there is an odd number
+     * of characters, the last byte is padded with 0s on the right.
+     *
+     * @param hex   the hex characters
+     * @param from  the index of the first character to decode
+     * @param to    the index after the last character to decode
+     * @return      the decoded bytes
+     * @throws NumberFormatException    if a character is not a hex digit
+     */
+    static byte[] decodeHex(CharSequence hex, int from, int to) {
+
+        byte[] data = new byte[(to - from + 1) >>> 1];
+
+        for (int i = from; i < to; i++) {
+
+            int value = hexValue(hex.charAt(i));
+
+            if (value < 0) {
+                throw new NumberFormatException("Not a hex digit: " + hex.charAt(i));
+            }
+
+            int nibble = i - from;
+            data[nibble >>> 1] |= (nibble & 1) == 0 ? value << 4 : value;
+        }
+
+        return data;
+    }
+
+    /**
+     * Decode a range of binary characters into bytes. If the number of bits
+     * is not a multiple of 8, the last byte is padded with 0s on the right.
+     *
+     * @param bin   the binary characters
+     * @param from  the index of the first character to decode
+     * @param to    the index after the last character to decode
+     * @return      the decoded bytes
+     */
+    static byte[] decodeBinary(CharSequence bin, int from, int to) {
+
+        byte[] data = new byte[(to - from + 7) >>> 3];
+
+        for (int i = from; i < to; i++) {
+
+            if (bin.charAt(i) == '1') {
+                int bit = i - from;
+                data[bit >>> 3] |= 1 << (7 - (bit & 7));
+            }
+        }
+
+        return data;
+    }
+
+    /**
+     * Encode the first nibbles of the data as uppercase hex characters.
+     *
+     * @param data      the bytes to encode
+     * @param nibbles   the number of 4-bit hex digits to encode
+     * @return          a continuous string of hex characters
+     */
+    static String encodeHex(byte[] data, int nibbles) {
+
+        char[] chars = new char[nibbles];
+
+        for (int i = 0; i < nibbles; i++) {
+
+            int b = data[i >>> 1];
+            chars[i] = HEX_DIGITS[(i & 1) == 0 ? (b >>> 4) & 0xF : b & 0xF];
+        }
+
+        return new String(chars);
+    }
+
+    /**
+     * Encode a range of bits of the data as binary characters.
+     *
+     * @param data      the bytes to encode
+     * @param offset    the offset of the first bit
+     * @param length    the number of bits
+     * @return          a continuous string of bits
+     */
+    static String encodeBinary(byte[] data, int offset, int length) {
+
+        char[] chars = new char[length];
+        int i = 0;
+
+        // Copy whole bytes from the table while the range is byte aligned
+        if ((offset & 7) == 0) {
+
+            for (; i + 8 <= length; i += 8) {
+                System.arraycopy(BINARY_DIGITS, (data[(offset + i) >>> 3] & 0xFF) * 8, chars, i, 8);
+            }
+        }
+
+        for (; i < length; i++) {
+
+            int bit = offset + i;
+            chars[i] = ((data[bit >>> 3] >>> (7 - (bit & 7))) & 1) == 0 ? '0' : '1';
+        }
+
+        return new String(chars);
+    }
+
+    /**
+     * Encode the lowest bits of a value as binary characters, padded with 0s
+     * on the left to the requested length.
+     *
+     * @param value     the value to encode
+     * @param length    the number of bits
+     * @return          a string of bits
+     */
+    static String encodeBinary(long value, int length) {
+
+        char[] chars = new char[length];
+
+        for (int i = length - 1; i >= 0; i--) {
+            chars[i] = (value & 1) == 0 ? '0' : '1';
+            value >>>= 1;
+        }
+
+        return new String(chars);
+    }
+
+    /**
+     * Convert hex characters into binary characters.
+     *
+     * @param hex   the string of hex characters
+     * @return      the string of binary characters
+     * @throws NumberFormatException    if a character is not a hex digit
+     */
+    static String hexToBinary(CharSequence hex) {
+
+        char[] chars = new char[hex.length() * 4];
+
+        for (int i = 0; i < hex.length(); i++) {
+
+            int value = hexValue(hex.charAt(i));
+
+            if (value < 0) {
+                throw new NumberFormatException("Not a hex digit: " + hex.charAt(i));
+            }
+
+            System.arraycopy(BINARY_DIGITS, value * 8 + 4, chars, i * 4, 4);
+        }
+
+        return new String(chars);
+    }
+
+    /**
+     * Convert binary characters into uppercase hex characters. If the number
+     * of bits is not a multiple of 4, the bits are padded with 0s on the left.
+     *
+     * @param bin   the string of binary characters
+     * @return      the string of hex characters
+     * @throws NumberFormatException    if a character is not a binary digit
+     */
+    static String binaryToHex(CharSequence bin) {
+
+        int padding = (4 - bin.length() % 4) % 4;
+        char[] chars = new char[(bin.length() + padding) / 4];
+
+        int value = 0;
+
+        for (int i = 0; i < bin.length(); i++) {
+
+            char c = bin.charAt(i);
+
+            if (c != '0' && c != '1') {
+                throw new NumberFormatException("Not a binary digit: " + c);
+            }
+
+            value = (value << 1) | (c - '0');
+
+            // Write out a hex digit at the end of every 4 bits (after padding)
+            int position = i + padding;
+
+            if ((position & 3) == 3) {
+                chars[position >>> 2] = HEX_DIGITS[value];
+                value = 0;
+            }
+        }
+
+        return new String(chars);
+    }
+}
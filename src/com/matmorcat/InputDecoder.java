@@ -0,0 +1,238 @@
+package com.matmorcat;
+
+/**
+ * Decodes segment data given as a string of binary or hexadecimal characters
+ * into bytes. The input is classified while it is being converted, in a
+ * single pass over the characters: it is packed as binary until the first
+ * character that is not a 0 or 1, at which point the bytes packed so far are
+ * spread out into their hexadecimal packing (each 0 or 1 is a hex digit too)
+ * and the input is packed as hexadecimal from that character on. Input made
+ * up only of 0s and 1s is treated as binary, the same as
+ * {@link Segment#toBinaryIfHex(String)}.
+ *
+ * A decoder can be reused for many inputs. The decoded bytes are held in a
+ * buffer that is only replaced when a longer input needs more room, and a
+ * second buffer is kept for spreading binary bytes out into hex.
+ */
+public final class InputDecoder {
+
+    // The hex packing of each byte of binary digits: the digits 0 and 1 as
+    // nibbles, so each byte becomes 4 bytes (the first in the high 8 bits)
+    private static final int[] SPREAD = new int[256];
+
+    static {
+        for (int b = 0; b < 256; b++) {
+
+            int spread = 0;
+
+            for (int bit = 7; bit >= 0; bit--) {
+                spread = (spread << 4) | ((b >>> bit) & 1);
+            }
+
+            SPREAD[b] = spread;
+        }
+    }
+
+    private byte[] buffer = new byte[64];
+
+    // The buffer the hex packing is built in, swapped with the buffer of the
+    // binary packing when the input turns out to be hex
+    private byte[] spareBuffer = new byte[0];
+
+    private int lengthInBits;
+    private int errorOffset = -1;
+    private boolean binary;
+
+
+    // -------------------------------------------------------------------------
+    //
+    // Decoding Methods
+    //
+    // -------------------------------------------------------------------------
+
+
+    /**
+     * Decode the data into bytes. If the data is not valid, the offset of the
+     * first invalid character can be found with {@link #getErrorOffset()}.
+     *
+     * @param data  the data in binary or hex
+     * @return      true if the data was decoded, false if it was invalid
+     */
+    public boolean decode(CharSequence data) {
+
+        lengthInBits = 0;
+        errorOffset = -1;
+
+        // Empty data cannot be recognized as either binary or hex
+        if (data.length() == 0) {
+
+            errorOffset = 0;
+            return false;
+        }
+
+        int hexOffset = decodeBinary(data);
+
+        if (hexOffset < 0) {
+
+            binary = true;
+            lengthInBits = data.length();
+            return true;
+        }
+
+        binary = false;
+        return decodeHex(data, hexOffset);
+    }
+
+    /**
+     * Pack the data as binary until a character that is not a 0 or 1.
+     *
+     * @param data  the data to pack
+     * @return      the index of the first character that is not binary, or -1
+     *              if all of the data is binary
+     */
+    private int decodeBinary(CharSequence data) {
+
+        ensureCapacity((data.length() + 7) >>> 3);
+
+        int value = 0;
+
+        for (int i = 0; i < data.length(); i++) {
+
+            int bit = data.charAt(i) - '0';
+
+            if ((bit & ~1) != 0) {
+                return i;
+            }
+
+            value = (value << 1) | bit;
+
+            // Store each byte once all 8 of its bits are read
+            if ((i & 7) == 7) {
+                buffer[i >>> 3] = (byte) value;
+                value = 0;
+            }
+        }
+
+        // Store the last partial byte padded with 0s on the right
+        if ((data.length() & 7) != 0) {
+            buffer[data.length() >>> 3] = (byte) (value << (8 - (data.length() & 7)));
+        }
+
+        return -1;
+    }
+
+    /**
+     * Pack the data as hex, continuing from where the binary packing stopped.
+     * The whole bytes packed as binary are spread out into their hex packing
+     * rather than read again, and only the few binary digits after them are.
+     *
+     * @param data      the data to pack
+     * @param checkFrom the index of the first character that is not binary
+     * @return          true if all of the data was valid hex
+     */
+    private boolean decodeHex(CharSequence data, int checkFrom) {
+
+        int length = (data.length() + 1) >>> 1;
+
+        if (spareBuffer.length < length) {
+            spareBuffer = new byte[Math.max(length, buffer.length * 2)];
+        }
+
+        byte[] hex = spareBuffer;
+        int wholeBytes = checkFrom >>> 3;
+
+        for (int k = 0; k < wholeBytes; k++) {
+
+            int spread = SPREAD[buffer[k] & 0xFF];
+
+            hex[k * 4] = (byte) (spread >>> 24);
+            hex[k * 4 + 1] = (byte) (spread >>> 16);
+            hex[k * 4 + 2] = (byte) (spread >>> 8);
+            hex[k * 4 + 3] = (byte) spread;
+        }
+
+        spareBuffer = buffer;
+        buffer = hex;
+
+        int value = 0;
+
+        for (int i = wholeBytes * 8; i < data.length(); i++) {
+
+            int nibble = i < checkFrom ? data.charAt(i) - '0' : HexCodec.hexValue(data.charAt(i));
+
+            if (nibble < 0) {
+
+                errorOffset = i;
+                return false;
+            }
+
+            value = (value << 4) | nibble;
+
+            // Store each byte once both of its digits are read
+            if ((i & 1) == 1) {
+                buffer[i >>> 1] = (byte) value;
+                value = 0;
+            }
+        }
+
+        // Store the last digit padded with 0s on the right
+        if ((data.length() & 1) != 0) {
+            buffer[data.length() >>> 1] = (byte) (value << 4);
+        }
+
+        lengthInBits = data.length() * 4;
+        return true;
+    }
+
+    private void ensureCapacity(int length) {
+
+        if (buffer.length < length) {
+            buffer = new byte[Math.max(length, buffer.length * 2)];
+        }
+    }
+
+
+    // -------------------------------------------------------------------------
+    //
+    // Decoded Data Getter Methods
+    //
+    // -------------------------------------------------------------------------
+
+
+    /**
+     * Get the buffer holding the decoded bytes. The buffer may be longer than
+     * the data and is overwritten by the next call to {@link #decode}.
+     *
+     * @return  the decoded bytes, padded with 0s on the right
+     */
+    public byte[] getData() {
+        return buffer;
+    }
+
+    /**
+     * Get the number of bits that were decoded.
+     *
+     * @return  the length of the decoded data in bits
+     */
+    public int getLengthInBits() {
+        return lengthInBits;
+    }
+
+    /**
+     * Get the index of the first character that could not be decoded.
+     *
+     * @return  the index of the invalid character, or -1 if the data was valid
+     */
+    public int getErrorOffset() {
+        return errorOffset;
+    }
+
+    /**
+     * Check whether the data was recognized as binary rather than hex.
+     *
+     * @return  true if the data was binary
+     */
+    public boolean isBinary() {
+        return binary;
+    }
+}
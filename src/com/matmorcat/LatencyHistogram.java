@@ -0,0 +1,98 @@
+package com.matmorcat;
+
+/**
+ * Records latencies in nanoseconds and reports their percentiles. Values are
+ * counted in buckets whose width grows with the value (16 buckets for each
+ * power of 2), so the memory used is fixed however many values are recorded
+ * and a reported percentile is within 1/16 (about 6%) of the true value.
+ */
+final class LatencyHistogram {
+
+    // The number of buckets for each power of 2 (must be a power of 2 itself)
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private final long[] counts = new long[(64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS];
+
+    private long count;
+    private long max;
+
+    /**
+     * Record a latency.
+     *
+     * @param nanos the latency in nanoseconds (negative values count as 0)
+     */
+    void record(long nanos) {
+
+        long value = Math.max(nanos, 0);
+
+        counts[bucketOf(value)]++;
+        count++;
+        max = Math.max(max, value);
+    }
+
+    /**
+     * Get the latency below which the given fraction of recorded latencies
+     * fall.
+     *
+     * @param percentile    the percentile, from 0 to 100
+     * @return              the latency in nanoseconds, or 0 if nothing has
+     *                      been recorded
+     */
+    long getPercentile(double percentile) {
+
+        if (count == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+        long seen = 0;
+
+        for (int i = 0; i < counts.length; i++) {
+
+            seen += counts[i];
+
+            if (seen >= rank) {
+                return Math.min(highestValueOf(i), max);
+            }
+        }
+
+        return max;
+    }
+
+    long getCount() {
+        return count;
+    }
+
+    long getMax() {
+        return max;
+    }
+
+    /**
+     * Values below {@code SUB_BUCKETS} get a bucket each; larger values share
+     * a bucket with the values that have the same highest 5 bits.
+     */
+    private static int bucketOf(long value) {
+
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long highestValueOf(int bucket) {
+
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = bucket % SUB_BUCKETS;
+
+        return ((SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+}
@@ -0,0 +1,650 @@
+package com.matmorcat;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A one-way link between two Transport Layers in a {@link Simulation}. A
+ * sender pushes segments to the link as it would to the receiver itself, and
+ * the link delivers each one to the receiver after the latency of the link
+ * has passed in simulated time, instead of at once.
+ *
+ * By default the link has no other limits. It can also be given:
+ * <ul>
+ *   <li>a bandwidth, so each segment takes the time to serialize
+ *       {@link Segment#getTotalLengthInBits()} bits onto the link, and
+ *       segments sent faster than that wait in a queue;</li>
+ *   <li>a limit on the bytes in the queue, beyond which segments are dropped
+ *       (drop-tail), or Random Early Detection, which drops segments with a
+ *       probability that rises with the average length of the queue;</li>
+ *   <li>random loss, either independently for each segment (Bernoulli) or
+ *       in bursts from a good and a bad state (Gilbert-Elliott);</li>
+ *   <li>reordering, which holds back some segments for longer so the ones
+ *       behind them arrive first;</li>
+ *   <li>duplication, which delivers some segments twice.</li>
+ * </ul>
+ *
+ * The queue is not kept as a list of segments: a segment waits for the
+ * link to finish what is ahead of it, so the length of the queue follows
+ * from the time the link will be busy until. Segments cross the link in the
+ * order they were sent, so they wait for delivery in a ring of their arrival
+ * times and the link keeps one event in the simulation for the first of
+ * them, rather than one event for each segment in flight. Only reordered
+ * segments are scheduled on their own.
+ *
+ * A segment is still in use until it is delivered, so each pushed segment
+ * must be a separate object, such as a segment from a {@link SegmentPool}.
+ * Dropped segments are released.
+ */
+public class Link extends TransportLayer {
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    // The size of a typical segment in bits, used to age the average queue
+    // of Random Early Detection while the link is idle
+    private static final double TYPICAL_SEGMENT_BITS = 1500 * 8;
+
+    private final Simulation simulation;
+    private final TransportLayer receiver;
+    private final long latencyNanos;
+
+    // Delivers the segments that have arrived, and a reordered segment it is
+    // scheduled with
+    private final Simulation.Event delivery = argument -> deliver();
+    private final Simulation.Event lateDelivery = this::deliverLate;
+
+    // Copies segments that are duplicated
+    private final SegmentPool pool = new SegmentPool(64);
+
+    private SplittableRandom random = new SplittableRandom(0);
+
+    // The bandwidth in bits per second (0 for no limit), and the time the
+    // link finishes sending the segments it has been given
+    private long bandwidth;
+    private long busyUntil;
+
+    // The most bytes that may wait in the queue
+    private long queueLimit = Long.MAX_VALUE;
+
+    // Random Early Detection: the thresholds of the average queue in bytes,
+    // the drop probability at the upper threshold, the weight of each sample
+    // in the average, when it was last sampled, and the segments queued
+    // since the last early drop
+    private boolean redEnabled;
+    private long redMinThreshold;
+    private long redMaxThreshold;
+    private double redMaxProbability;
+    private double redWeight;
+    private double averageQueue;
+    private long lastSample;
+    private int sinceLastDrop;
+
+    // Gilbert-Elliott loss: the chance to move from the good to the bad
+    // state and back for each segment, the loss rate in each state, and
+    // whether the link is in the bad state
+    private double goodToBad;
+    private double badToGood;
+    private double goodLoss;
+    private double badLoss;
+    private boolean bad;
+
+    private double reorderProbability;
+    private long reorderDelayNanos;
+
+    private double duplicateProbability;
+
+    // The segments on their way in the order they arrive, with their times
+    // of arrival, and whether a delivery event is scheduled for the first
+    private long[] arrivalTimes = new long[INITIAL_CAPACITY];
+    private Segment[] arriving = new Segment[INITIAL_CAPACITY];
+    private int head;
+    private int count;
+    private boolean deliveryScheduled;
+
+    private long sentSegmentCount;
+    private long deliveredSegmentCount;
+    private long queueDropCount;
+    private long earlyDropCount;
+    private long lostSegmentCount;
+    private long reorderedSegmentCount;
+    private long duplicatedSegmentCount;
+    private long sentBits;
+
+    /**
+     * Creates a link to a receiver.
+     *
+     * @param simulation    the simulation the link runs in
+     * @param receiver      the Transport Layer to deliver segments to
+     * @param latency       the time a segment takes to cross the link
+     * @param unit          the unit of the latency
+     */
+    public Link(Simulation simulation, TransportLayer receiver, long latency, TimeUnit unit) {
+
+        this.simulation = simulation;
+        this.receiver = receiver;
+        this.latencyNanos = unit.toNanos(latency);
+    }
+
+
+    // -------------------------------------------------------------------------
+    //
+    // Link Configuration Methods
+    //
+    // -------------------------------------------------------------------------
+
+
+    /**
+     * Limit the rate segments are sent onto the link.
+     *
+     * @param bitsPerSecond the bandwidth, or 0 for no limit
+     * @return              this link
+     */
+    public Link setBandwidth(long bitsPerSecond) {
+
+        if (bitsPerSecond < 0) {
+            throw new IllegalArgumentException("The bandwidth cannot be negative!");
+        }
+
+        this.bandwidth = bitsPerSecond;
+        return this;
+    }
+
+    /**
+     * Drop segments that arrive while the queue holds a number of bytes or
+     * more. The queue only fills if the link has a bandwidth.
+     *
+     * @param bytes the most bytes that may wait to be sent
+     * @return      this link
+     */
+    public Link setQueueLimit(long bytes) {
+
+        if (bytes < 0) {
+            throw new IllegalArgumentException("The queue limit cannot be negative!");
+        }
+
+        this.queueLimit = bytes;
+        return this;
+    }
+
+    /**
+     * Drop segments early with Random Early Detection (Floyd and Jacobson).
+     * Below the lower threshold of the average queue no segment is dropped
+     * early, between the thresholds the chance rises to the maximum
+     * probability, and above the upper threshold every segment is dropped.
+     * The queue limit still applies.
+     *
+     * @param minThreshold      the average queue in bytes where drops start
+     * @param maxThreshold      the average queue in bytes where every
+     *                          segment is dropped
+     * @param maxProbability    the chance of a drop at the upper threshold
+     * @param weight            the weight of each new queue length in the
+     *                          average, such as 0.002
+     * @return                  this link
+     */
+    public Link setRandomEarlyDetection(long minThreshold, long maxThreshold, double maxProbability,
+                                        double weight) {
+
+        if (minThreshold < 0 || maxThreshold <= minThreshold) {
+            throw new IllegalArgumentException("The thresholds must satisfy 0 <= min < max!");
+        }
+
+        checkProbability(maxProbability);
+        checkProbability(weight);
+
+        this.redEnabled = true;
+        this.redMinThreshold = minThreshold;
+        this.redMaxThreshold = maxThreshold;
+        this.redMaxProbability = maxProbability;
+        this.redWeight = weight;
+        return this;
+    }
+
+    /**
+     * Lose each segment independently with a probability.
+     *
+     * @param probability   the chance a segment is lost
+     * @return              this link
+     */
+    public Link setLossProbability(double probability) {
+        return setGilbertElliottLoss(0, 1, probability, probability);
+    }
+
+    /**
+     * Lose segments in bursts. Before each segment the link moves between a
+     * good and a bad state with the given chances, and the segment is lost
+     * with the loss rate of the state the link is in.
+     *
+     * @param goodToBad the chance to move from the good to the bad state
+     * @param badToGood the chance to move from the bad to the good state
+     * @param goodLoss  the chance of a loss in the good state
+     * @param badLoss   the chance of a loss in the bad state
+     * @return          this link
+     */
+    public Link setGilbertElliottLoss(double goodToBad, double badToGood, double goodLoss, double badLoss) {
+
+        checkProbability(goodToBad);
+        checkProbability(badToGood);
+        checkProbability(goodLoss);
+        checkProbability(badLoss);
+
+        this.goodToBad = goodToBad;
+        this.badToGood = badToGood;
+        this.goodLoss = goodLoss;
+        this.badLoss = badLoss;
+        this.bad = false;
+        return this;
+    }
+
+    /**
+     * Hold back some segments for longer than the latency, so that segments
+     * sent after them arrive first.
+     *
+     * @param probability   the chance a segment is held back
+     * @param delay         the extra time a held back segment takes
+     * @param unit          the unit of the delay
+     * @return              this link
+     */
+    public Link setReordering(double probability, long delay, TimeUnit unit) {
+
+        checkProbability(probability);
+
+        this.reorderProbability = probability;
+        this.reorderDelayNanos = unit.toNanos(delay);
+        return this;
+    }
+
+    /**
+     * Deliver some segments twice.
+     *
+     * @param probability   the chance a segment is duplicated
+     * @return              this link
+     */
+    public Link setDuplication(double probability) {
+
+        checkProbability(probability);
+
+        this.duplicateProbability = probability;
+        return this;
+    }
+
+    /**
+     * Seed the random choices of the link, so that a run can be repeated
+     * with different losses.
+     *
+     * @param seed  the seed of the random number generator
+     * @return      this link
+     */
+    public Link setSeed(long seed) {
+
+        this.random = new SplittableRandom(seed);
+        return this;
+    }
+
+    private static void checkProbability(double probability) {
+
+        if (!(probability >= 0 && probability <= 1)) {
+            throw new IllegalArgumentException("A probability must be between 0 and 1!");
+        }
+    }
+
+
+    // -------------------------------------------------------------------------
+    //
+    // Segment Transfer Methods
+    //
+    // -------------------------------------------------------------------------
+
+
+    /**
+     * Take a segment pushed by the sender, and either drop it or schedule
+     * its delivery.
+     *
+     * @return  true if the segment will be delivered, false if it was dropped
+     *          or lost
+     */
+    @Override
+    boolean pullSegment(Segment segment) {
+
+        sentSegmentCount++;
+
+        long now = simulation.now();
+        long departure = now;
+
+        if (bandwidth > 0) {
+
+            long queued = getQueuedBytes();
+
+            if (queued >= queueLimit) {
+
+                queueDropCount++;
+                segment.release();
+
+                return false;
+            }
+
+            if (redEnabled && dropEarly(queued, now)) {
+
+                earlyDropCount++;
+                segment.release();
+
+                return false;
+            }
+
+            // Wait for the segments ahead, then take the time to serialize
+            long bits = segment.getTotalLengthInBits();
+            long transmission = (bits * 1_000_000_000L + bandwidth - 1) / bandwidth;
+
+            departure = busyUntil = Math.max(busyUntil, now) + transmission;
+        }
+
+        sentBits += segment.getTotalLengthInBits();
+
+        if (isLost()) {
+
+            lostSegmentCount++;
+            segment.release();
+
+            return false;
+        }
+
+        long arrival = departure + latencyNanos;
+
+        if (duplicateProbability > 0 && random.nextDouble() < duplicateProbability) {
+
+            duplicatedSegmentCount++;
+            enqueue(arrival, pool.acquire(segment));
+        }
+
+        if (reorderProbability > 0 && random.nextDouble() < reorderProbability) {
+
+            reorderedSegmentCount++;
+            simulation.scheduleAt(arrival + reorderDelayNanos, lateDelivery, segment);
+
+        } else {
+            enqueue(arrival, segment);
+        }
+
+        return true;
+    }
+
+    /**
+     * Decide whether Random Early Detection drops a segment, and update the
+     * average length of the queue.
+     *
+     * @param queued    the bytes in the queue when the segment arrived
+     * @param now       the current time
+     * @return          true to drop the segment
+     */
+    private boolean dropEarly(long queued, long now) {
+
+        if (queued > 0) {
+            averageQueue += redWeight * (queued - averageQueue);
+        } else {
+
+            // Let the average decay as if an empty sample had been taken for
+            // each segment the link could have sent while it was idle (Floyd
+            // and Jacobson, section 11)
+            long idle = now - Math.max(lastSample, busyUntil);
+            double samples = bandwidth * (idle / 1e9) / TYPICAL_SEGMENT_BITS;
+
+            averageQueue *= Math.pow(1 - redWeight, samples + 1);
+        }
+
+        lastSample = now;
+
+        if (averageQueue < redMinThreshold) {
+
+            sinceLastDrop = -1;
+            return false;
+        }
+
+        if (averageQueue >= redMaxThreshold) {
+
+            sinceLastDrop = 0;
+            return true;
+        }
+
+        // Spread the drops out evenly between the segments that pass
+        sinceLastDrop++;
+
+        double probability = redMaxProbability * (averageQueue - redMinThreshold)
+                / (redMaxThreshold - redMinThreshold);
+        double adjusted = probability / Math.max(1 - sinceLastDrop * probability, probability);
+
+        if (random.nextDouble() < adjusted) {
+
+            sinceLastDrop = 0;
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Move the Gilbert-Elliott model on by one segment and decide whether it
+     * is lost.
+     *
+     * @return  true if the segment is lost
+     */
+    private boolean isLost() {
+
+        if (bad ? badToGood > 0 && random.nextDouble() < badToGood
+                : goodToBad > 0 && random.nextDouble() < goodToBad) {
+            bad = !bad;
+        }
+
+        double loss = bad ? badLoss : goodLoss;
+
+        return loss > 0 && random.nextDouble() < loss;
+    }
+
+    /**
+     * Add a segment to the end of the ring of arriving segments, and
+     * schedule a delivery if none is pending.
+     */
+    private void enqueue(long arrival, Segment segment) {
+
+        if (count == arriving.length) {
+            grow();
+        }
+
+        int index = (head + count++) & (arriving.length - 1);
+
+        arrivalTimes[index] = arrival;
+        arriving[index] = segment;
+
+        if (!deliveryScheduled) {
+
+            deliveryScheduled = true;
+            simulation.scheduleAt(arrival, delivery, null);
+        }
+    }
+
+    /**
+     * Double the size of the ring, moving the segments to the front.
+     */
+    private void grow() {
+
+        int capacity = arriving.length;
+        long[] times = new long[capacity * 2];
+        Segment[] segments = new Segment[capacity * 2];
+
+        for (int i = 0; i < count; i++) {
+
+            int index = (head + i) & (capacity - 1);
+
+            times[i] = arrivalTimes[index];
+            segments[i] = arriving[index];
+        }
+
+        arrivalTimes = times;
+        arriving = segments;
+        head = 0;
+    }
+
+    /**
+     * Deliver every segment that has arrived to the receiver, then schedule
+     * the next delivery.
+     */
+    private void deliver() throws Exception {
+
+        long now = simulation.now();
+
+        // Segments the receiver sends back onto this link while it handles
+        // these join the ring without scheduling a delivery of their own
+        while (count > 0 && arrivalTimes[head] <= now) {
+
+            Segment segment = arriving[head];
+
+            arriving[head] = null;
+            head = (head + 1) & (arriving.length - 1);
+            count--;
+
+            deliveredSegmentCount++;
+            receiver.pullSegment(segment);
+        }
+
+        if (count > 0) {
+            simulation.scheduleAt(arrivalTimes[head], delivery, null);
+        } else {
+            deliveryScheduled = false;
+        }
+    }
+
+    /**
+     * Deliver a reordered segment to the receiver.
+     */
+    private void deliverLate(Object segment) throws Exception {
+
+        deliveredSegmentCount++;
+        receiver.pullSegment((Segment) segment);
+    }
+
+
+    // -------------------------------------------------------------------------
+    //
+    // Link Getter Methods
+    //
+    // -------------------------------------------------------------------------
+
+
+    public Simulation getSimulation() {
+        return simulation;
+    }
+
+    public TransportLayer getReceiver() {
+        return receiver;
+    }
+
+    public long getLatencyNanos() {
+        return latencyNanos;
+    }
+
+    public long getBandwidth() {
+        return bandwidth;
+    }
+
+    public long getQueueLimit() {
+        return queueLimit;
+    }
+
+    /**
+     * Get the bytes waiting to be sent onto the link, including the rest of
+     * the segment being sent.
+     *
+     * @return  the length of the queue in bytes
+     */
+    public long getQueuedBytes() {
+
+        long backlog = busyUntil - simulation.now();
+
+        return backlog > 0 ? (long) Math.ceil(backlog * (bandwidth / 8e9)) : 0;
+    }
+
+    /**
+     * Get the average length of the queue kept by Random Early Detection.
+     *
+     * @return  the average queue in bytes
+     */
+    public double getAverageQueuedBytes() {
+        return averageQueue;
+    }
+
+    public long getSentSegmentCount() {
+        return sentSegmentCount;
+    }
+
+    public long getDeliveredSegmentCount() {
+        return deliveredSegmentCount;
+    }
+
+    /**
+     * Get the number of segments dropped because the queue was full.
+     *
+     * @return  the number of drop-tail drops
+     */
+    public long getQueueDropCount() {
+        return queueDropCount;
+    }
+
+    /**
+     * Get the number of segments dropped by Random Early Detection.
+     *
+     * @return  the number of early drops
+     */
+    public long getEarlyDropCount() {
+        return earlyDropCount;
+    }
+
+    /**
+     * Get the number of segments lost by the loss model.
+     *
+     * @return  the number of random losses
+     */
+    public long getLostSegmentCount() {
+        return lostSegmentCount;
+    }
+
+    public long getReorderedSegmentCount() {
+        return reorderedSegmentCount;
+    }
+
+    public long getDuplicatedSegmentCount() {
+        return duplicatedSegmentCount;
+    }
+
+    /**
+     * Get the number of bits sent onto the link, counting segments that
+     * were lost on it but not those dropped from the queue.
+     *
+     * @return  the number of bits sent
+     */
+    public long getSentBits() {
+        return sentBits;
+    }
+
+    /**
+     * Get the number of segments on their way across the link.
+     *
+     * @return  the number of segments in flight
+     */
+    public long getSegmentsInFlight() {
+        return sentSegmentCount + duplicatedSegmentCount - deliveredSegmentCount
+                - queueDropCount - earlyDropCount - lostSegmentCount;
+    }
+
+    @Override
+    public String toString() {
+        return "Link{" +
+                "latencyNanos=" + latencyNanos +
+                ", bandwidth=" + bandwidth +
+                ", sent=" + sentSegmentCount +
+                ", delivered=" + deliveredSegmentCount +
+                ", queueDrops=" + queueDropCount +
+                ", earlyDrops=" + earlyDropCount +
+                ", lost=" + lostSegmentCount +
+                ", reordered=" + reorderedSegmentCount +
+                ", duplicated=" + duplicatedSegmentCount +
+                '}';
+    }
+}
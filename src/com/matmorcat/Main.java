@@ -1,28 +1,185 @@
 package com.matmorcat;
 
+import java.util.concurrent.TimeUnit;
+
 /**
  * This allows you to simulate the passing of data in the form of a hexadecimal string to be assembled into a TCP segment.
  *
+ * Run without arguments (or with {@code --demo}) to walk through sending one segment step by step. The options are:
+ * <pre>
+ *   --demo [data]                  show one segment being sent and received (the default)
+ *   --delay seconds                the time between steps of the demo (0 for no pause)
+ *   --throughput count [payload]   push count segments with a payload of the given number
+ *                                  of bytes as fast as possible and report the rate and latency
+ *   --async capacity [backpressure] in throughput mode, receive on a separate thread through a
+ *                                  queue of the given capacity (block, drop-tail or spin-then-park)
+ *   --connections count [rounds]   run many client/server connections at once, each exchanging
+ *                                  segments for the given number of round trips
+ *   --threads virtual|platform     run each connection side on a virtual thread (Java 21 or later,
+ *                                  the default when available) or on a platform thread
+ *   --handshakes count             open and close a connection the given number of times
+ *                                  and report the rate of handshakes
+ *   --simulate seconds [latency]   simulate a bulk transfer over a link with the given one-way
+ *                                  latency in milliseconds and report the simulated throughput
+ *   --window bytes                 in simulation mode, the receive window (at most 65535)
+ *   --congestion algorithm         in simulation mode, limit the sender with reno, newreno,
+ *                                  cubic or bbr congestion control
+ *   --bandwidth mbps               in simulation mode, the bandwidth of the link to the receiver
+ *   --queue bytes                  in simulation mode, the drop-tail queue of that link
+ *   --loss probability             in simulation mode, the chance a segment is lost on that link
+ * </pre>
+ *
  * @author Matthew Moretz (mcmoretz@uncg.edu)
  */
 public class Main {
-        
+
     // Time between showing steps of process (in seconds)
     final static double PROCESS_WAIT_IN_SECONDS = 1.5;
-    
+
     final static String PREFIX = "[Transport Layer]: ";
-    
+
+    // The pseudo-header and header fields (without the TCP length) of the throughput segments
+    private final static String PSEUDO_HEADER_PREFIX = "AAAA9955555555550006";
+    private final static String HEADER = "12C45678FFFFFFFFBBBBBBBB603F1B3472345E551D341234";
+
+    // The number of segments pushed before measuring, so the code is compiled first
+    private final static int WARM_UP_SEGMENTS = 100000;
+
+    // The maximum segment size and sender buffer of the simulated transfer
+    private final static int SIMULATION_MSS = 1460;
+    private final static int SIMULATION_SEND_BUFFER = 1 << 20;
+
+    // The initial retransmission timeout of a simulated transfer (RFC 6298 2.1)
+    private final static long SIMULATION_RTO_MILLIS = 1000;
+
+    // How often the application of a simulated transfer writes and reads its bytes
+    private final static long APPLICATION_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
     private static String dataToTransmit;
-    
+
+    private static double stepDelayInSeconds = PROCESS_WAIT_IN_SECONDS;
+
     public static void main(String[] args) throws Exception {
         dataToTransmit =
                 "AAAA995555555555000600E012C45678FFFFFFFFBBBBBBBB603F1B3472345E551D341234F2345678";
 
+        long throughputSegments = -1;
+        int payloadLength = 4;
+        int asyncCapacity = 0;
+        AsyncTransportLayer.Backpressure backpressure = AsyncTransportLayer.Backpressure.BLOCK;
+        int connections = 0;
+        int rounds = 100;
+        SchedulerConfig scheduler = new SchedulerConfig();
+        long handshakes = 0;
+        double simulatedSeconds = 0;
+        double latencyMillis = 10;
+        int window = 0xFFFF;
+        String congestion = null;
+        double bandwidthMbps = 0;
+        long queueBytes = Long.MAX_VALUE;
+        double loss = 0;
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+
+                switch (args[i]) {
+                    case "--demo":
+                        if (i + 1 < args.length && !args[i + 1].startsWith("--")) {
+                            dataToTransmit = args[++i];
+                        }
+                        break;
+                    case "--delay":
+                        stepDelayInSeconds = Double.parseDouble(args[++i]);
+                        break;
+                    case "--throughput":
+                        throughputSegments = Long.parseLong(args[++i]);
+
+                        if (i + 1 < args.length && !args[i + 1].startsWith("--")) {
+                            payloadLength = Integer.parseInt(args[++i]);
+                        }
+                        break;
+                    case "--async":
+                        asyncCapacity = Integer.parseInt(args[++i]);
+
+                        if (i + 1 < args.length && !args[i + 1].startsWith("--")) {
+                            backpressure = AsyncTransportLayer.Backpressure.valueOf(
+                                    args[++i].toUpperCase().replace('-', '_'));
+                        }
+                        break;
+                    case "--connections":
+                        connections = Integer.parseInt(args[++i]);
+
+                        if (i + 1 < args.length && !args[i + 1].startsWith("--")) {
+                            rounds = Integer.parseInt(args[++i]);
+                        }
+                        break;
+                    case "--handshakes":
+                        handshakes = Long.parseLong(args[++i]);
+                        break;
+                    case "--simulate":
+                        simulatedSeconds = Double.parseDouble(args[++i]);
+
+                        if (i + 1 < args.length && !args[i + 1].startsWith("--")) {
+                            latencyMillis = Double.parseDouble(args[++i]);
+                        }
+                        break;
+                    case "--window":
+                        window = Integer.parseInt(args[++i]);
+                        break;
+                    case "--congestion":
+                        congestion = args[++i];
+                        CongestionControl.create(congestion);
+                        break;
+                    case "--bandwidth":
+                        bandwidthMbps = Double.parseDouble(args[++i]);
+                        break;
+                    case "--queue":
+                        queueBytes = Long.parseLong(args[++i]);
+                        break;
+                    case "--loss":
+                        loss = Double.parseDouble(args[++i]);
+                        break;
+                    case "--threads":
+                        scheduler.setMode(SchedulerConfig.Mode.valueOf(args[++i].toUpperCase()));
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+
+            System.err.println("Usage: Main [--demo [data]] [--delay seconds] [--throughput count [payload]]"
+                    + " [--async capacity [backpressure]] [--connections count [rounds]]"
+                    + " [--threads virtual|platform] [--handshakes count]"
+                    + " [--simulate seconds [latency]] [--window bytes] [--congestion algorithm]"
+                    + " [--bandwidth mbps] [--queue bytes] [--loss probability]");
+            System.exit(1);
+        }
+
+        if (simulatedSeconds > 0) {
+            runSimulation(simulatedSeconds, latencyMillis, window, congestion,
+                    (long) (bandwidthMbps * 1e6), queueBytes, loss);
+        } else if (handshakes > 0) {
+            runHandshakes(handshakes);
+        } else if (connections > 0) {
+            runConnections(connections, rounds, scheduler);
+        } else if (throughputSegments >= 0) {
+            runThroughput(throughputSegments, payloadLength, asyncCapacity, backpressure);
+        } else {
+            runDemo();
+        }
+    }
+
+    /**
+     * Show a single segment being assembled, sent and received, pausing between steps.
+     */
+    private static void runDemo() throws Exception {
+
         // Define the transport layer for the sending and receiving host
         TransportLayer sender = new TransportLayer();
         TransportLayer receiver = new TransportLayer();
-        
-        
+
+
         System.out.println(PREFIX + "Inputting data \"" + dataToTransmit + "\"\n");
         waitStep();
 
@@ -30,11 +187,11 @@ public class Main {
         sender.setSegment(new Segment(dataToTransmit));
         sender.getSegment().generateNewChecksum();
         waitStep();
-        
+
         System.out.println(PREFIX + "The segment being sent...\n");
         System.out.println(sender.getSegment().toString() + "\n");
         waitStep();
-        
+
         /*
         Pass the segment through the network
 
@@ -44,19 +201,327 @@ public class Main {
         Segment will be received by receiving host
         */
         sender.pushSegment(receiver);
-        
+
         System.out.println(PREFIX + "The received segment ...\n");
         System.out.println(receiver.getSegment().toString() + "\n");
     }
-    
-    
+
+    /**
+     * Push segments from a sender to a receiver as fast as possible without any output
+     * along the way, then report the throughput and the latency of each push.
+     *
+     * With an asynchronous receiver each push only queues the segment, so every segment is
+     * a separate pooled copy and the time includes the receiver emptying its queue.
+     *
+     * @param count         the number of segments to push
+     * @param payloadLength the length of the payload of each segment in bytes
+     * @param asyncCapacity the queue capacity of an asynchronous receiver, or 0 to receive
+     *                      each segment on the sending thread
+     * @param backpressure  what the sender does when the queue of the receiver is full
+     */
+    private static void runThroughput(long count, int payloadLength, int asyncCapacity,
+                                      AsyncTransportLayer.Backpressure backpressure) throws Exception {
+
+        // The TCP length field holds the length in bits, so it limits the payload
+        int segmentLengthInBits = HEADER.length() * 4 + payloadLength * 8;
+
+        if (payloadLength < 1 || segmentLengthInBits > 0xFFFF) {
+            throw new Exception("The payload must be between 1 and "
+                    + (0xFFFF - HEADER.length() * 4) / 8 + " bytes!");
+        }
+
+        byte[] payload = new byte[payloadLength];
+
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] = (byte) i;
+        }
+
+        String data = PSEUDO_HEADER_PREFIX + String.format("%04X", segmentLengthInBits)
+                + HEADER + HexCodec.encodeHex(payload, payloadLength * 2);
+
+        Segment segment = new Segment(data);
+
+        // Asynchronous receivers are given a pooled copy of the segment each time
+        InputDecoder decoder = new InputDecoder();
+        decoder.decode(data);
+
+        SegmentPool pool = asyncCapacity > 0 ? new SegmentPool(asyncCapacity * 2 + 2) : null;
+
+        TransportLayer sender = new TransportLayer();
+
+        System.out.println(PREFIX + "Pushing " + count + " segments of " + segmentLengthInBits / 8 + " bytes"
+                + (asyncCapacity > 0 ? " to a queue of " + asyncCapacity + " (" + backpressure + ")" : "") + "...");
+
+        TransportLayer receiver = createReceiver(asyncCapacity, backpressure);
+        pushSegments(sender, receiver, segment, decoder, pool, Math.min(count, WARM_UP_SEGMENTS), null);
+
+        if (receiver instanceof AsyncTransportLayer) {
+            ((AsyncTransportLayer) receiver).close();
+        }
+
+        receiver = createReceiver(asyncCapacity, backpressure);
+        LatencyHistogram latencies = new LatencyHistogram();
+
+        long start = System.nanoTime();
+        long accepted = pushSegments(sender, receiver, segment, decoder, pool, count, latencies);
+
+        if (receiver instanceof AsyncTransportLayer) {
+
+            AsyncTransportLayer asyncReceiver = (AsyncTransportLayer) receiver;
+            asyncReceiver.close();
+
+            accepted = asyncReceiver.getReceivedSegmentCount() - asyncReceiver.getRejectedSegmentCount();
+        }
+
+        long elapsed = System.nanoTime() - start;
+
+        double seconds = Math.max(elapsed, 1) / 1e9;
+
+        System.out.println(PREFIX + "Accepted " + accepted + " of " + count + " segments in "
+                + String.format("%.3f", seconds) + " s");
+        // Segments a receiver drops are offered but not carried, so both rates are shown
+        System.out.println(String.format("  segments/sec: %,.0f accepted, %,.0f offered",
+                accepted / seconds, count / seconds));
+        System.out.println(String.format("  bytes/sec:    %,.0f accepted, %,.0f offered",
+                accepted * (segmentLengthInBits / 8) / seconds, count * (segmentLengthInBits / 8) / seconds));
+        System.out.println(String.format("  latency (ns): p50 %,d  p90 %,d  p99 %,d  p99.9 %,d  max %,d",
+                latencies.getPercentile(50), latencies.getPercentile(90), latencies.getPercentile(99),
+                latencies.getPercentile(99.9), latencies.getMax()));
+    }
+
+    /**
+     * Run many connections at once, each on threads of its own, and report the rate of round trips.
+     *
+     * @param connections   the number of connections
+     * @param rounds        the number of round trips per connection
+     * @param scheduler     how the threads of the connections are created
+     */
+    private static void runConnections(int connections, int rounds, SchedulerConfig scheduler) throws Exception {
+
+        if (scheduler.getMode() == SchedulerConfig.Mode.VIRTUAL && !SchedulerConfig.isVirtualThreadAvailable()) {
+            throw new Exception("Virtual threads need Java 21 or later! Use --threads platform instead.");
+        }
+
+        // Blocking connections need a platform thread for every client and server
+        if (scheduler.getMode() == SchedulerConfig.Mode.PLATFORM) {
+            scheduler.setPlatformPoolSize(connections * 2);
+        }
+
+        System.out.println(PREFIX + "Running " + connections + " connections of " + rounds
+                + " round trips on " + scheduler.getMode().toString().toLowerCase() + " threads...");
+
+        ConnectionRunner runner = new ConnectionRunner(scheduler);
+        double seconds = runner.run(dataToTransmit, connections, rounds) / 1e9;
+
+        System.out.println(PREFIX + "Completed " + runner.getRoundTripCount() + " round trips in "
+                + String.format("%.3f", seconds) + " s");
+        System.out.println(String.format("  round trips/sec: %,.0f", runner.getRoundTripCount() / seconds));
+    }
+
+    /**
+     * Open and close a connection between a client and a server over and over, going through
+     * every state of a normal open and close each time, and report the rate of handshakes.
+     *
+     * @param count the number of times to open and close the connection
+     */
+    private static void runHandshakes(long count) throws Exception {
+
+        TcpConnection client = new TcpConnection(dataToTransmit);
+        TcpConnection server = new TcpConnection(dataToTransmit);
+
+        client.setPeer(server);
+        server.setPeer(client);
+
+        System.out.println(PREFIX + "Opening and closing a connection " + count + " times...");
+
+        cycleConnection(client, server, Math.min(count, WARM_UP_SEGMENTS));
+
+        long transitionsBefore = client.getTransitionCount() + server.getTransitionCount();
+        long start = System.nanoTime();
+
+        cycleConnection(client, server, count);
+
+        double seconds = Math.max(System.nanoTime() - start, 1) / 1e9;
+        long transitions = client.getTransitionCount() + server.getTransitionCount() - transitionsBefore;
+
+        System.out.println(PREFIX + "Completed " + count + " handshakes in " + String.format("%.3f", seconds) + " s");
+        System.out.println(String.format("  handshakes/sec:  %,.0f", count / seconds));
+        System.out.println(String.format("  transitions/sec: %,.0f", transitions / seconds));
+    }
+
+    private static void cycleConnection(TcpConnection client, TcpConnection server, long count) throws Exception {
+
+        for (long i = 0; i < count; i++) {
+
+            // Three-way handshake: SYN, SYN+ACK, ACK
+            server.listen();
+            client.connect(i * 64000);
+
+            if (client.getState() != TcpState.ESTABLISHED || server.getState() != TcpState.ESTABLISHED) {
+                throw new Exception("The connection did not open: " + client + ", " + server);
+            }
+
+            // Close from the client first, then the server
+            client.close();
+            server.close();
+            client.expireTimeWait();
+
+            if (server.getState() != TcpState.CLOSED) {
+                throw new Exception("The connection did not close: " + client + ", " + server);
+            }
+        }
+    }
+
+    /**
+     * Simulate a bulk transfer from a sliding-window sender to a reassembling receiver over a
+     * pair of links, and report the throughput in simulated time and how fast it ran.
+     *
+     * @param seconds       the simulated time to run for
+     * @param latencyMillis the one-way latency of the links in milliseconds
+     * @param window        the receive window in bytes
+     * @param congestion    the name of the congestion control of the sender, or null for none
+     * @param bandwidth     the bandwidth of the link to the receiver in bits per second, or 0
+     *                      for no limit
+     * @param queueLimit    the most bytes that may wait to be sent on that link
+     * @param loss          the chance a segment is lost on that link
+     */
+    private static void runSimulation(double seconds, double latencyMillis, int window, String congestion,
+                                      long bandwidth, long queueLimit, double loss) throws Exception {
+
+        if (window < SIMULATION_MSS || window > 0xFFFF) {
+            throw new Exception("The window must be between " + SIMULATION_MSS + " and 65535 bytes!");
+        }
+
+        Simulation simulation = new Simulation();
+        long latency = (long) (latencyMillis * 1e6);
+
+        final SlidingWindowSender sender = new SlidingWindowSender(0xAAAA9955L, 0x55555555L,
+                0x1234, 80, SIMULATION_MSS, SIMULATION_SEND_BUFFER, 0);
+        final ReassemblingReceiver receiver = new ReassemblingReceiver(window, 0);
+
+        final Link link = new Link(simulation, receiver, latency, TimeUnit.NANOSECONDS)
+                .setBandwidth(bandwidth)
+                .setQueueLimit(queueLimit)
+                .setLossProbability(loss);
+
+        sender.setPeer(link);
+        sender.setPeerWindow(window);
+        receiver.setPeer(new Link(simulation, sender, latency, TimeUnit.NANOSECONDS));
+        sender.setRetransmissionTimer(simulation.getTimingWheel(), SIMULATION_RTO_MILLIS, TimeUnit.MILLISECONDS);
+
+        if (congestion != null) {
+            sender.setCongestionControl(CongestionControl.create(congestion), simulation.getClock());
+        }
+
+        // The applications keep the send buffer full and read every byte that arrives
+        final byte[] chunk = new byte[SIMULATION_SEND_BUFFER];
+        final ReassemblyBuffer received = receiver.getReassemblyBuffer();
+
+        simulation.schedule(0, TimeUnit.NANOSECONDS, new Simulation.Event() {
+
+            @Override
+            public void fire(Object argument) throws Exception {
+
+                sender.write(chunk, 0, (int) sender.getFreeSpace());
+                sender.sendAvailable();
+
+                received.consume((int) received.getReadableBytes());
+
+                // Tell the sender once there is room for another full segment
+                if (received.getWindow() - receiver.getAdvertisedWindow() >= SIMULATION_MSS
+                        && receiver.getSegmentsReceived() > 0) {
+                    receiver.sendAcknowledgment();
+                }
+
+                simulation.schedule(APPLICATION_INTERVAL_NANOS, TimeUnit.NANOSECONDS, this);
+            }
+        });
+
+        System.out.println(PREFIX + "Simulating " + seconds + " s of a transfer with a window of " + window
+                + " bytes and a latency of " + latencyMillis + " ms...");
+
+        long start = System.nanoTime();
+        long events = simulation.runFor((long) (seconds * 1e9), TimeUnit.NANOSECONDS);
+        double elapsed = Math.max(System.nanoTime() - start, 1) / 1e9;
+
+        long bytes = received.getBytesReceived();
+
+        System.out.println(PREFIX + "Delivered " + bytes + " bytes in " + String.format("%.3f", elapsed) + " s");
+        System.out.println(String.format("  throughput:     %,.0f bytes/sec (simulated)", bytes / seconds));
+        System.out.println(String.format("  window / RTT:   %,.0f bytes/sec", window / (2 * latencyMillis / 1e3)));
+        if (congestion != null) {
+            System.out.println("  " + sender.getCongestionControl() + ", " + sender.getFastRetransmitCount()
+                    + " fast retransmits, " + sender.getTimeoutCount() + " timeouts");
+        }
+
+        if (sender.getSmoothedRtt() >= 0) {
+            System.out.println(String.format("  srtt / rto:     %.1f ms / %.1f ms",
+                    sender.getSmoothedRtt() / 1e6, sender.getRetransmissionTimeout() / 1e6));
+        }
+
+        if (link.getQueueDropCount() + link.getLostSegmentCount() > 0) {
+            System.out.println(String.format("  link:           %,d of %,d segments dropped, %,d lost",
+                    link.getQueueDropCount(), link.getSentSegmentCount(), link.getLostSegmentCount()));
+        }
+
+        System.out.println(String.format("  events/sec:     %,.0f", events / elapsed));
+        System.out.println(String.format("  speed-up:       %,.0fx real time", seconds / elapsed));
+    }
+
+    private static TransportLayer createReceiver(int asyncCapacity, AsyncTransportLayer.Backpressure backpressure) {
+
+        if (asyncCapacity > 0) {
+            return new AsyncTransportLayer(asyncCapacity, backpressure).start();
+        }
+
+        return new TransportLayer();
+    }
+
+    /**
+     * Set and push the segment the given number of times, with a new sequence number each time.
+     * If there is a pool, a new copy of the segment is acquired from it for each push.
+     *
+     * @return  the number of segments the receiver accepted (or queued, if it is asynchronous)
+     */
+    private static long pushSegments(TransportLayer sender, TransportLayer receiver, Segment segment,
+                                     InputDecoder decoder, SegmentPool pool, long count,
+                                     LatencyHistogram latencies) throws Exception {
+
+        ValidationResult result = new ValidationResult();
+        long accepted = 0;
+
+        for (long i = 0; i < count; i++) {
+
+            long start = System.nanoTime();
+
+            if (pool != null) {
+                segment = pool.acquire(decoder.getData(), 0, decoder.getLengthInBits(),
+                        Segment.ParseMode.STRICT, result);
+            }
+
+            segment.setSequenceNumber(i);
+            sender.setSegment(segment);
+
+            if (sender.pushSegment(receiver)) {
+                accepted++;
+            }
+
+            if (latencies != null) {
+                latencies.record(System.nanoTime() - start);
+            }
+        }
+
+        return accepted;
+    }
+
+
     public static void waitStep() {
         try {
-            
-            Thread.sleep((int) (1000 * PROCESS_WAIT_IN_SECONDS));
-            
+
+            Thread.sleep((long) (1000 * stepDelayInSeconds));
+
         } catch(InterruptedException e) {
-            
+
             Thread.currentThread().interrupt();
         }
     }
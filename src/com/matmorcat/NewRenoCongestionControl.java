@@ -0,0 +1,27 @@
+package com.matmorcat;
+
+/**
+ * The congestion control of TCP NewReno (RFC 6582). It grows and cuts the
+ * window as {@link RenoCongestionControl} does, but a partial
+ * acknowledgment during recovery retransmits the next hole and keeps the
+ * sender in recovery, so several losses in one window cost one halving and
+ * one round trip each rather than a new recovery each.
+ */
+public class NewRenoCongestionControl extends RenoCongestionControl {
+
+    @Override
+    public boolean onPartialAcknowledgment(long acknowledged, long rtt, long now) {
+
+        // Deflate by the bytes acknowledged, then add back a segment for the
+        // retransmission about to be sent (RFC 6582 3.2 step 3)
+        congestionWindow = Math.max(congestionWindow - acknowledged, 0);
+
+        if (acknowledged >= maxSegmentSize) {
+            congestionWindow += maxSegmentSize;
+        }
+
+        congestionWindow = Math.max(congestionWindow, maxSegmentSize);
+
+        return true;
+    }
+}
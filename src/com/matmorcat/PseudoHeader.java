@@ -1,16 +1,42 @@
 package com.matmorcat;
 
-import static com.matmorcat.Segment.binaryToDecimal;
-import static com.matmorcat.Segment.toBinaryIfHex;
+import java.util.Arrays;
 
 /**
  * This class defines the pseudo-header object for the TCP/IP specifications.
  *
+ * The fields are stored in a single byte array in the order they appear on
+ * the wire and are only decoded when they are requested.
+ *
  * @author Matthew Moretz (mcmoretz@uncg.edu)
  */
 public class PseudoHeader extends ConceptualObject {
 
-    private String source, dest, reserved, protocol, segmentLength;
+    // The length of the pseudo-header in bits is always 96 for TCP
+    static final int LENGTH_IN_BIT = 96;
+
+    // The length of the pseudo-header in bytes
+    static final int LENGTH = LENGTH_IN_BIT / 8;
+
+    // The protocol number of TCP
+    static final int TCP_PROTOCOL = 6;
+
+    // Bit offsets of the fields within the pseudo-header
+    static final int SOURCE_OFFSET = 0;
+    static final int DEST_OFFSET = 32;
+    static final int RESERVED_OFFSET = 64;
+    static final int PROTOCOL_OFFSET = 72;
+    static final int SEGMENT_LENGTH_OFFSET = 80;
+
+    // The byte offset of the TCP length field, which ends the fields that are
+    // the same for every segment of a connection
+    static final int SEGMENT_LENGTH_INDEX = SEGMENT_LENGTH_OFFSET / 8;
+
+    private final byte[] data;
+
+    // The one's complement sum of the source, destination, reserved and
+    // protocol fields, which never change for a connection
+    private final long constantSum;
 
 
     // -------------------------------------------------------------------------
@@ -27,88 +53,215 @@ public class PseudoHeader extends ConceptualObject {
 
     public PseudoHeader(String data) throws Exception {
 
-        String binary = toBinaryIfHex(data);
-
-        // Process the data and parse individual fields
-        setSourceField(binary.substring(0, 32));
-        setDestField(binary.substring(32, 64));
-        setReservedField(binary.substring(64, 72));
-        setProtocolField(binary.substring(72, 80));
-        setSegmentLengthField(binary.substring(80, 96));
+        this(decode(data), 0);
     }
 
-    public String getSourceField() {
-        return source;
-    }
+    /**
+     * Takes in the pseudo-header as already decoded bytes in the order they
+     * appear on the wire. Only the fields themselves are checked for validity.
+     *
+     * @param data          the bytes containing the pseudo-header
+     * @param offset        the index of the first byte of the pseudo-header
+     * @throws Exception    the pseudo-header was invalid
+     */
+    PseudoHeader(byte[] data, int offset) throws Exception {
+
+        this(Arrays.copyOfRange(data, offset, offset + LENGTH_IN_BIT / 8));
 
-    private void setSourceField(String source) throws Exception {
+        ValidationResult result = new ValidationResult();
 
-        // Check length of field
-        if (source.length() != 32) {
-            throw new Exception("Source address field must be 32 bits!");
+        if (!check(result)) {
+            throw result.toException();
         }
+    }
 
-        this.source = source;
+    /**
+     * Creates a pseudo-header that takes ownership of its wire representation
+     * without checking it.
+     *
+     * @param data  the 12 bytes of the pseudo-header
+     */
+    private PseudoHeader(byte[] data) {
+        this(data, Checksum.sum(data, 0, SEGMENT_LENGTH_INDEX, 0));
     }
 
-    public String getDestField() {
-        return dest;
+    /**
+     * Creates a pseudo-header that takes ownership of its wire representation
+     * and reuses the sum of its constant fields from another pseudo-header.
+     *
+     * @param data          the 12 bytes of the pseudo-header
+     * @param constantSum   the sum of the fields before the TCP length
+     */
+    private PseudoHeader(byte[] data, long constantSum) {
+        this.data = data;
+        this.constantSum = constantSum;
     }
 
-    private void setDestField(String dest) throws Exception {
+    /**
+     * Takes in the pseudo-header as already decoded bytes, in the same way as
+     * {@link #PseudoHeader(byte[], int)}, but reports an invalid pseudo-header
+     * through the result instead of throwing an exception.
+     *
+     * @param data      the bytes containing the pseudo-header
+     * @param offset    the index of the first byte of the pseudo-header
+     * @param result    where the outcome of the validation is recorded
+     * @return          the pseudo-header, or null if it was invalid
+     */
+    static PseudoHeader tryCreate(byte[] data, int offset, ValidationResult result) {
+
+        PseudoHeader pseudoHeader = new PseudoHeader(
+                Arrays.copyOfRange(data, offset, offset + LENGTH_IN_BIT / 8));
+
+        return pseudoHeader.check(result) ? pseudoHeader : null;
+    }
+
+    /**
+     * Get a pseudo-header with the same source, destination and protocol as
+     * this one but a different TCP length. The sum of the constant fields is
+     * shared rather than calculated again.
+     *
+     * @param segmentLengthInBits   the length of the TCP segment in bits
+     * @return                      this pseudo-header if the length is the
+     *                              same, otherwise a new one
+     */
+    PseudoHeader withSegmentLength(int segmentLengthInBits) {
 
-        // Check length of field
-        if (dest.length() != 32) {
-            throw new Exception("Destination address field must be 32 bits!");
+        if (segmentLengthInBits == getSegmentLengthInBits()) {
+            return this;
         }
-        this.dest = dest;
+
+        byte[] copy = data.clone();
+        Bits.write(copy, SEGMENT_LENGTH_OFFSET, 16, segmentLengthInBits);
+
+        return new PseudoHeader(copy, constantSum);
     }
 
-    public String getReservedField() {
-        return reserved;
+    /**
+     * Check the fields of the pseudo-header for validity.
+     *
+     * @param result    where the outcome of the validation is recorded
+     * @return          true if the pseudo-header is valid
+     */
+    boolean check(ValidationResult result) {
+
+        // Check that the reserved field is empty
+        if (Bits.read(data, RESERVED_OFFSET, 8) != 0) {
+            return result.fail(SegmentError.PSEUDO_HEADER_RESERVED_NOT_ZERO);
+        }
+
+        return result.pass();
     }
 
-    private void setReservedField(String reserved) throws Exception {
+    /**
+     * Decode a pseudo-header given in binary or hex into bytes.
+     *
+     * @param data          the pseudo-header in binary or hex
+     * @return              the decoded bytes
+     * @throws Exception    the data was not binary or hex, or was too short
+     */
+    private static byte[] decode(String data) throws Exception {
+
+        InputDecoder decoder = new InputDecoder();
+        ValidationResult result = new ValidationResult();
 
-        // Check length of field
-        if (reserved.length() != 8) {
-            throw new Exception("Reserved field must be 8 bits!");
+        if (!decoder.decode(data)) {
+
+            result.fail(SegmentError.INVALID_CHARACTER, decoder.getErrorOffset());
+            throw result.toException();
         }
 
-        // Check length of field
-        if (reserved.contains("1")) {
-            throw new Exception("Pseudo-header reserved field must be all 0s!");
+        // Check length of the pseudo-header
+        if (decoder.getLengthInBits() < LENGTH_IN_BIT) {
+
+            result.fail(SegmentError.PSEUDO_HEADER_TOO_SHORT);
+            throw result.toException();
         }
 
-        this.reserved = reserved;
+        return decoder.getData();
     }
 
-    public String getProtocolField() {
-        return protocol;
+
+    // -------------------------------------------------------------------------
+    //
+    // Wire Representation Methods
+    //
+    // -------------------------------------------------------------------------
+
+
+    /**
+     * Write a TCP pseudo-header at the start of a buffer, such as the buffer a
+     * segment is built in before it is acquired from a {@link SegmentPool}.
+     *
+     * @param scratch               the buffer to write to
+     * @param source                the source address
+     * @param dest                  the destination address
+     * @param segmentLengthInBits   the length of the TCP segment in bits
+     */
+    static void writeTo(byte[] scratch, long source, long dest, int segmentLengthInBits) {
+
+        Bits.write(scratch, SOURCE_OFFSET, 32, source);
+        Bits.write(scratch, DEST_OFFSET, 32, dest);
+        Bits.write(scratch, RESERVED_OFFSET, 8, 0);
+        Bits.write(scratch, PROTOCOL_OFFSET, 8, TCP_PROTOCOL);
+        writeSegmentLength(scratch, segmentLengthInBits);
     }
 
-    private void setProtocolField(String protocol) throws Exception {
+    /**
+     * Rewrite the TCP length of a pseudo-header written by
+     * {@link #writeTo(byte[], long, long, int)}.
+     *
+     * @param scratch               the buffer holding the pseudo-header
+     * @param segmentLengthInBits   the length of the TCP segment in bits
+     */
+    static void writeSegmentLength(byte[] scratch, int segmentLengthInBits) {
+        Bits.write(scratch, SEGMENT_LENGTH_OFFSET, 16, segmentLengthInBits);
+    }
+
+    /**
+     * Read the TCP length of a pseudo-header in its wire representation.
+     *
+     * @param data      the bytes containing the pseudo-header
+     * @param offset    the index of the first byte of the pseudo-header
+     * @return          the length of the TCP segment in bits
+     */
+    static int readSegmentLength(byte[] data, int offset) {
+        return (int) Bits.read(data, offset * 8 + SEGMENT_LENGTH_OFFSET, 16);
+    }
+
+
+    // -------------------------------------------------------------------------
+    //
+    // Pseudo-Header Field Getter Methods
+    //
+    // -------------------------------------------------------------------------
 
-        // Check length of field
-        if (protocol.length() != 8) {
-            throw new Exception("Protocol field must be 8 bits!");
-        }
 
-        this.protocol = protocol;
+    public String getSourceField() {
+        return HexCodec.encodeBinary(data, SOURCE_OFFSET, 32);
     }
 
-    public String getSegmentLengthField() {
-        return segmentLength;
+    public String getDestField() {
+        return HexCodec.encodeBinary(data, DEST_OFFSET, 32);
     }
 
-    private void setSegmentLengthField(String segmentLength) throws Exception {
+    public String getReservedField() {
+        return HexCodec.encodeBinary(data, RESERVED_OFFSET, 8);
+    }
 
-        // Check length of field
-        if (segmentLength.length() != 16) {
-            throw new Exception("Total length field must be 16 bits!");
-        }
+    public String getProtocolField() {
+        return HexCodec.encodeBinary(data, PROTOCOL_OFFSET, 8);
+    }
+
+    public String getSegmentLengthField() {
+        return HexCodec.encodeBinary(data, SEGMENT_LENGTH_OFFSET, 16);
+    }
+
+    public long getSourceAddress() {
+        return Bits.read(data, SOURCE_OFFSET, 32);
+    }
 
-        this.segmentLength = segmentLength;
+    public long getDestAddress() {
+        return Bits.read(data, DEST_OFFSET, 32);
     }
 
     /**
@@ -118,7 +271,19 @@ public class PseudoHeader extends ConceptualObject {
      * @return  the length of the TCP segment in binary
      */
     public int getSegmentLengthInBits() {
-        return binaryToDecimal(getSegmentLengthField());
+        return (int) Bits.read(data, SEGMENT_LENGTH_OFFSET, 16);
+    }
+
+    /**
+     * Get the one's complement sum of the pseudo-header, which is the starting
+     * point for the checksum of the segment it belongs to. Only the TCP length
+     * is added here; the other fields were summed when the pseudo-header was
+     * created.
+     *
+     * @return  the partial sum of the pseudo-header (not yet folded)
+     */
+    long getPartialChecksum() {
+        return constantSum + getSegmentLengthInBits();
     }
 
     /**
@@ -126,17 +291,17 @@ public class PseudoHeader extends ConceptualObject {
      * @return  a continuous string of bits
      */
     public String bits() {
-        return source + dest + reserved + protocol + segmentLength;
+        return HexCodec.encodeBinary(data, 0, LENGTH_IN_BIT);
     }
 
     @Override
     public String toString() {
         return "PseudoHeader{" +
-                "source='" + source + '\'' +
-                ", dest='" + dest + '\'' +
-                ", reserved='" + reserved + '\'' +
-                ", protocol='" + protocol + '\'' +
-                ", segmentLength='" + segmentLength + '\'' +
+                "source='" + getSourceField() + '\'' +
+                ", dest='" + getDestField() + '\'' +
+                ", reserved='" + getReservedField() + '\'' +
+                ", protocol='" + getProtocolField() + '\'' +
+                ", segmentLength='" + getSegmentLengthField() + '\'' +
                 '}';
     }
 }
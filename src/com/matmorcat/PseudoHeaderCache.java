@@ -0,0 +1,244 @@
+package com.matmorcat;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A cache of pseudo-headers keyed by flow (source address, destination
+ * address and protocol). Every segment of a connection shares these fields,
+ * so a segment of a known flow reuses the cached pseudo-header, or one that
+ * only differs in its TCP length, instead of decoding and summing the
+ * pseudo-header again. The checksum of the segment then starts from the
+ * precomputed sum of the constant fields.
+ *
+ * The cache is a fixed table of flows, so it never grows past its capacity
+ * however many connections or threads use it. A flow can be held in one of
+ * two slots picked by its hash; a new flow takes an empty slot, or else
+ * moves the newer of the two flows into the other slot and replaces the
+ * older one. Each flow keeps its pseudo-headers for the last few TCP lengths
+ * it has seen, so a hit on a recent length creates no objects and only a new
+ * length creates a pseudo-header.
+ *
+ * A cache is safe to use from many threads at once, and one cache is shared
+ * by all threads parsing segments. Lookups take no locks: the slots are read
+ * and written atomically, and a flow is never changed once it is in a slot,
+ * apart from the pseudo-headers of its lengths, which are immutable. Two
+ * threads that miss on the same flow at once may both create it, and only
+ * one of them is kept.
+ */
+public final class PseudoHeaderCache {
+
+    // The number of flows held by the cache used when parsing segments
+    static final int DEFAULT_CAPACITY = 4096;
+
+    // The number of TCP lengths kept for each flow
+    private static final int LENGTHS_PER_FLOW = 4;
+
+    private static final PseudoHeaderCache DEFAULT = new PseudoHeaderCache(DEFAULT_CAPACITY);
+
+    // The slots of the flows, in pairs
+    private final AtomicReferenceArray<Flow> slots;
+
+    // Selects the first slot of a pair from the hash of a flow
+    private final int mask;
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+
+    /**
+     * Creates an empty cache.
+     *
+     * @param capacity  the largest number of flows to hold, rounded up to a
+     *                  power of two of at least 2
+     */
+    public PseudoHeaderCache(int capacity) {
+
+        if (capacity < 1) {
+            throw new IllegalArgumentException("The capacity must be at least 1!");
+        }
+
+        int slotCount = Math.max(2, Integer.highestOneBit(capacity - 1) << 1);
+
+        this.slots = new AtomicReferenceArray<>(slotCount);
+        this.mask = slotCount - 2;
+    }
+
+    /**
+     * Get the cache used when segments are parsed, shared by all threads.
+     *
+     * @return  the default cache
+     */
+    public static PseudoHeaderCache getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Get the pseudo-header held in the data, from the cache if its flow is
+     * known. The pseudo-header is checked in the same way as
+     * {@link PseudoHeader#tryCreate(byte[], int, ValidationResult)}.
+     *
+     * @param data      the bytes containing the pseudo-header
+     * @param offset    the index of the first byte of the pseudo-header
+     * @param result    where the outcome of the validation is recorded
+     * @return          the pseudo-header, or null if it was invalid
+     */
+    PseudoHeader get(byte[] data, int offset, ValidationResult result) {
+
+        int segmentLengthInBits = PseudoHeader.readSegmentLength(data, offset);
+
+        long addresses = Bits.read(data, offset * 8, 32) << 32 | Bits.read(data, offset * 8 + 32, 32);
+        int protocol = (int) Bits.read(data, offset * 8 + PseudoHeader.RESERVED_OFFSET, 16);
+
+        int first = hash(addresses, protocol) & mask;
+
+        // Only valid pseudo-headers are cached, and the reserved field is part
+        // of the key, so a hit is always valid
+        Flow flow = slots.get(first);
+
+        if (flow == null || !flow.matches(addresses, protocol)) {
+
+            flow = slots.get(first + 1);
+
+            if (flow != null && !flow.matches(addresses, protocol)) {
+                flow = null;
+            }
+        }
+
+        if (flow != null) {
+
+            hitCount.increment();
+            result.pass();
+
+            return flow.withSegmentLength(segmentLengthInBits);
+        }
+
+        missCount.increment();
+        PseudoHeader pseudoHeader = PseudoHeader.tryCreate(data, offset, result);
+
+        if (pseudoHeader != null) {
+
+            Flow newer = slots.get(first);
+
+            if (newer != null) {
+                slots.set(first + 1, newer);
+            }
+
+            slots.set(first, new Flow(addresses, protocol, pseudoHeader));
+        }
+
+        return pseudoHeader;
+    }
+
+    /**
+     * Get the number of flows in the cache. The count is only exact when no
+     * other thread is using the cache.
+     */
+    public int size() {
+
+        int size = 0;
+
+        for (int i = 0; i < slots.length(); i++) {
+
+            if (slots.get(i) != null) {
+                size++;
+            }
+        }
+
+        return size;
+    }
+
+    public void clear() {
+
+        for (int i = 0; i < slots.length(); i++) {
+            slots.set(i, null);
+        }
+    }
+
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "PseudoHeaderCache{" +
+                "size=" + size() +
+                ", hits=" + getHitCount() +
+                ", misses=" + getMissCount() +
+                '}';
+    }
+
+    /**
+     * Spread the key fields of a flow over the bits of an int.
+     */
+    private static int hash(long addresses, int protocol) {
+
+        // The finalizer of MurmurHash3, so every bit of the key reaches the low bits
+        long h = addresses ^ (long) protocol << 48;
+
+        h = (h ^ (h >>> 33)) * 0xFF51AFD7ED558CCDL;
+        h = (h ^ (h >>> 33)) * 0xC4CEB9FE1A85EC53L;
+
+        return (int) (h ^ (h >>> 33));
+    }
+
+
+    /**
+     * A flow and its pseudo-headers for the last few TCP lengths it has seen.
+     */
+    private static final class Flow {
+
+        // The source address in the high 32 bits and the destination address in the low 32 bits
+        private final long addresses;
+
+        // The reserved field in the high 8 bits and the protocol in the low 8 bits
+        private final int protocol;
+
+        // Written without synchronization: a pseudo-header is immutable, so
+        // a thread sees either a whole pseudo-header or none, and a lost
+        // write only costs another pseudo-header later
+        private final PseudoHeader[] byLength = new PseudoHeader[LENGTHS_PER_FLOW];
+
+        // The slot the next new length replaces. Slot 0 holds the first
+        // pseudo-header of the flow, which the others are derived from, so
+        // it is never replaced.
+        private int next;
+
+        Flow(long addresses, int protocol, PseudoHeader pseudoHeader) {
+
+            this.addresses = addresses;
+            this.protocol = protocol;
+            this.byLength[next++] = pseudoHeader;
+        }
+
+        boolean matches(long addresses, int protocol) {
+            return this.addresses == addresses && this.protocol == protocol;
+        }
+
+        /**
+         * Get the pseudo-header of the flow with a TCP length, creating one
+         * that shares the sum of the constant fields if the length is new.
+         */
+        PseudoHeader withSegmentLength(int segmentLengthInBits) {
+
+            for (PseudoHeader pseudoHeader : byLength) {
+
+                if (pseudoHeader != null && pseudoHeader.getSegmentLengthInBits() == segmentLengthInBits) {
+                    return pseudoHeader;
+                }
+            }
+
+            PseudoHeader pseudoHeader = byLength[0].withSegmentLength(segmentLengthInBits);
+
+            int slot = next;
+            next = slot + 1 < LENGTHS_PER_FLOW ? slot + 1 : 1;
+
+            byLength[slot] = pseudoHeader;
+
+            return pseudoHeader;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.matmorcat;
+
+/**
+ * The receiving side of a TCP data transfer. Unlike {@link TransportLayer},
+ * which only keeps the last segment it received, the receiver places the
+ * payload of every segment in a {@link ReassemblyBuffer}, so segments that
+ * arrive out of order, twice or overlapping still give back the byte stream
+ * that was sent.
+ *
+ * After each segment the receiver pushes an acknowledgment of the bytes
+ * received in order to its peer, with the free space of the buffer as its
+ * window, so a {@link SlidingWindowSender} pushing to it is clocked by its
+ * acknowledgments. Segments must carry a payload, so an acknowledgment
+ * carries a single byte that is not numbered.
+ */
+public class ReassemblingReceiver extends TransportLayer {
+
+    // The length of an acknowledgment: a fixed header and one byte of payload
+    private static final int ACK_LENGTH = TcpHeader.FIXED_LENGTH + 1;
+
+    private final ReassemblyBuffer reassemblyBuffer;
+
+    // The pseudo-header + header + payload of the acknowledgment being built
+    private final byte[] scratch = new byte[PseudoHeader.LENGTH + ACK_LENGTH];
+    private final TcpHeader header = new TcpHeader();
+
+    private final SegmentPool pool = new SegmentPool(16);
+    private final ValidationResult result = new ValidationResult();
+
+    private TransportLayer peer;
+
+    // Whether a segment has been received to take the addresses and ports from
+    private boolean addressed;
+
+    // The window given in the last acknowledgment
+    private int advertisedWindow;
+
+    private long segmentsReceived;
+    private long acknowledgmentsSent;
+
+    /**
+     * Creates a receiver with an empty reassembly buffer.
+     *
+     * @param capacity          the least number of bytes the buffer can hold
+     *                          (rounded up to a power of 2)
+     * @param initialSequence   the sequence number of the first byte
+     */
+    public ReassemblingReceiver(int capacity, long initialSequence) {
+
+        this.reassemblyBuffer = new ReassemblyBuffer(capacity, initialSequence);
+
+        header.setFlags(Segment.URG_FLAG | Segment.ACK_FLAG);
+    }
+
+    /**
+     * Receive a segment from the sending host, place its payload in the
+     * reassembly buffer and acknowledge it.
+     */
+    @Override
+    boolean pullSegment(Segment segment) throws Exception {
+
+        if (!super.pullSegment(segment)) {
+            return false;
+        }
+
+        segmentsReceived++;
+        reassemblyBuffer.insert(segment);
+
+        // The acknowledgment goes back the way the segment came
+        PseudoHeader pseudoHeader = segment.getPseudoHeader();
+
+        PseudoHeader.writeTo(scratch, pseudoHeader.getDestAddress(), pseudoHeader.getSourceAddress(),
+                ACK_LENGTH * 8);
+
+        header.setSourcePort(segment.getDestPort())
+                .setDestPort(segment.getSourcePort());
+
+        addressed = true;
+
+        if (peer != null) {
+            sendAcknowledgment();
+        }
+
+        return true;
+    }
+
+    /**
+     * Push an acknowledgment of the bytes received so far to the peer, such
+     * as to tell it about the room made by the application reading bytes.
+     *
+     * @throws Exception    if the acknowledgment could not be sent
+     */
+    public void sendAcknowledgment() throws Exception {
+
+        if (peer == null || !addressed) {
+            throw new IllegalStateException("The receiver has no peer to acknowledge!");
+        }
+
+        advertisedWindow = Math.min(reassemblyBuffer.getWindow(), 0xFFFF);
+
+        header.setAckNumber(reassemblyBuffer.getReceiveNext())
+                .setWindowSize(advertisedWindow)
+                .writeTo(scratch, PseudoHeader.LENGTH);
+
+        Segment acknowledgment = pool.acquire(scratch, 0, scratch.length * 8,
+                Segment.ParseMode.STRICT, result);
+
+        if (acknowledgment == null) {
+            throw result.toException();
+        }
+
+        acknowledgmentsSent++;
+
+        setSegment(acknowledgment);
+        pushSegment(peer);
+    }
+
+
+    // -------------------------------------------------------------------------
+    //
+    // Receiver Getter & Setter Methods
+    //
+    // -------------------------------------------------------------------------
+
+
+    /**
+     * Get the reassembly buffer, to read the bytes that have been received.
+     *
+     * @return  the reassembly buffer
+     */
+    public ReassemblyBuffer getReassemblyBuffer() {
+        return reassemblyBuffer;
+    }
+
+    public TransportLayer getPeer() {
+        return peer;
+    }
+
+    public void setPeer(TransportLayer peer) {
+        this.peer = peer;
+    }
+
+    /**
+     * Get the window given to the peer in the last acknowledgment, to decide
+     * whether reading bytes has made enough room to be worth telling it.
+     *
+     * @return  the advertised window in bytes
+     */
+    public int getAdvertisedWindow() {
+        return advertisedWindow;
+    }
+
+    public long getSegmentsReceived() {
+        return segmentsReceived;
+    }
+
+    public long getAcknowledgmentsSent() {
+        return acknowledgmentsSent;
+    }
+}
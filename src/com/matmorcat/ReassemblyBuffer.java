@@ -0,0 +1,416 @@
+package com.matmorcat;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Puts the payloads of received segments back into the order of the byte
+ * stream they were cut from. Payloads are copied into a receive buffer at the
+ * place their sequence number gives them, whatever order they arrive in, and
+ * the application reads the bytes that have arrived without a gap before
+ * them straight out of the buffer.
+ *
+ * The buffer is a ring whose size is a power of 2 and which covers the
+ * receive window: the bytes from the first one the application has not read
+ * yet up to the capacity of the buffer. Bytes outside of the window, and
+ * bytes that were already received, are trimmed off. Sequence numbers are
+ * tracked as 64-bit counts of bytes since the initial sequence number, so a
+ * sequence number is placed correctly after it wraps around at 32 bits.
+ *
+ * Bytes that arrive ahead of a gap are recorded as ranges, held in two
+ * sorted arrays of the offsets of their first bytes and of the bytes after
+ * their last. Ranges that touch or overlap are merged, so the ranges never
+ * overlap and a segment finds its place with a binary search. Merging or
+ * adding a range shifts the ranges after it, which costs little for the
+ * number of gaps a receive window has, and keeps the offsets as primitive
+ * longs instead of a boxed key and value per range. Segments that arrive in
+ * order never touch the ranges.
+ */
+public class ReassemblyBuffer {
+
+    private static final long SEQUENCE_MASK = 0xFFFFFFFFL;
+
+    private final byte[] buffer;
+    private final int mask;
+
+    // A read-only view of the buffer, positioned at the readable bytes
+    private final ByteBuffer readView;
+
+    private final long initialSequence;
+
+    // Byte counts since the initial sequence number: the first byte the
+    // application has not read and the first byte that has not been received
+    private long consumed;
+    private long received;
+
+    // The ranges received beyond the first gap, from their first byte to the
+    // byte after their last, in order
+    private long[] rangeStarts = new long[8];
+    private long[] rangeEnds = new long[8];
+    private int rangeCount;
+    private long outOfOrderBytes;
+
+    private long duplicateBytes;
+    private long trimmedBytes;
+
+    /**
+     * Creates an empty reassembly buffer.
+     *
+     * @param capacity          the least number of bytes the buffer can hold
+     *                          (rounded up to a power of 2)
+     * @param initialSequence   the sequence number of the first byte
+     */
+    public ReassemblyBuffer(int capacity, long initialSequence) {
+
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("The receive buffer must hold between 1 and 2^30 bytes!");
+        }
+
+        int size = Integer.highestOneBit(capacity);
+
+        if (size < capacity) {
+            size <<= 1;
+        }
+
+        this.buffer = new byte[size];
+        this.mask = size - 1;
+        this.readView = ByteBuffer.wrap(buffer).asReadOnlyBuffer();
+        this.initialSequence = initialSequence & SEQUENCE_MASK;
+    }
+
+
+    // -------------------------------------------------------------------------
+    //
+    // Segment Insertion Methods
+    //
+    // -------------------------------------------------------------------------
+
+
+    /**
+     * Place the payload of a segment in the buffer.
+     *
+     * @param segment   the received segment
+     * @return          the number of bytes that became readable
+     */
+    public int insert(Segment segment) {
+
+        int payloadOffset = segment.getHeaderLengthInBits() / 8;
+
+        return insert(segment.getSequenceNumber(), segment.getData(), payloadOffset,
+                segment.getPayloadLengthInBits() / 8);
+    }
+
+    /**
+     * Place bytes of the stream in the buffer.
+     *
+     * @param sequenceNumber    the sequence number of the first byte (32 bits)
+     * @param data              the bytes to place
+     * @param offset            the index of the first byte
+     * @param length            the number of bytes
+     * @return                  the number of bytes that became readable
+     */
+    public int insert(long sequenceNumber, byte[] data, int offset, int length) {
+
+        // The distance from the first byte not received, which is negative
+        // for bytes that were received before
+        long start = received + (int) (sequenceNumber - (initialSequence + received));
+        long end = start + length;
+        long limit = consumed + buffer.length;
+
+        if (start < received) {
+
+            long duplicate = Math.min(end, received) - start;
+
+            duplicateBytes += duplicate;
+            offset += duplicate;
+            start += duplicate;
+        }
+
+        if (end > limit) {
+
+            trimmedBytes += end - Math.max(start, limit);
+            end = limit;
+        }
+
+        if (start >= end) {
+            return 0;
+        }
+
+        copyIn(start, data, offset, (int) (end - start));
+
+        if (start > received) {
+
+            addRange(start, end);
+            return 0;
+        }
+
+        long before = received;
+        received = end;
+
+        // Take in the ranges that the new bytes have reached, counting the
+        // bytes they already held as duplicates
+        int taken = 0;
+
+        while (taken < rangeCount && rangeStarts[taken] <= received) {
+
+            duplicateBytes += Math.max(0, Math.min(end, rangeEnds[taken]) - rangeStarts[taken]);
+            outOfOrderBytes -= rangeEnds[taken] - rangeStarts[taken];
+            received = Math.max(received, rangeEnds[taken]);
+            taken++;
+        }
+
+        removeRanges(0, taken);
+
+        return (int) (received - before);
+    }
+
+    /**
+     * Record a range of bytes that arrived ahead of a gap, merging it with
+     * the ranges it touches. The bytes it shares with them are duplicates.
+     */
+    private void addRange(long start, long end) {
+
+        // The first range that starts after the new one
+        int index = Arrays.binarySearch(rangeStarts, 0, rangeCount, start);
+        index = index >= 0 ? index + 1 : -index - 1;
+
+        int from = index;
+        long mergedStart = start;
+        long mergedEnd = end;
+
+        if (index > 0 && rangeEnds[index - 1] >= start) {
+
+            long previousEnd = rangeEnds[index - 1];
+
+            if (previousEnd >= end) {
+
+                duplicateBytes += end - start;
+                return;
+            }
+
+            duplicateBytes += previousEnd - start;
+            from = index - 1;
+            mergedStart = rangeStarts[from];
+        }
+
+        int to = index;
+
+        while (to < rangeCount && rangeStarts[to] <= end) {
+
+            duplicateBytes += Math.min(end, rangeEnds[to]) - rangeStarts[to];
+            mergedEnd = Math.max(mergedEnd, rangeEnds[to]);
+            to++;
+        }
+
+        for (int i = from; i < to; i++) {
+            outOfOrderBytes -= rangeEnds[i] - rangeStarts[i];
+        }
+
+        outOfOrderBytes += mergedEnd - mergedStart;
+
+        // Replace the merged ranges with one, making room if none was merged
+        if (from == to) {
+
+            if (rangeCount == rangeStarts.length) {
+
+                rangeStarts = Arrays.copyOf(rangeStarts, rangeCount * 2);
+                rangeEnds = Arrays.copyOf(rangeEnds, rangeCount * 2);
+            }
+
+            System.arraycopy(rangeStarts, from, rangeStarts, from + 1, rangeCount - from);
+            System.arraycopy(rangeEnds, from, rangeEnds, from + 1, rangeCount - from);
+            rangeCount++;
+
+        } else {
+
+            removeRanges(from + 1, to);
+        }
+
+        rangeStarts[from] = mergedStart;
+        rangeEnds[from] = mergedEnd;
+    }
+
+    /**
+     * Remove the ranges from one index up to (but not including) another.
+     */
+    private void removeRanges(int from, int to) {
+
+        if (from >= to) {
+            return;
+        }
+
+        System.arraycopy(rangeStarts, to, rangeStarts, from, rangeCount - to);
+        System.arraycopy(rangeEnds, to, rangeEnds, from, rangeCount - to);
+        rangeCount -= to - from;
+    }
+
+    /**
+     * Copy bytes into the ring at the place of a stream offset.
+     */
+    private void copyIn(long start, byte[] data, int offset, int length) {
+
+        int index = (int) start & mask;
+
+        // Copy up to the end of the ring, then the rest to its start
+        int first = Math.min(length, buffer.length - index);
+
+        System.arraycopy(data, offset, buffer, index, first);
+        System.arraycopy(data, offset + first, buffer, 0, length - first);
+    }
+
+
+    // -------------------------------------------------------------------------
+    //
+    // Application Stream Methods
+    //
+    // -------------------------------------------------------------------------
+
+
+    /**
+     * Get the number of bytes the application can read.
+     *
+     * @return  the readable bytes
+     */
+    public long getReadableBytes() {
+        return received - consumed;
+    }
+
+    /**
+     * Get a view of the readable bytes without copying them. The view is read
+     * only and is shared by every call. It ends at the end of the ring, so
+     * when the readable bytes wrap around, the rest is in the view given by
+     * the next call after {@link #consume(int)}.
+     *
+     * @return  the view, whose remaining bytes are readable
+     */
+    public ByteBuffer getReadableBuffer() {
+
+        int index = (int) consumed & mask;
+        int length = (int) Math.min(received - consumed, buffer.length - index);
+
+        readView.limit(index + length);
+        readView.position(index);
+
+        return readView;
+    }
+
+    /**
+     * Mark bytes as read by the application, which makes room for more.
+     *
+     * @param count the number of bytes read
+     */
+    public void consume(int count) {
+
+        if (count < 0 || count > received - consumed) {
+            throw new IllegalArgumentException("Only " + (received - consumed) + " bytes are readable!");
+        }
+
+        consumed += count;
+    }
+
+    /**
+     * Copy readable bytes out of the buffer and mark them as read.
+     *
+     * @param destination   the array to copy to
+     * @param offset        the index to copy the first byte to
+     * @param length        the most bytes to copy
+     * @return              the number of bytes copied
+     */
+    public int read(byte[] destination, int offset, int length) {
+
+        int count = (int) Math.min(length, received - consumed);
+        int index = (int) consumed & mask;
+        int first = Math.min(count, buffer.length - index);
+
+        System.arraycopy(buffer, index, destination, offset, first);
+        System.arraycopy(buffer, 0, destination, offset + first, count - first);
+
+        consumed += count;
+
+        return count;
+    }
+
+
+    // -------------------------------------------------------------------------
+    //
+    // Reassembly Buffer Getter Methods
+    //
+    // -------------------------------------------------------------------------
+
+
+    public int getCapacity() {
+        return buffer.length;
+    }
+
+    /**
+     * Get the sequence number of the first byte that has not been received,
+     * which is the acknowledgment number for the sender.
+     *
+     * @return  the sequence number (32 bits)
+     */
+    public long getReceiveNext() {
+        return (initialSequence + received) & SEQUENCE_MASK;
+    }
+
+    /**
+     * Get the number of bytes the sender may send beyond the first byte that
+     * has not been received.
+     *
+     * @return  the receive window in bytes
+     */
+    public int getWindow() {
+        return (int) (buffer.length - (received - consumed));
+    }
+
+    /**
+     * Get the number of bytes received in order since the initial sequence
+     * number.
+     *
+     * @return  the bytes received
+     */
+    public long getBytesReceived() {
+        return received;
+    }
+
+    /**
+     * Get the number of gaps in the stream that have bytes after them.
+     *
+     * @return  the number of gaps
+     */
+    public int getHoleCount() {
+        return rangeCount;
+    }
+
+    /**
+     * Get the number of bytes held beyond the first gap.
+     *
+     * @return  the out-of-order bytes
+     */
+    public long getOutOfOrderBytes() {
+        return outOfOrderBytes;
+    }
+
+    public long getDuplicateBytes() {
+        return duplicateBytes;
+    }
+
+    /**
+     * Get the number of bytes dropped because they were beyond the window.
+     *
+     * @return  the trimmed bytes
+     */
+    public long getTrimmedBytes() {
+        return trimmedBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "ReassemblyBuffer{" +
+                "receiveNext=" + getReceiveNext() +
+                ", readable=" + getReadableBytes() +
+                ", window=" + getWindow() +
+                ", holes=" + rangeCount +
+                ", outOfOrder=" + outOfOrderBytes +
+                '}';
+    }
+}
@@ -0,0 +1,126 @@
+package com.matmorcat;
+
+/**
+ * The congestion control of TCP Reno (RFC 5681). The window grows by the
+ * bytes acknowledged in slow start and by one segment per window in
+ * congestion avoidance. A loss halves it, and each duplicate
+ * acknowledgment during recovery inflates it by a segment. Recovery ends
+ * with the first acknowledgment of new bytes, so further losses in the same
+ * window each halve it again.
+ */
+public class RenoCongestionControl implements CongestionControl {
+
+    // The initial window in segments (RFC 6928)
+    static final int INITIAL_WINDOW_SEGMENTS = 10;
+
+    protected int maxSegmentSize;
+    protected long congestionWindow;
+    protected long slowStartThreshold;
+
+    // The bytes acknowledged towards the next segment of growth in
+    // congestion avoidance
+    private long acknowledgedSinceGrowth;
+
+    @Override
+    public void reset(int maxSegmentSize, long now) {
+
+        this.maxSegmentSize = maxSegmentSize;
+        this.congestionWindow = (long) INITIAL_WINDOW_SEGMENTS * maxSegmentSize;
+        this.slowStartThreshold = Long.MAX_VALUE;
+        this.acknowledgedSinceGrowth = 0;
+    }
+
+    @Override
+    public void onAcknowledgment(long acknowledged, long rtt, long bytesInFlight, long now) {
+
+        if (congestionWindow < slowStartThreshold) {
+
+            // Appropriate byte counting with a limit of 2 segments (RFC 3465)
+            congestionWindow += Math.min(acknowledged, 2L * maxSegmentSize);
+            return;
+        }
+
+        increaseInAvoidance(acknowledged, now);
+    }
+
+    /**
+     * Grow the window in congestion avoidance: by one segment for each window
+     * of bytes acknowledged.
+     *
+     * @param acknowledged  the number of bytes newly acknowledged
+     * @param now           the current time
+     */
+    protected void increaseInAvoidance(long acknowledged, long now) {
+
+        acknowledgedSinceGrowth += acknowledged;
+
+        if (acknowledgedSinceGrowth >= congestionWindow) {
+
+            acknowledgedSinceGrowth -= congestionWindow;
+            congestionWindow += maxSegmentSize;
+        }
+    }
+
+    @Override
+    public void onLoss(long bytesInFlight, long now) {
+
+        slowStartThreshold = reducedWindow(bytesInFlight);
+
+        // Count the 3 segments the duplicate acknowledgments say have left
+        congestionWindow = slowStartThreshold + 3L * maxSegmentSize;
+        acknowledgedSinceGrowth = 0;
+    }
+
+    /**
+     * Get the slow start threshold after a loss.
+     *
+     * @param bytesInFlight the bytes in flight when the loss was detected
+     * @return              the new threshold
+     */
+    protected long reducedWindow(long bytesInFlight) {
+        return Math.max(bytesInFlight / 2, 2L * maxSegmentSize);
+    }
+
+    @Override
+    public void onDuplicateAcknowledgment(long now) {
+        congestionWindow += maxSegmentSize;
+    }
+
+    @Override
+    public boolean onPartialAcknowledgment(long acknowledged, long rtt, long now) {
+        return false;
+    }
+
+    @Override
+    public void onRecovered(long acknowledged, long rtt, long now) {
+
+        // Deflate the window that the duplicate acknowledgments inflated
+        congestionWindow = slowStartThreshold;
+    }
+
+    @Override
+    public void onRetransmissionTimeout(long bytesInFlight, long now) {
+
+        slowStartThreshold = reducedWindow(bytesInFlight);
+        congestionWindow = maxSegmentSize;
+        acknowledgedSinceGrowth = 0;
+    }
+
+    @Override
+    public long getCongestionWindow() {
+        return congestionWindow;
+    }
+
+    @Override
+    public long getSlowStartThreshold() {
+        return slowStartThreshold;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" +
+                "congestionWindow=" + congestionWindow +
+                ", slowStartThreshold=" + slowStartThreshold +
+                '}';
+    }
+}
@@ -0,0 +1,257 @@
+package com.matmorcat;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * How the threads that run simulated connections are created. In
+ * {@link Mode#VIRTUAL} mode each task gets a virtual thread of its own (Java
+ * 21 or later), so tens of thousands of connections can each block in
+ * {@link TransportLayer#receiveSegment()} without holding an operating system
+ * thread. In {@link Mode#PLATFORM} mode the tasks share a fixed pool of
+ * ordinary threads.
+ *
+ * The project is compiled for older versions of Java, so virtual threads are
+ * created through reflection and {@link #isVirtualThreadAvailable()} tells
+ * whether the running Java supports them.
+ */
+public final class SchedulerConfig {
+
+    /**
+     * The kind of thread each task runs on.
+     */
+    public enum Mode {
+
+        /** A new virtual thread for every task. */
+        VIRTUAL,
+
+        /** A fixed pool of platform threads shared by all tasks. */
+        PLATFORM
+    }
+
+    // The system properties read by the JDK when it starts the virtual thread scheduler
+    private static final String PARALLELISM_PROPERTY = "jdk.virtualThreadScheduler.parallelism";
+    private static final String MAX_POOL_SIZE_PROPERTY = "jdk.virtualThreadScheduler.maxPoolSize";
+
+    // Thread.ofVirtual() and the Thread.Builder methods used on its result,
+    // or null if the running Java has no virtual threads
+    private static final Method OF_VIRTUAL = findMethod("java.lang.Thread", "ofVirtual");
+    private static final Method BUILDER_NAME = findMethod("java.lang.Thread$Builder", "name",
+            String.class, long.class);
+    private static final Method BUILDER_FACTORY = findMethod("java.lang.Thread$Builder", "factory");
+
+    private Mode mode = OF_VIRTUAL != null ? Mode.VIRTUAL : Mode.PLATFORM;
+    private int platformPoolSize = Runtime.getRuntime().availableProcessors();
+    private int virtualParallelism;
+    private int virtualMaxPoolSize;
+    private String threadNamePrefix = "connection-";
+
+
+    // -------------------------------------------------------------------------
+    //
+    // Thread Creation Methods
+    //
+    // -------------------------------------------------------------------------
+
+
+    /**
+     * Check whether the running Java supports virtual threads.
+     *
+     * @return  true if {@link Mode#VIRTUAL} can be used
+     */
+    public static boolean isVirtualThreadAvailable() {
+        return OF_VIRTUAL != null;
+    }
+
+    /**
+     * Create a thread factory for the configured mode. In
+     * {@link Mode#PLATFORM} mode the factory makes daemon platform threads.
+     *
+     * @return  the thread factory
+     * @throws UnsupportedOperationException    in {@link Mode#VIRTUAL} mode if
+     *                                          virtual threads are not available
+     */
+    public ThreadFactory createThreadFactory() {
+
+        if (mode == Mode.VIRTUAL) {
+
+            applyVirtualSchedulerProperties();
+
+            try {
+
+                // Thread.ofVirtual().name(prefix, 0).factory()
+                Object builder = OF_VIRTUAL.invoke(null);
+                builder = BUILDER_NAME.invoke(builder, threadNamePrefix, 0L);
+
+                return (ThreadFactory) BUILDER_FACTORY.invoke(builder);
+
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("Could not create virtual threads!", e);
+            }
+        }
+
+        final AtomicInteger count = new AtomicInteger();
+
+        return task -> {
+
+            Thread thread = new Thread(task, threadNamePrefix + count.getAndIncrement());
+            thread.setDaemon(true);
+
+            return thread;
+        };
+    }
+
+    /**
+     * Create an executor for the configured mode: one that starts a virtual
+     * thread per task in {@link Mode#VIRTUAL} mode, or a fixed pool of
+     * {@link #getPlatformPoolSize()} threads in {@link Mode#PLATFORM} mode.
+     *
+     * @return  the executor, which must be shut down when it is finished with
+     * @throws UnsupportedOperationException    in {@link Mode#VIRTUAL} mode if
+     *                                          virtual threads are not available
+     */
+    public ExecutorService createExecutor() {
+
+        if (mode == Mode.VIRTUAL) {
+
+            ThreadFactory factory = createThreadFactory();
+
+            try {
+
+                // Executors.newThreadPerTaskExecutor(factory)
+                return (ExecutorService) Executors.class
+                        .getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                        .invoke(null, factory);
+
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("Could not create virtual threads!", e);
+            }
+        }
+
+        return Executors.newFixedThreadPool(platformPoolSize, createThreadFactory());
+    }
+
+    /**
+     * The virtual thread scheduler is configured through system properties
+     * that the JDK reads once, when the first virtual thread is started.
+     */
+    private void applyVirtualSchedulerProperties() {
+
+        if (OF_VIRTUAL == null) {
+            throw new UnsupportedOperationException("Virtual threads need Java 21 or later!");
+        }
+
+        if (virtualParallelism > 0) {
+            System.setProperty(PARALLELISM_PROPERTY, Integer.toString(virtualParallelism));
+        }
+
+        if (virtualMaxPoolSize > 0) {
+            System.setProperty(MAX_POOL_SIZE_PROPERTY, Integer.toString(virtualMaxPoolSize));
+        }
+    }
+
+    private static Method findMethod(String className, String name, Class<?>... parameterTypes) {
+
+        try {
+            return Class.forName(className).getMethod(name, parameterTypes);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+
+    // -------------------------------------------------------------------------
+    //
+    // Scheduler Setting Getter & Setter Methods
+    //
+    // -------------------------------------------------------------------------
+
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public SchedulerConfig setMode(Mode mode) {
+        this.mode = mode;
+        return this;
+    }
+
+    public int getPlatformPoolSize() {
+        return platformPoolSize;
+    }
+
+    /**
+     * Set the number of threads in the pool used in {@link Mode#PLATFORM} mode.
+     *
+     * @param platformPoolSize  the number of threads
+     * @return                  this configuration
+     */
+    public SchedulerConfig setPlatformPoolSize(int platformPoolSize) {
+
+        if (platformPoolSize < 1) {
+            throw new IllegalArgumentException("The pool needs at least 1 thread!");
+        }
+
+        this.platformPoolSize = platformPoolSize;
+        return this;
+    }
+
+    public int getVirtualParallelism() {
+        return virtualParallelism;
+    }
+
+    /**
+     * Set the number of carrier threads that run virtual threads, which is the
+     * number of processors by default. This only has an effect if it is set
+     * before the first virtual thread in the program is started.
+     *
+     * @param virtualParallelism    the number of carrier threads, or 0 for the
+     *                              JDK's default
+     * @return                      this configuration
+     */
+    public SchedulerConfig setVirtualParallelism(int virtualParallelism) {
+        this.virtualParallelism = Math.max(virtualParallelism, 0);
+        return this;
+    }
+
+    public int getVirtualMaxPoolSize() {
+        return virtualMaxPoolSize;
+    }
+
+    /**
+     * Set the largest number of carrier threads, which can grow past the
+     * parallelism while virtual threads are pinned. This only has an effect
+     * if it is set before the first virtual thread in the program is started.
+     *
+     * @param virtualMaxPoolSize    the largest number of carrier threads, or 0
+     *                              for the JDK's default
+     * @return                      this configuration
+     */
+    public SchedulerConfig setVirtualMaxPoolSize(int virtualMaxPoolSize) {
+        this.virtualMaxPoolSize = Math.max(virtualMaxPoolSize, 0);
+        return this;
+    }
+
+    public String getThreadNamePrefix() {
+        return threadNamePrefix;
+    }
+
+    public SchedulerConfig setThreadNamePrefix(String threadNamePrefix) {
+        this.threadNamePrefix = threadNamePrefix;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return "SchedulerConfig{" +
+                "mode=" + mode +
+                ", platformPoolSize=" + platformPoolSize +
+                ", virtualParallelism=" + virtualParallelism +
+                ", virtualMaxPoolSize=" + virtualMaxPoolSize +
+                ", threadNamePrefix='" + threadNamePrefix + '\'' +
+                '}';
+    }
+}
@@ -1,5 +1,6 @@
 package com.matmorcat;
 
+import java.util.Arrays;
 
 /**
  * This is an object class that defines the structure of a TCP segment and
@@ -8,6 +9,10 @@ package com.matmorcat;
  * by the Network Layer to assemble the datagram, but is included in the
  * Transport Layer in order to calculate the checksum.
  *
+ * The header and payload are stored in a single byte array in the order they
+ * appear on the wire. Each field is decoded from its offset when requested,
+ * and the string getters are adapters that render the field in binary.
+ *
  * The program is based on the internet standard proposed in RFC 793 - "Transmission Control Protocol"
  * The document can be viewed here for reference: https://tools.ietf.org/html/rfc793
  * 
@@ -16,7 +21,23 @@ package com.matmorcat;
 public final class Segment {
     
     // The length of the pseudo-header in bits is always 96 for TCP
-    private static final int PSEUDO_HEADER_LENGTH_IN_BIT = 96;
+    private static final int PSEUDO_HEADER_LENGTH_IN_BIT = PseudoHeader.LENGTH_IN_BIT;
+
+    // The length of the header fields that are always present (5 * 32 bit words)
+    private static final int FIXED_HEADER_LENGTH_IN_BIT = 160;
+
+    // Bit offsets of the fixed header fields within the segment
+    private static final int SOURCE_PORT_OFFSET = 0;
+    private static final int DEST_PORT_OFFSET = 16;
+    private static final int SEQUENCE_OFFSET = 32;
+    private static final int ACK_OFFSET = 64;
+    private static final int HEADER_LENGTH_OFFSET = 96;
+    private static final int RESERVED_OFFSET = 100;
+    private static final int FLAGS_OFFSET = 106;
+    private static final int WINDOW_OFFSET = 112;
+    private static final int CHECKSUM_OFFSET = 128;
+    private static final int URGENT_POINTER_OFFSET = 144;
+    private static final int OPTIONS_OFFSET = FIXED_HEADER_LENGTH_IN_BIT;
 
     // Enumerations for flags to make code more easily readable
     private static final int URG_FLAG_INDEX = 0;
@@ -26,14 +47,42 @@ public final class Segment {
     private static final int SYN_FLAG_INDEX = 4;
     private static final int FIN_FLAG_INDEX = 5;
 
-    // State enumerations for readability
-    private static final char STATE_FALSE = '0';
-    private static final char STATE_TRUE = '1';
-    
+    // Bit masks of the flags within the flags field (URG is the highest bit)
+    public static final byte URG_FLAG = 1 << (5 - URG_FLAG_INDEX);
+    public static final byte ACK_FLAG = 1 << (5 - ACK_FLAG_INDEX);
+    public static final byte PSH_FLAG = 1 << (5 - PSH_FLAG_INDEX);
+    public static final byte RST_FLAG = 1 << (5 - RST_FLAG_INDEX);
+    public static final byte SYN_FLAG = 1 << (5 - SYN_FLAG_INDEX);
+    public static final byte FIN_FLAG = 1 << (5 - FIN_FLAG_INDEX);
+
     private PseudoHeader pseudoHeader;
-    
-    private String sourcePort, destPort, sequence, ack, headerLength, 
-    reserved, flags, window, checksum, urgentPointer, options, payload;
+
+    // The header and payload of the segment in the order they appear on the
+    // wire. Fields are decoded from their offsets when they are requested.
+    private byte[] data;
+
+    // Whether the fields with rules of their own have been checked yet
+    private boolean fieldsChecked;
+
+    // The pool the segment belongs to (if any), and whether it is back in the pool
+    private SegmentPool pool;
+    private boolean released;
+
+    /**
+     * When the fields of a segment are checked for validity as it is parsed.
+     */
+    public enum ParseMode {
+
+        /** Check every field as the segment is created. */
+        STRICT,
+
+        /**
+         * Check only the lengths of the segment as it is created, and check the
+         * other fields the first time the options, payload, urgent pointer or
+         * whole contents of the segment are read.
+         */
+        LAZY
+    }
 
     
     // -------------------------------------------------------------------------
@@ -91,43 +140,242 @@ public final class Segment {
      * more inputs were invalid
      */
     public Segment(String data) throws Exception {
-        String binary = toBinaryIfHex(data);
 
-        // Process and create the pseudo-header with the data given
-        setPseudoHeader(new PseudoHeader(binary.substring(0, PSEUDO_HEADER_LENGTH_IN_BIT)));
-        
-        // Parse individual TCP segment fields with fixed lengths
-        setSourcePortField(     binary.substring(0 + PSEUDO_HEADER_LENGTH_IN_BIT, 16 + PSEUDO_HEADER_LENGTH_IN_BIT));
-        setDestPortField(       binary.substring(16 + PSEUDO_HEADER_LENGTH_IN_BIT, 32 + PSEUDO_HEADER_LENGTH_IN_BIT));
-        setSequenceField(       binary.substring(32 + PSEUDO_HEADER_LENGTH_IN_BIT, 64 + PSEUDO_HEADER_LENGTH_IN_BIT));
-        setAckField(            binary.substring(64 + PSEUDO_HEADER_LENGTH_IN_BIT, 96 + PSEUDO_HEADER_LENGTH_IN_BIT));
-        setHeaderLengthField(   binary.substring(96 + PSEUDO_HEADER_LENGTH_IN_BIT, 100 + PSEUDO_HEADER_LENGTH_IN_BIT));
-        setReservedField(       binary.substring(100 + PSEUDO_HEADER_LENGTH_IN_BIT, 106 + PSEUDO_HEADER_LENGTH_IN_BIT));
-        setFlagsField(          binary.substring(106 + PSEUDO_HEADER_LENGTH_IN_BIT, 112 + PSEUDO_HEADER_LENGTH_IN_BIT));
-        setWindowField(         binary.substring(112 + PSEUDO_HEADER_LENGTH_IN_BIT, 128 + PSEUDO_HEADER_LENGTH_IN_BIT));
-        setChecksumField(       binary.substring(128 + PSEUDO_HEADER_LENGTH_IN_BIT, 144 + PSEUDO_HEADER_LENGTH_IN_BIT));
-        setUrgentPointerField(  binary.substring(144 + PSEUDO_HEADER_LENGTH_IN_BIT, 160 + PSEUDO_HEADER_LENGTH_IN_BIT));
-        
+        this(data, ParseMode.STRICT);
+    }
+
+    /**
+     * Takes in the contents of a segment and assembles an object from the data.
+     * In {@link ParseMode#STRICT} mode this is the same as
+     * {@link #Segment(String)}. In {@link ParseMode#LAZY} mode only the lengths
+     * of the segment are checked up front, and the remaining fields are
+     * checked the first time they are needed.
+     *
+     * @param data          the data that is to be transmitted in the segment
+     * @param mode          when to check the fields of the segment
+     * @throws Exception    the segment could not be created, because one or
+     * more inputs were invalid
+     */
+    public Segment(String data, ParseMode mode) throws Exception {
+
+        ValidationResult result = new ValidationResult();
+
+        if (!parse(data, mode, result)) {
+            throw result.toException();
+        }
+    }
+
+    /**
+     * Creates an empty segment to be filled in by {@link #parse}.
+     */
+    private Segment() {}
+
+    /**
+     * Creates an empty segment that belongs to a pool, to be filled in by
+     * {@link #load}.
+     *
+     * @param pool  the pool the segment is returned to when it is released
+     */
+    Segment(SegmentPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Takes in the contents of a segment and assembles an object from the data,
+     * in the same way as {@link #Segment(String, ParseMode)}, but reports
+     * invalid input through the result instead of throwing an exception.
+     *
+     * @param data      the data that is to be transmitted in the segment
+     * @param mode      when to check the fields of the segment
+     * @param result    where the outcome of the validation is recorded
+     * @return          the segment, or null if the input was invalid
+     */
+    public static Segment tryParse(CharSequence data, ParseMode mode, ValidationResult result) {
+
+        Segment segment = new Segment();
+
+        return segment.parse(data, mode, result) ? segment : null;
+    }
+
+
+    // -------------------------------------------------------------------------
+    //
+    // Segment Validation Methods
+    //
+    // -------------------------------------------------------------------------
+
+
+    /**
+     * Decode the data and fill in this segment from it.
+     *
+     * @param data      the data in binary or hex
+     * @param mode      when to check the fields of the segment
+     * @param result    where the outcome of the validation is recorded
+     * @return          true if the segment is valid
+     */
+    private boolean parse(CharSequence data, ParseMode mode, ValidationResult result) {
+
+        // Classify and decode the data in a single pass
+        InputDecoder decoder = new InputDecoder();
+
+        if (!decoder.decode(data)) {
+            return result.fail(SegmentError.INVALID_CHARACTER, decoder.getErrorOffset());
+        }
+
+        return load(decoder.getData(), 0, decoder.getLengthInBits(), mode, result);
+    }
+
+    /**
+     * Fill in this segment from a pseudo-header + segment in their wire
+     * representation.
+     *
+     * @param bytes         the bytes holding the data
+     * @param offset        the index of the first byte of the pseudo-header
+     * @param lengthInBits  the length of the pseudo-header + segment in bits
+     * @param mode          when to check the fields of the segment
+     * @param result        where the outcome of the validation is recorded
+     * @return              true if the segment is valid
+     */
+    boolean load(byte[] bytes, int offset, int lengthInBits, ParseMode mode,
+                 ValidationResult result) {
+
+        // Check that there is enough data for the pseudo-header and fixed header fields
+        if (lengthInBits < PSEUDO_HEADER_LENGTH_IN_BIT + FIXED_HEADER_LENGTH_IN_BIT) {
+            return result.fail(SegmentError.SEGMENT_TOO_SHORT);
+        }
+
+        // Process the pseudo-header with the data given, reusing it if its flow is known
+        PseudoHeader pseudoHeader = PseudoHeaderCache.getDefault().get(bytes, offset, result);
+
+        if (pseudoHeader == null) {
+            return false;
+        }
+
+        setPseudoHeader(pseudoHeader);
+
+        // Keep the TCP header and payload in their wire representation. A
+        // pooled segment reuses its bytes from the last time it was used.
+        int length = (lengthInBits + 7) / 8 - PSEUDO_HEADER_LENGTH_IN_BIT / 8;
+
+        if (pool == null || data == null || data.length < length) {
+            this.data = new byte[length];
+        }
+
+        System.arraycopy(bytes, offset + PSEUDO_HEADER_LENGTH_IN_BIT / 8, data, 0, length);
+        this.fieldsChecked = false;
+
+        if (mode == ParseMode.STRICT) {
+
+            if (!checkFields(result)) {
+                return false;
+            }
+
+            fieldsChecked = true;
+        }
+
+        return checkLengths(lengthInBits, result);
+    }
+
+    /**
+     * Check the fields of the segment whose values have rules of their own.
+     *
+     * @param result    where the outcome of the validation is recorded
+     * @return          true if the fields are valid
+     */
+    private boolean checkFields(ValidationResult result) {
+
+        // Check that the reserved field is empty
+        if (Bits.read(data, RESERVED_OFFSET, 6) != 0) {
+            return result.fail(SegmentError.RESERVED_NOT_ZERO);
+        }
+
+        // Check that the urgent control flag is set
+        if (!getFlagUrgent()) {
+            return result.fail(SegmentError.URGENT_FLAG_NOT_SET);
+        }
+
+        return result.pass();
+    }
+
+    /**
+     * Check that the lengths given in the pseudo-header and header agree with
+     * each other and with the length of the data.
+     *
+     * @param lengthInBits  the length of the pseudo-header + segment data
+     * @param result        where the outcome of the validation is recorded
+     * @return              true if the lengths agree
+     */
+    private boolean checkLengths(int lengthInBits, ValidationResult result) {
+
         // Check that the length of the data inputted matches the total length field value in bits
-        if (binary.length() != PSEUDO_HEADER_LENGTH_IN_BIT
+        if (lengthInBits != PSEUDO_HEADER_LENGTH_IN_BIT
                 + getPseudoHeader().getSegmentLengthInBits()) {
         
-            throw new Exception("Segment is incomplete or TCP length field in" +
-                    " the pseudo-header data is invalid!");
+            return result.fail(SegmentError.TCP_LENGTH_MISMATCH);
         }
         
         // Check that the length of the header data and/or payload data is of the right length
-        else if (getPayloadLengthInBits() < 8) {
+        else if (getHeaderLengthInBits() < FIXED_HEADER_LENGTH_IN_BIT
+                || getPayloadLengthInBits() < 8) {
         
-            throw new Exception("Segment is incomplete or header length field is invalid!");
+            return result.fail(SegmentError.HEADER_LENGTH_INVALID);
+        }
+
+        return result.pass();
+    }
+
+    /**
+     * Check any fields of a segment created in {@link ParseMode#LAZY} mode that
+     * have not been checked yet. Segments created in
+     * {@link ParseMode#STRICT} mode are always fully checked.
+     *
+     * @param result    where the outcome of the validation is recorded
+     * @return          true if the segment is valid
+     */
+    public boolean validate(ValidationResult result) {
+
+        if (!fieldsChecked) {
+
+            if (!checkFields(result)) {
+                return false;
+            }
+
+            fieldsChecked = true;
+        }
+
+        return result.pass();
+    }
+
+    /**
+     * Check any fields of a segment created in {@link ParseMode#LAZY} mode that
+     * have not been checked yet.
+     *
+     * @throws Exception    if one of the fields is invalid
+     */
+    public void validate() throws Exception {
+
+        ValidationResult result = new ValidationResult();
+
+        if (!validate(result)) {
+            throw result.toException();
+        }
+    }
+
+    /**
+     * Check the remaining fields before a field that depends on them is read.
+     * Getters cannot throw a checked exception, so an invalid field is
+     * reported as an {@link IllegalStateException}.
+     */
+    private void ensureFieldsChecked() {
+
+        if (!fieldsChecked) {
+
+            ValidationResult result = new ValidationResult();
+
+            if (!validate(result)) {
+                throw new IllegalStateException(result.getError().getMessage());
+            }
         }
-        
-        // Process the data and parse individual fields with variable length
-        setOptionsField(binary.substring(160 + PSEUDO_HEADER_LENGTH_IN_BIT, 
-                160 + PSEUDO_HEADER_LENGTH_IN_BIT + getOptionsLengthInBits()));
-        setPayloadField(binary.substring(160 + PSEUDO_HEADER_LENGTH_IN_BIT
-                + getOptionsLengthInBits(), PSEUDO_HEADER_LENGTH_IN_BIT
-                + getTotalLengthInBits()));
     }
 
     
@@ -146,171 +394,229 @@ public final class Segment {
     }
     
     public String getSourcePortField() {
-        return sourcePort;
-    }
-
-    private void setSourcePortField(String sourcePort) throws Exception {
-
-        // Check length of field
-        if (sourcePort.length() != 16) {
-            throw new Exception("Source port field must be 16 bits!");
-        }
-
-        this.sourcePort = sourcePort;
+        return HexCodec.encodeBinary(data, SOURCE_PORT_OFFSET, 16);
     }
 
     public String getDestPortField() {
-        return destPort;
+        return HexCodec.encodeBinary(data, DEST_PORT_OFFSET, 16);
     }
 
-    private void setDestPortField(String destPort) throws Exception {
-
-        // Check length of field
-        if (destPort.length() != 16) {
-            throw new Exception("Destination port field must be 16 bits!");
-        }
+    public String getSequenceField() {
+        return HexCodec.encodeBinary(data, SEQUENCE_OFFSET, 32);
+    }
 
-        this.destPort = destPort;
+    public String getAckField() {
+        return HexCodec.encodeBinary(data, ACK_OFFSET, 32);
     }
 
-    public String getSequenceField() {
-        return sequence;
+    public String getHeaderLengthField() {
+        return HexCodec.encodeBinary(data, HEADER_LENGTH_OFFSET, 4);
     }
 
-    private void setSequenceField(String sequence) throws Exception {
+    public String getReservedField() {
+        ensureFieldsChecked();
+        return HexCodec.encodeBinary(data, RESERVED_OFFSET, 6);
+    }
 
-        // Check length of field
-        if (sequence.length() != 32) {
-            throw new Exception("Sequence number field must be 32 bits!");
-        }
+    public String getFlagsField() {
+        return HexCodec.encodeBinary(data, FLAGS_OFFSET, 6);
+    }
 
-        this.sequence = sequence;
+    public String getWindowField() {
+        return HexCodec.encodeBinary(data, WINDOW_OFFSET, 16);
     }
 
-    public String getAckField() {
-        return ack;
+    public String getChecksumField() {
+        return HexCodec.encodeBinary(data, CHECKSUM_OFFSET, 16);
     }
 
-    private void setAckField(String ack) throws Exception {
+    private void setChecksum(int checksum) {
+        Bits.write(data, CHECKSUM_OFFSET, 16, checksum);
+    }
 
-        // Check length of field
-        if (ack.length() != 32) {
-            throw new Exception("Acknowledgment number field must be 32 bits!");
-        }
+    public String getUrgentPointerField() {
+        ensureFieldsChecked();
+        return HexCodec.encodeBinary(data, URGENT_POINTER_OFFSET, 16);
+    }
 
-        this.ack = ack;
+    public String getOptionsField() {
+        ensureFieldsChecked();
+        return HexCodec.encodeBinary(data, OPTIONS_OFFSET, getOptionsLengthInBits());
     }
 
-    public String getHeaderLengthField() {
-        return headerLength;
+    public String getPayloadField() {
+        ensureFieldsChecked();
+        return HexCodec.encodeBinary(data, getHeaderLengthInBits(), getPayloadLengthInBits());
     }
 
-    private void setHeaderLengthField(String headerLength) throws Exception {
 
-        // Check length of field
-        if (headerLength.length() != 4) {
-            throw new Exception("Header length field must be 4 bits!");
-        }
+    // -------------------------------------------------------------------------
+    //
+    // Primitive Header Field Getter Methods
+    //
+    // -------------------------------------------------------------------------
 
-        this.headerLength = headerLength;
+
+    public int getSourcePort() {
+        return (int) Bits.read(data, SOURCE_PORT_OFFSET, 16);
     }
 
-    public String getReservedField() {
-        return reserved;
+    public int getDestPort() {
+        return (int) Bits.read(data, DEST_PORT_OFFSET, 16);
     }
 
-    private void setReservedField(String reserved) throws Exception {
+    public long getSequenceNumber() {
+        return Bits.read(data, SEQUENCE_OFFSET, 32);
+    }
 
-        // Check length of field
-        if (reserved.length() != 6) {
-            throw new Exception("Reserved field must be 6 bits!");
-        }
+    public long getAckNumber() {
+        return Bits.read(data, ACK_OFFSET, 32);
+    }
 
-        // Check length of field
-        if (reserved.contains("1")) {
-            throw new Exception("TCP header reserved field must be all 0s!");
-        }
+    /**
+     * Get the control flags as a bit mask. Test individual flags against
+     * {@link #URG_FLAG} through {@link #FIN_FLAG}.
+     *
+     * @return  the 6 bits of the flags field
+     */
+    public byte getFlags() {
 
-        this.reserved = reserved;
+        // The flags are the lowest 6 bits of the 14th byte of the header
+        return (byte) (data[FLAGS_OFFSET / 8] & 0x3F);
     }
 
-    public String getFlagsField() {
-        return flags;
+    /**
+     * Check whether all of the given flags are set.
+     *
+     * @param mask  the flags to check, such as {@code SYN_FLAG | ACK_FLAG}
+     * @return      true if every flag in the mask is set
+     */
+    public boolean hasFlags(int mask) {
+        return (getFlags() & mask) == mask;
     }
 
-    private void setFlagsField(String flags) throws Exception {
-
-        // Check length of field
-        if (flags.length() != 6) {
-            throw new Exception("Control flags field must be 6 bits!");
-        }
+    public int getWindowSize() {
+        return (int) Bits.read(data, WINDOW_OFFSET, 16);
+    }
 
-        this.flags = flags;
+    public int getChecksum() {
+        return (int) Bits.read(data, CHECKSUM_OFFSET, 16);
     }
 
-    public String getWindowField() {
-        return window;
+    public int getUrgentPointer() {
+        return (int) Bits.read(data, URGENT_POINTER_OFFSET, 16);
     }
 
-    private void setWindowField(String window) throws Exception {
 
-        // Check length of field
-        if (window.length() != 16) {
-            throw new Exception("Window size field must be 16 bits!");
-        }
+    // -------------------------------------------------------------------------
+    //
+    // Header Field Rewrite Methods
+    //
+    // -------------------------------------------------------------------------
 
-        this.window = window;
-    }
 
-    public String getChecksumField() {
-        return checksum;
+    /**
+     * Rewrite the source port of the segment. The checksum is adjusted for
+     * the change rather than recalculated.
+     *
+     * @param sourcePort    the new source port (16 bits)
+     */
+    public void setSourcePort(int sourcePort) {
+        rewriteField(SOURCE_PORT_OFFSET, 16, sourcePort);
     }
 
-    private void setChecksumField(String checksum) throws Exception {
+    /**
+     * Rewrite the destination port of the segment. The checksum is adjusted
+     * for the change rather than recalculated.
+     *
+     * @param destPort      the new destination port (16 bits)
+     */
+    public void setDestPort(int destPort) {
+        rewriteField(DEST_PORT_OFFSET, 16, destPort);
+    }
 
-        // Check length of field
-        if (checksum.length() != 16) {
-            throw new Exception("Checksum field must be 16 bits!");
-        }
+    /**
+     * Rewrite the sequence number of the segment. The checksum is adjusted
+     * for the change rather than recalculated.
+     *
+     * @param sequence      the new sequence number (32 bits)
+     */
+    public void setSequenceNumber(long sequence) {
+        rewriteField(SEQUENCE_OFFSET, 32, sequence);
+    }
 
-        this.checksum = checksum;
+    /**
+     * Rewrite the acknowledgment number of the segment. The checksum is
+     * adjusted for the change rather than recalculated.
+     *
+     * @param ack           the new acknowledgment number (32 bits)
+     */
+    public void setAcknowledgmentNumber(long ack) {
+        rewriteField(ACK_OFFSET, 32, ack);
     }
 
-    public String getUrgentPointerField() {
-        return urgentPointer;
+    /**
+     * Rewrite the window size of the segment. The checksum is adjusted for
+     * the change rather than recalculated.
+     *
+     * @param window        the new window size (16 bits)
+     */
+    public void setWindowSize(int window) {
+        rewriteField(WINDOW_OFFSET, 16, window);
     }
 
-    private void setUrgentPointerField(String urgentPointer) throws Exception {
+    /**
+     * Rewrite all of the control flags of the segment at once. The checksum is
+     * adjusted for the change rather than recalculated.
+     *
+     * @param flags         the new flags as a bit mask of {@link #URG_FLAG}
+     *                      through {@link #FIN_FLAG}
+     */
+    public void setFlags(int flags) {
+        rewriteField(FLAGS_OFFSET, 6, flags & 0x3F);
+    }
 
-        // Check length of field
-        if (urgentPointer.length() != 16) {
-            throw new Exception("Urgent Pointer field must be 16 bits!");
-        }
+    /**
+     * Rewrite the urgent pointer of the segment. The checksum is adjusted for
+     * the change rather than recalculated.
+     *
+     * @param urgentPointer the new urgent pointer (16 bits)
+     */
+    public void setUrgentPointer(int urgentPointer) {
+        rewriteField(URGENT_POINTER_OFFSET, 16, urgentPointer);
+    }
 
-        // Check that the urgent control flag is set
-        if (!getFlagUrgent()) {
-            throw new Exception("Urgent control flag must be set!");
-        }
+    /**
+     * Change the value of a header field and update the checksum for the
+     * 16-bit words that the field covers (RFC 1624), so that the cost does not
+     * depend on the length of the segment. If the checksum was valid before
+     * the change, it is valid after it.
+     *
+     * @param offset    the offset of the first bit of the field
+     * @param length    the number of bits in the field
+     * @param value     the new value of the field
+     */
+    private void rewriteField(int offset, int length, long value) {
 
-        this.urgentPointer = urgentPointer;
-    }
+        // The 16-bit words of the segment that contain the field
+        int firstWord = offset & ~15;
+        int endWord = (offset + length + 15) & ~15;
 
-    public String getOptionsField() {
-        return options;
-    }
+        int checksum = (int) Bits.read(data, CHECKSUM_OFFSET, 16);
 
-    private void setOptionsField(String options) {
+        // Take the old words out of the sum
+        for (int i = firstWord; i < endWord; i += 16) {
+            checksum = Checksum.update(checksum, (int) Bits.read(data, i, 16), 0);
+        }
 
-        // Make sure the options is padded up to 32-bit length
-        this.options = padRightToLength(options, 32);
-    }
+        Bits.write(data, offset, length, value);
 
-    public String getPayloadField() {
-        return payload;
-    }
+        // Put the new words into the sum
+        for (int i = firstWord; i < endWord; i += 16) {
+            checksum = Checksum.update(checksum, 0, (int) Bits.read(data, i, 16));
+        }
 
-    private void setPayloadField(String payload) {
-        this.payload = payload;
+        setChecksum(checksum);
     }
 
 
@@ -327,17 +633,17 @@ public final class Segment {
      * @return  the state of the flag
      */
     public boolean getFlagUrgent() {
-        return getFlagsField().charAt(URG_FLAG_INDEX) == STATE_TRUE;
+        return getFlagAtPosition(URG_FLAG_INDEX);
     }
 
     /**
-     * A method to set the state of this flag.
+     * A method to set the state of this flag. The checksum is adjusted for
+     * the change rather than recalculated.
      *
-     * @param newState      the state to set it to
-     * @throws Exception    if there was an error changing the flag
+     * @param newState  the state to set it to
      */
-    private void setFlagUrgent(boolean newState) throws Exception {
-        setFlagAtPosition(URG_FLAG_INDEX, newState);
+    public void setFlagUrgent(boolean newState) {
+        setFlag(URG_FLAG, newState);
     }
 
     /**
@@ -346,17 +652,17 @@ public final class Segment {
      * @return  the state of the flag
      */
     public boolean getFlagAcknowledgment() {
-        return getFlagsField().charAt(ACK_FLAG_INDEX) == STATE_TRUE;
+        return getFlagAtPosition(ACK_FLAG_INDEX);
     }
 
     /**
-     * A method to set the state of this flag.
+     * A method to set the state of this flag. The checksum is adjusted for
+     * the change rather than recalculated.
      *
-     * @param newState      the state to set it to
-     * @throws Exception    if there was an error changing the flag
+     * @param newState  the state to set it to
      */
-    private void setFlagAcknowledgment(boolean newState) throws Exception {
-        setFlagAtPosition(ACK_FLAG_INDEX, newState);
+    public void setFlagAcknowledgment(boolean newState) {
+        setFlag(ACK_FLAG, newState);
     }
 
     /**
@@ -365,17 +671,17 @@ public final class Segment {
      * @return  the state of the flag
      */
     public boolean getFlagPush() {
-        return getFlagsField().charAt(PSH_FLAG_INDEX) == STATE_TRUE;
+        return getFlagAtPosition(PSH_FLAG_INDEX);
     }
 
     /**
-     * A method to set the state of this flag.
+     * A method to set the state of this flag. The checksum is adjusted for
+     * the change rather than recalculated.
      *
-     * @param newState      the state to set it to
-     * @throws Exception    if there was an error changing the flag
+     * @param newState  the state to set it to
      */
-    private void setFlagPush(boolean newState) throws Exception {
-        setFlagAtPosition(PSH_FLAG_INDEX, newState);
+    public void setFlagPush(boolean newState) {
+        setFlag(PSH_FLAG, newState);
     }
 
     /**
@@ -384,17 +690,17 @@ public final class Segment {
      * @return  the state of the flag
      */
     public boolean getFlagReset() {
-        return getFlagsField().charAt(RST_FLAG_INDEX) == STATE_TRUE;
+        return getFlagAtPosition(RST_FLAG_INDEX);
     }
 
     /**
-     * A method to set the state of this flag.
+     * A method to set the state of this flag. The checksum is adjusted for
+     * the change rather than recalculated.
      *
-     * @param newState      the state to set it to
-     * @throws Exception    if there was an error changing the flag
+     * @param newState  the state to set it to
      */
-    private void setFlagReset(boolean newState) throws Exception {
-        setFlagAtPosition(RST_FLAG_INDEX, newState);
+    public void setFlagReset(boolean newState) {
+        setFlag(RST_FLAG, newState);
     }
 
     /**
@@ -403,17 +709,17 @@ public final class Segment {
      * @return  the state of the flag
      */
     public boolean getFlagSynchonize() {
-        return getFlagsField().charAt(SYN_FLAG_INDEX) == STATE_TRUE;
+        return getFlagAtPosition(SYN_FLAG_INDEX);
     }
 
     /**
-     * A method to set the state of this flag.
+     * A method to set the state of this flag. The checksum is adjusted for
+     * the change rather than recalculated.
      *
-     * @param newState      the state to set it to
-     * @throws Exception    if there was an error changing the flag
+     * @param newState  the state to set it to
      */
-    private void setFlagSynchonize(boolean newState) throws Exception {
-        setFlagAtPosition(SYN_FLAG_INDEX, newState);
+    public void setFlagSynchonize(boolean newState) {
+        setFlag(SYN_FLAG, newState);
     }
 
     /**
@@ -422,22 +728,33 @@ public final class Segment {
      * @return  the state of the flag
      */
     public boolean getFlagFinal() {
-        return getFlagsField().charAt(FIN_FLAG_INDEX) == STATE_TRUE;
+        return getFlagAtPosition(FIN_FLAG_INDEX);
+    }
+
+    /**
+     * A method to set the state of this flag. The checksum is adjusted for
+     * the change rather than recalculated.
+     *
+     * @param newState  the state to set it to
+     */
+    public void setFlagFinal(boolean newState) {
+        setFlag(FIN_FLAG, newState);
     }
 
     /**
-     * A method to set the state of this flag.
+     * Set a flag to a new state, leaving the other flags as they are.
      *
-     * @param newState      the state to set it to
-     * @throws Exception    if there was an error changing the flag
+     * @param mask      the bit mask of the flag, {@link #URG_FLAG} through
+     *                  {@link #FIN_FLAG}
+     * @param newState  the state (true or false) to set the flag to
      */
-    private void setFlagFinal(boolean newState) throws Exception {
-        setFlagAtPosition(FIN_FLAG_INDEX, newState);
+    private void setFlag(int mask, boolean newState) {
+        setFlags(newState ? getFlags() | mask : getFlags() & ~mask);
     }
 
     /**
      * This method takes in the index of a flag in relation to the flags
-     * field and changes it to a new state. See the indexes below for reference:
+     * field and gets its state. See the indexes below for reference:
      *
      *  URG:  Urgent Pointer field significant  = 0
      *  ACK:  Acknowledgment field significant  = 1
@@ -448,29 +765,11 @@ public final class Segment {
      *
      *  (Flag source: https://tools.ietf.org/html/rfc793#page-16)
      *
-     * @param index         the index of the flag to set
-     * @param newState      the state (true or false) to set the flag to
-     * @throws Exception    if an error is encountered setting the flags
+     * @param index the index of the flag to get
+     * @return      the state of the flag
      */
-    private void setFlagAtPosition(int index, boolean newState) throws Exception {
-
-        // Check to make sure that the index is within bounds of the flag field
-        if (index < 0 || index >= 6) {
-            throw new Exception("The index of the flag specified was not valid!");
-        }
-
-        // Modify the flags field
-        StringBuilder sb = new StringBuilder(getFlagsField());
-
-        // Set the flag to the corresponding state value
-        if (newState) {
-            sb.setCharAt(index, STATE_TRUE);
-        } else {
-            sb.setCharAt(index, STATE_FALSE);
-        }
-
-        // Apply changes to the flags
-        setFlagsField(sb.toString());
+    private boolean getFlagAtPosition(int index) {
+        return (getFlags() & (1 << (5 - index))) != 0;
     }
 
     /**
@@ -487,46 +786,36 @@ public final class Segment {
     }
     
     
+    /**
+     * Calculate the checksum of the pseudo-header + header + payload in bits.
+     * The checksum field is included as it currently stands, so this yields
+     * 16 bits of 0s for a segment with a valid checksum.
+     *
+     * @return  the one's complement of the one's complement sum in bits
+     */
     public String calculateChecksum() {
-    
-        // Perform the checksum on the pseudo-header + header + payload
-        String data = getPseudoHeader().bits() + bits();
-        
-        long sumDecimal = 0;
-        
-        // Loop through ever 16 bits of the data
-        for (int i = 0; i < data.length() / 16; i++) {
-            
-            // Sum all 16 bits of the data
-            sumDecimal += binaryToDecimal(data.substring(i * 16, (i + 1) * 16));
-        }
-        
-        // Wrap the sum if it is too long (65,535 in decimal = 16 bits of 1s in binary)
-        while (sumDecimal > 65535) {
-            
-            // Wrap the sum
-            sumDecimal -= 65535;
-            sumDecimal++;
-        }
-        
-        // Find the one's complement of the wrapped sum
-        String complementBin = padRightToLength(decimalToBinary(~sumDecimal), 16);
-        
-        // One's complement is done on the sumDecimal in long number format,
-        // so the binary number needed is preceded by many 1s. Take only the
-        // last 16.
-        complementBin = complementBin.substring(complementBin.length() - 16);
-        
-        
-        // Return the one's complement in bits
-        return complementBin;
+        return HexCodec.encodeBinary(calculateChecksumValue(), 16);
+    }
+
+    /**
+     * Calculate the checksum of the pseudo-header + header + payload directly
+     * on their bytes. See {@link Checksum} for the details of the sum.
+     *
+     * @return  the one's complement of the one's complement sum
+     */
+    private int calculateChecksumValue() {
+
+        long sum = getPseudoHeader().getPartialChecksum();
+        sum = Checksum.sum(data, 0, (getTotalLengthInBits() + 7) / 8, sum);
+
+        return Checksum.complement(sum);
     }
 
     
     public void generateNewChecksum() throws Exception {
         
-        setChecksumField("0000000000000000");
-        setChecksumField(calculateChecksum());
+        setChecksum(0);
+        setChecksum(calculateChecksumValue());
     }
     
     /**
@@ -539,9 +828,87 @@ public final class Segment {
      */
     public boolean segmentHasValidChecksum() {
     
-        return calculateChecksum().equals("0000000000000000");
+        return calculateChecksumValue() == 0;
     }
     
+    // -------------------------------------------------------------------------
+    //
+    // Segment Pooling Methods
+    //
+    // -------------------------------------------------------------------------
+
+
+    /**
+     * Check whether the segment was acquired from a {@link SegmentPool}.
+     *
+     * @return  true if the segment belongs to a pool
+     */
+    public boolean isPooled() {
+        return pool != null;
+    }
+
+    /**
+     * Return the segment to the pool it was acquired from, after which it must
+     * no longer be used. Segments that do not belong to a pool are left as
+     * they are.
+     *
+     * @throws IllegalStateException    if the segment was already released
+     */
+    public void release() {
+
+        if (pool != null) {
+            pool.release(this);
+        }
+    }
+
+    SegmentPool getPool() {
+        return pool;
+    }
+
+    boolean isReleased() {
+        return released;
+    }
+
+    void setReleased(boolean released) {
+        this.released = released;
+    }
+
+    /**
+     * Fill in this segment with the contents of another. The pseudo-header
+     * cannot change, so it is shared rather than copied.
+     *
+     * @param source    the segment to copy
+     */
+    void copyFrom(Segment source) {
+
+        int length = (source.getTotalLengthInBits() + 7) / 8;
+
+        if (pool == null || data == null || data.length < length) {
+            this.data = new byte[length];
+        }
+
+        System.arraycopy(source.data, 0, data, 0, length);
+        this.pseudoHeader = source.pseudoHeader;
+        this.fieldsChecked = source.fieldsChecked;
+    }
+
+    /**
+     * Overwrite the contents of a released segment so that any use of it
+     * after its release fails or gives obviously wrong values.
+     *
+     * @param value the byte to fill the segment with
+     */
+    void poison(byte value) {
+
+        if (data != null) {
+            Arrays.fill(data, value);
+        }
+
+        pseudoHeader = null;
+        fieldsChecked = false;
+    }
+
+
     // -------------------------------------------------------------------------
     //
     // Segment Statistics Calculation Methods
@@ -557,7 +924,7 @@ public final class Segment {
      * @return  the number of bits that contain the header
      */
     public int getHeaderLengthInBits() {
-        return binaryToDecimal(getHeaderLengthField()) * 32;
+        return (int) Bits.read(data, HEADER_LENGTH_OFFSET, 4) * 32;
     }
 
     /**
@@ -568,7 +935,7 @@ public final class Segment {
      * @return  the number of bits that contain the options
      */
     public final int getOptionsLengthInBits() {
-        return getHeaderLengthInBits() - 160;
+        return getHeaderLengthInBits() - FIXED_HEADER_LENGTH_IN_BIT;
     }
 
     /**
@@ -604,7 +971,8 @@ public final class Segment {
      * @return  a continuous string of bits
      */
     public String bits() {
-        return getHeaderField() + getPayloadField();
+        ensureFieldsChecked();
+        return HexCodec.encodeBinary(data, 0, getTotalLengthInBits());
     }
 
     /**
@@ -612,9 +980,31 @@ public final class Segment {
      * @return  a continuous string of hex characters
      */
     public String hex() {
+
+        ensureFieldsChecked();
+
+        // Encode straight from the bytes when the bits fill whole hex digits
+        if (getTotalLengthInBits() % 4 == 0) {
+            return HexCodec.encodeHex(data, getTotalLengthInBits() / 4);
+        }
+
         return binaryToHex(bits());
     }
 
+    /**
+     * The header and payload in their wire representation, shared rather than
+     * copied, so that a large payload can be read in bulk. The payload starts
+     * {@link #getHeaderLengthInBits()} bits into the array.
+     *
+     * @return  the bytes of the segment, which must not be changed
+     */
+    byte[] getData() {
+
+        ensureFieldsChecked();
+
+        return data;
+    }
+
     
     // -------------------------------------------------------------------------
     //
@@ -629,23 +1019,7 @@ public final class Segment {
      * @return      the string of hex numbers
      */
     public static String binaryToHex(String bin) {
-
-        String hex = "";
-
-        // If the binary number is too short, pad it with zeros to the left to proper length
-        bin = padLeftToLength(bin, 4);
-
-        // Loop through every 4 bits and turn them into a hex character
-        for (int i = 0; i < bin.length() / 4; i++) {
-
-            hex += Long.toHexString(Long.parseLong(bin.substring(i * 4, (i + 1) * 4), 2));
-        }
-
-        // Convert characters to uppercase for neatness on output
-        hex = hex.toUpperCase();
-
-        return hex;
-
+        return HexCodec.binaryToHex(bin);
     }
 
     /**
@@ -654,24 +1028,7 @@ public final class Segment {
      * @return      the string of binary numbers
      */
     public static String hexToBinary(String hex) {
-
-        String bin = "";
-
-        // Loop through each hex character and convert it to 4 bits
-        for (int i = 0; i < hex.length(); i++) {
-
-            // Find the bits of the hex value
-            String padBin = "" + Long.toBinaryString(Long.parseLong(hex.substring(i, i + 1), 16));
-            
-            // Pad the binary number to 4 digits
-            padBin = Segment.padLeftToLength(padBin, 4);
-
-            bin += padBin;
-
-
-        }
-
-        return bin;
+        return HexCodec.hexToBinary(hex);
     }
 
 
@@ -716,9 +1073,9 @@ public final class Segment {
     }
     
     /**
-     * Takes in a hexadecimal or binary input and outputs binary. This is used to
-     * avoid multiple pattern matches to check if it is binary. If the input is
-     * binary, the output will not be changed.
+     * Takes in a hexadecimal or binary input and outputs binary. The input is
+     * classified and decoded in a single pass (see {@link InputDecoder}). If the
+     * input is binary, the output will not be changed.
      * 
      * @param data                  the data in binary or hex
      * @return                      the data in binary
@@ -726,21 +1083,22 @@ public final class Segment {
      */
     public static String toBinaryIfHex(String data) throws Exception {
 
-        // Check if the data is in binary form
-        if (data.matches("[01]+")) {
-            
-            return data;
+        InputDecoder decoder = new InputDecoder();
+
+        if (!decoder.decode(data)) {
+
+            ValidationResult result = new ValidationResult();
+            result.fail(SegmentError.INVALID_CHARACTER, decoder.getErrorOffset());
+
+            throw result.toException();
         }
-        
-        // Check if the data is in hexadecimal form
-        else if (data.matches("[0-9a-fA-F]+")) {
-
-            // Convert the hex data to binary
-            return hexToBinary(data);
-        } else {
-            
-            throw new Exception("Could not convert data to binary (must be hex or binary): " + data);
+
+        // Binary data is returned unchanged
+        if (decoder.isBinary()) {
+            return data;
         }
+
+        return HexCodec.encodeBinary(decoder.getData(), 0, decoder.getLengthInBits());
     }
 
     /**
@@ -787,18 +1145,18 @@ public final class Segment {
     public String toString() {
         return "Segment{" +
                 "pseudoHeader=" + pseudoHeader.toString() +
-                ", sourcePort='" + sourcePort + '\'' +
-                ", destPort='" + destPort + '\'' +
-                ", sequence='" + sequence + '\'' +
-                ", ack='" + ack + '\'' +
-                ", headerLength='" + headerLength + '\'' +
-                ", reserved='" + reserved + '\'' +
-                ", flags='" + flags + '\'' +
-                ", window='" + window + '\'' +
-                ", checksum='" + checksum + '\'' +
-                ", urgentPointer='" + urgentPointer + '\'' +
-                ", options='" + options + '\'' +
-                ", payload='" + payload + '\'' +
+                ", sourcePort='" + getSourcePortField() + '\'' +
+                ", destPort='" + getDestPortField() + '\'' +
+                ", sequence='" + getSequenceField() + '\'' +
+                ", ack='" + getAckField() + '\'' +
+                ", headerLength='" + getHeaderLengthField() + '\'' +
+                ", reserved='" + getReservedField() + '\'' +
+                ", flags='" + getFlagsField() + '\'' +
+                ", window='" + getWindowField() + '\'' +
+                ", checksum='" + getChecksumField() + '\'' +
+                ", urgentPointer='" + getUrgentPointerField() + '\'' +
+                ", options='" + getOptionsField() + '\'' +
+                ", payload='" + getPayloadField() + '\'' +
                 '}';
     }
-}
+}
\ No newline at end of file
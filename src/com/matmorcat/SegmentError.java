@@ -0,0 +1,54 @@
+package com.matmorcat;
+
+/**
+ * The reasons a segment can fail validation. Each reason carries the message
+ * used when the failure is reported as an exception and, for failures caused
+ * by a single field, the offset of that field in bits from the start of the
+ * pseudo-header.
+ */
+public enum SegmentError {
+
+    NONE("The segment is valid.", -1),
+
+    INVALID_CHARACTER("Could not convert data to binary (must be hex or binary)!", -1),
+
+    PSEUDO_HEADER_TOO_SHORT("Pseudo-header must be 96 bits!", -1),
+
+    PSEUDO_HEADER_RESERVED_NOT_ZERO("Pseudo-header reserved field must be all 0s!", 64),
+
+    SEGMENT_TOO_SHORT("Segment is too short to contain a pseudo-header and TCP header!", -1),
+
+    RESERVED_NOT_ZERO("TCP header reserved field must be all 0s!", 196),
+
+    URGENT_FLAG_NOT_SET("Urgent control flag must be set!", 202),
+
+    TCP_LENGTH_MISMATCH("Segment is incomplete or TCP length field in the " +
+            "pseudo-header data is invalid!", 80),
+
+    HEADER_LENGTH_INVALID("Segment is incomplete or header length field is invalid!", 192),
+
+    INVALID_CHECKSUM("Received segment does not have a valid checksum. The " +
+            "segment has been corrupted and will be discarded!", 224);
+
+    private final String message;
+    private final int fieldOffsetInBits;
+
+    SegmentError(String message, int fieldOffsetInBits) {
+        this.message = message;
+        this.fieldOffsetInBits = fieldOffsetInBits;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * Get the offset of the field that caused the failure.
+     *
+     * @return  the offset in bits from the start of the pseudo-header, or -1
+     *          if the failure is not caused by a single field
+     */
+    public int getFieldOffsetInBits() {
+        return fieldOffsetInBits;
+    }
+}
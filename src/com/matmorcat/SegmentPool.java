@@ -0,0 +1,277 @@
+package com.matmorcat;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * A pool of segments for pipelines that handle segments at a high rate. A
+ * segment is taken from the pool with one of the {@code acquire} methods and
+ * given back with {@link Segment#release()} once it is no longer needed. A
+ * released segment keeps its bytes, so filling it the next time it is
+ * acquired does not allocate once the pool has warmed up.
+ *
+ * A pooled segment must only be held by one owner at a time. A
+ * {@link TransportLayer} takes ownership of a pooled segment that is set on
+ * it or pushed to it, and releases the segment it held before.
+ *
+ * In debug mode (on by default when the {@code segmentPool.debug} system
+ * property is {@code true}) the pool remembers where each acquired segment
+ * came from so that leaks can be found with {@link #checkForLeaks()}, and
+ * released segments are overwritten so that any later use of them stands out.
+ */
+public final class SegmentPool {
+
+    // The byte written over the contents of a released segment in debug mode
+    static final byte POISON = (byte) 0xDE;
+
+    private final int capacity;
+    private final boolean debug;
+
+    private final ArrayDeque<Segment> free = new ArrayDeque<>();
+
+    // Where each segment that has not been released was acquired (debug mode only)
+    private final Map<Segment, Throwable> outstanding = new IdentityHashMap<>();
+
+    // Used to copy segments out of buffers that have no accessible array
+    private byte[] scratch;
+
+    private long acquireCount;
+    private long releaseCount;
+    private long createCount;
+
+    /**
+     * Creates an empty pool.
+     *
+     * @param capacity  the largest number of released segments to keep
+     * @param debug     whether to track leaks and poison released segments
+     */
+    public SegmentPool(int capacity, boolean debug) {
+
+        if (capacity < 0) {
+            throw new IllegalArgumentException("The capacity cannot be negative!");
+        }
+
+        this.capacity = capacity;
+        this.debug = debug;
+    }
+
+    /**
+     * Creates an empty pool, in debug mode if the {@code segmentPool.debug}
+     * system property is {@code true}.
+     *
+     * @param capacity  the largest number of released segments to keep
+     */
+    public SegmentPool(int capacity) {
+        this(capacity, Boolean.getBoolean("segmentPool.debug"));
+    }
+
+
+    // -------------------------------------------------------------------------
+    //
+    // Segment Acquire & Release Methods
+    //
+    // -------------------------------------------------------------------------
+
+
+    /**
+     * Acquire a segment filled in from a pseudo-header + segment in their wire
+     * representation, checked in the same way as
+     * {@link Segment#tryParse(CharSequence, Segment.ParseMode, ValidationResult)}.
+     *
+     * @param bytes         the bytes holding the data
+     * @param offset        the index of the first byte of the pseudo-header
+     * @param lengthInBits  the length of the pseudo-header + segment in bits
+     * @param mode          when to check the fields of the segment
+     * @param result        where the outcome of the validation is recorded
+     * @return              the segment, or null if the data was invalid
+     */
+    public Segment acquire(byte[] bytes, int offset, int lengthInBits, Segment.ParseMode mode,
+                           ValidationResult result) {
+
+        Segment segment = take();
+
+        if (!segment.load(bytes, offset, lengthInBits, mode, result)) {
+
+            release(segment);
+            return null;
+        }
+
+        return segment;
+    }
+
+    /**
+     * Acquire a segment filled in from a view, such as one passed to a
+     * {@link SegmentSink} by a {@link SegmentReader}.
+     *
+     * @param view      the view of the pseudo-header + segment
+     * @param mode      when to check the fields of the segment
+     * @param result    where the outcome of the validation is recorded
+     * @return          the segment, or null if the data was invalid
+     */
+    public Segment acquire(SegmentView view, Segment.ParseMode mode, ValidationResult result) {
+
+        ByteBuffer buffer = view.getBuffer();
+        int length = (view.getLengthInBits() + 7) / 8;
+
+        if (view.getOffset() + length > buffer.limit()) {
+
+            result.fail(SegmentError.SEGMENT_TOO_SHORT);
+            return null;
+        }
+
+        if (buffer.hasArray()) {
+            return acquire(buffer.array(), buffer.arrayOffset() + view.getOffset(),
+                    view.getLengthInBits(), mode, result);
+        }
+
+        // Copy the segment out of a direct or read-only buffer first
+        synchronized (this) {
+
+            if (scratch == null || scratch.length < length) {
+                scratch = new byte[length];
+            }
+
+            for (int i = 0; i < length; i++) {
+                scratch[i] = buffer.get(view.getOffset() + i);
+            }
+
+            return acquire(scratch, 0, view.getLengthInBits(), mode, result);
+        }
+    }
+
+    /**
+     * Acquire a copy of a segment, such as a second copy of a segment to be
+     * held by another owner. The copy has already been checked if the
+     * original has.
+     *
+     * @param source    the segment to copy
+     * @return          the copy
+     */
+    public Segment acquire(Segment source) {
+
+        Segment segment = take();
+        segment.copyFrom(source);
+
+        return segment;
+    }
+
+    /**
+     * Take a segment from the pool, or create one if the pool is empty.
+     */
+    private synchronized Segment take() {
+
+        Segment segment = free.pollFirst();
+
+        if (segment == null) {
+
+            segment = new Segment(this);
+            createCount++;
+        }
+
+        segment.setReleased(false);
+        acquireCount++;
+
+        if (debug) {
+            outstanding.put(segment, new Throwable("Segment acquired here"));
+        }
+
+        return segment;
+    }
+
+    /**
+     * Give a segment back to the pool. Called by {@link Segment#release()}.
+     *
+     * @param segment   the segment to release
+     * @throws IllegalStateException    if the segment was already released or
+     *                                  belongs to another pool
+     */
+    synchronized void release(Segment segment) {
+
+        if (segment.getPool() != this) {
+            throw new IllegalStateException("The segment does not belong to this pool!");
+        }
+
+        if (segment.isReleased()) {
+            throw new IllegalStateException("The segment was already released!");
+        }
+
+        segment.setReleased(true);
+        releaseCount++;
+
+        if (debug) {
+
+            outstanding.remove(segment);
+            segment.poison(POISON);
+        }
+
+        // Keep the segment for reuse if there is room, otherwise leave it to be collected
+        if (free.size() < capacity) {
+            free.addFirst(segment);
+        }
+    }
+
+
+    // -------------------------------------------------------------------------
+    //
+    // Pool Statistics Methods
+    //
+    // -------------------------------------------------------------------------
+
+
+    /**
+     * Check that every segment acquired from the pool has been released. Only
+     * segments acquired in debug mode are tracked.
+     *
+     * @throws IllegalStateException    if a segment has not been released,
+     *                                  with the place the first such segment
+     *                                  was acquired as its cause
+     */
+    public synchronized void checkForLeaks() {
+
+        if (!outstanding.isEmpty()) {
+
+            throw new IllegalStateException(outstanding.size() + " segment(s) acquired from the pool"
+                    + " were never released!", outstanding.values().iterator().next());
+        }
+    }
+
+    public boolean isDebug() {
+        return debug;
+    }
+
+    /**
+     * Get the number of segments that have been acquired and not released.
+     *
+     * @return  the number of segments in use
+     */
+    public synchronized long getOutstandingCount() {
+        return acquireCount - releaseCount;
+    }
+
+    /**
+     * Get the number of segments the pool has had to create because it was
+     * empty. This stops growing once the pool has warmed up.
+     *
+     * @return  the number of segments created
+     */
+    public synchronized long getCreateCount() {
+        return createCount;
+    }
+
+    public synchronized int getFreeCount() {
+        return free.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "SegmentPool{" +
+                "free=" + free.size() +
+                ", outstanding=" + (acquireCount - releaseCount) +
+                ", acquired=" + acquireCount +
+                ", created=" + createCount +
+                ", debug=" + debug +
+                '}';
+    }
+}
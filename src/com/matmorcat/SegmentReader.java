@@ -0,0 +1,262 @@
+package com.matmorcat;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectableChannel;
+
+/**
+ * Parses a stream of pseudo-header + segment records placed end to end, as
+ * found in a trace file, and passes each one to a {@link SegmentSink}. Each
+ * record is framed by the TCP length field of its pseudo-header, so the
+ * records need no separators.
+ *
+ * Records are read through a fixed-size buffer and handed to the sink as a
+ * {@link SegmentView} over that buffer, so the whole input is never held in
+ * memory and no objects are created per segment. Records that fail
+ * validation are counted and skipped rather than passed to the sink.
+ */
+public final class SegmentReader {
+
+    // The longest possible record (the TCP length field is 16 bits)
+    private static final int MAX_RECORD_LENGTH = PseudoHeader.LENGTH + (0xFFFF + 7) / 8;
+
+    // The size of the buffers used to read the input
+    private static final int READ_BUFFER_LENGTH = 64 * 1024;
+
+    private final SegmentSink sink;
+    private final SegmentView view = new SegmentView();
+
+    // Buffers for binary input, and for text input and the record decoded from it
+    private ByteBuffer input;
+    private char[] text;
+    private ByteBuffer record;
+
+    private long segmentCount;
+    private long rejectedSegmentCount;
+    private SegmentError lastRejection = SegmentError.NONE;
+
+    public SegmentReader(SegmentSink sink) {
+        this.sink = sink;
+    }
+
+
+    // -------------------------------------------------------------------------
+    //
+    // Segment Reading Methods
+    //
+    // -------------------------------------------------------------------------
+
+
+    /**
+     * Read records in their wire representation from a channel until it ends.
+     * The channel must be in blocking mode, since a read returns only once
+     * there is data or the channel has ended.
+     *
+     * @param channel       the channel to read from
+     * @return              the number of valid segments passed to the sink
+     * @throws IllegalArgumentException if the channel is in non-blocking mode
+     * @throws Exception    if the input ends in the middle of a record, or the
+     *                      channel or sink failed
+     */
+    public long read(ReadableByteChannel channel) throws Exception {
+
+        // A non-blocking channel would return no bytes over and over while it
+        // waits for data, and the loop below would spin
+        if (channel instanceof SelectableChannel && !((SelectableChannel) channel).isBlocking()) {
+            throw new IllegalArgumentException("The channel must be in blocking mode!");
+        }
+
+        if (input == null) {
+            input = ByteBuffer.allocate(READ_BUFFER_LENGTH);
+        }
+
+        long countBefore = segmentCount;
+        input.clear();
+
+        while (true) {
+
+            int read = channel.read(input);
+            input.flip();
+
+            // Pass on every complete record in the buffer
+            while (input.remaining() >= PseudoHeader.LENGTH) {
+
+                int offset = input.position();
+                int segmentLengthInBits = (input.get(offset + PseudoHeader.SEGMENT_LENGTH_INDEX) & 0xFF) << 8
+                        | (input.get(offset + PseudoHeader.SEGMENT_LENGTH_INDEX + 1) & 0xFF);
+                int recordLength = PseudoHeader.LENGTH + (segmentLengthInBits + 7) / 8;
+
+                if (input.remaining() < recordLength) {
+                    break;
+                }
+
+                accept(input, offset, PseudoHeader.LENGTH_IN_BIT + segmentLengthInBits);
+                input.position(offset + recordLength);
+            }
+
+            // Keep any partial record for the next read
+            input.compact();
+
+            if (read < 0) {
+
+                if (input.position() > 0) {
+                    throw new Exception("Input ends in the middle of a segment!");
+                }
+
+                return segmentCount - countBefore;
+            }
+        }
+    }
+
+    /**
+     * Read records in their wire representation from a stream until it ends.
+     *
+     * @param in            the stream to read from
+     * @return              the number of valid segments passed to the sink
+     * @throws Exception    if the input ends in the middle of a record, or the
+     *                      stream or sink failed
+     */
+    public long read(InputStream in) throws Exception {
+        return read(Channels.newChannel(in));
+    }
+
+    /**
+     * Read records written in hex from a reader until it ends. Whitespace
+     * between (or within) records is ignored.
+     *
+     * @param in            the reader to read from
+     * @return              the number of valid segments passed to the sink
+     * @throws Exception    if the input has a character that is not hex, ends
+     *                      in the middle of a record, or the reader or sink
+     *                      failed
+     */
+    public long read(Reader in) throws Exception {
+
+        if (text == null) {
+            text = new char[READ_BUFFER_LENGTH];
+            record = ByteBuffer.allocate(MAX_RECORD_LENGTH);
+        }
+
+        byte[] bytes = record.array();
+        long countBefore = segmentCount;
+        long index = 0;
+
+        // The number of hex digits read of the current record, and how many it has
+        int digits = 0;
+        int recordDigits = PseudoHeader.LENGTH * 2;
+        int segmentLengthInBits = 0;
+
+        int read;
+
+        while ((read = in.read(text)) >= 0) {
+
+            for (int i = 0; i < read; i++, index++) {
+
+                char c = text[i];
+
+                if (Character.isWhitespace(c)) {
+                    continue;
+                }
+
+                int value = HexCodec.hexValue(c);
+
+                if (value < 0) {
+
+                    ValidationResult result = new ValidationResult();
+                    result.fail(SegmentError.INVALID_CHARACTER, (int) Math.min(index, Integer.MAX_VALUE));
+
+                    throw result.toException();
+                }
+
+                // Write each digit into its half of the byte
+                if ((digits & 1) == 0) {
+                    bytes[digits >>> 1] = (byte) (value << 4);
+                } else {
+                    bytes[digits >>> 1] |= value;
+                }
+
+                digits++;
+
+                // Once the pseudo-header is complete, the length of the record is known
+                if (digits == PseudoHeader.LENGTH * 2) {
+
+                    segmentLengthInBits = (bytes[PseudoHeader.SEGMENT_LENGTH_INDEX] & 0xFF) << 8
+                            | (bytes[PseudoHeader.SEGMENT_LENGTH_INDEX + 1] & 0xFF);
+                    recordDigits += (segmentLengthInBits + 3) / 4;
+                }
+
+                if (digits == recordDigits) {
+
+                    accept(record, 0, PseudoHeader.LENGTH_IN_BIT + segmentLengthInBits);
+
+                    digits = 0;
+                    recordDigits = PseudoHeader.LENGTH * 2;
+                }
+            }
+        }
+
+        if (digits > 0) {
+            throw new Exception("Input ends in the middle of a segment!");
+        }
+
+        return segmentCount - countBefore;
+    }
+
+    /**
+     * Validate a framed record and pass it to the sink if it is valid.
+     */
+    private void accept(ByteBuffer buffer, int offset, int lengthInBits) throws Exception {
+
+        SegmentError error = view.wrap(buffer, offset, lengthInBits).check();
+
+        if (error != SegmentError.NONE) {
+
+            rejectedSegmentCount++;
+            lastRejection = error;
+
+            return;
+        }
+
+        segmentCount++;
+        sink.accept(view);
+    }
+
+
+    // -------------------------------------------------------------------------
+    //
+    // Reader Statistics Getter Methods
+    //
+    // -------------------------------------------------------------------------
+
+
+    /**
+     * Get the number of valid segments passed to the sink so far.
+     *
+     * @return  the number of segments
+     */
+    public long getSegmentCount() {
+        return segmentCount;
+    }
+
+    /**
+     * Get the number of records skipped so far because they were invalid.
+     *
+     * @return  the number of skipped records
+     */
+    public long getRejectedSegmentCount() {
+        return rejectedSegmentCount;
+    }
+
+    /**
+     * Get the reason the last skipped record was invalid.
+     *
+     * @return  the reason, or {@link SegmentError#NONE} if no record has been
+     *          skipped
+     */
+    public SegmentError getLastRejection() {
+        return lastRejection;
+    }
+}
@@ -0,0 +1,18 @@
+package com.matmorcat;
+
+/**
+ * Receives the segments parsed by a {@link SegmentReader}.
+ */
+public interface SegmentSink {
+
+    /**
+     * Accept the next segment. The view and the buffer behind it are reused
+     * for the following segment, so anything that must be kept has to be
+     * copied out before this method returns.
+     *
+     * @param segment       a view of the pseudo-header + segment
+     * @throws Exception    if the segment could not be handled, which stops
+     *                      the reader
+     */
+    void accept(SegmentView segment) throws Exception;
+}
@@ -0,0 +1,377 @@
+package com.matmorcat;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A read-only view of a pseudo-header + TCP segment stored in a buffer, such as
+ * a capture buffer holding many segments end to end. The view can be pointed
+ * at any offset of a heap or direct {@link ByteBuffer} and decodes each field
+ * straight from the buffer when it is requested, so a single view can be
+ * reused to inspect any number of segments without copying them or creating
+ * a {@link Segment} for each one.
+ *
+ * The buffer is read with absolute indexes in network (big-endian) order
+ * whatever the order of the buffer, and its position and limit are never
+ * changed. A segment whose length is not a whole number of bytes must be
+ * padded with 0s on the right to the next byte.
+ */
+public final class SegmentView {
+
+    // The length of the header fields that are always present in bits
+    private static final int FIXED_HEADER_LENGTH_IN_BIT = 160;
+
+    // Byte offsets of the pseudo-header fields from the start of the view
+    private static final int SOURCE_OFFSET = PseudoHeader.SOURCE_OFFSET / 8;
+    private static final int DEST_OFFSET = PseudoHeader.DEST_OFFSET / 8;
+    private static final int PSEUDO_RESERVED_OFFSET = PseudoHeader.RESERVED_OFFSET / 8;
+    private static final int PROTOCOL_OFFSET = PseudoHeader.PROTOCOL_OFFSET / 8;
+    private static final int SEGMENT_LENGTH_OFFSET = PseudoHeader.SEGMENT_LENGTH_INDEX;
+
+    // Byte offsets of the fixed header fields from the start of the segment
+    private static final int SOURCE_PORT_OFFSET = 0;
+    private static final int DEST_PORT_OFFSET = 2;
+    private static final int SEQUENCE_OFFSET = 4;
+    private static final int ACK_OFFSET = 8;
+    private static final int HEADER_LENGTH_OFFSET = 12;
+    private static final int FLAGS_OFFSET = 13;
+    private static final int WINDOW_OFFSET = 14;
+    private static final int CHECKSUM_OFFSET = 16;
+    private static final int URGENT_POINTER_OFFSET = 18;
+    private static final int OPTIONS_OFFSET = 20;
+
+    private ByteBuffer buffer;
+
+    // The index of the first byte of the pseudo-header within the buffer
+    private int offset;
+
+    // The length of the pseudo-header + segment in bits
+    private int lengthInBits;
+
+
+    // -------------------------------------------------------------------------
+    //
+    // Segment View Positioning Methods
+    //
+    // -------------------------------------------------------------------------
+
+
+    /**
+     * Point the view at a pseudo-header + segment within a buffer. Nothing is
+     * checked until {@link #check()} is called.
+     *
+     * @param buffer        the buffer holding the data
+     * @param offset        the index of the first byte of the pseudo-header
+     * @param lengthInBits  the length of the pseudo-header + segment in bits
+     * @return              this view
+     */
+    public SegmentView wrap(ByteBuffer buffer, int offset, int lengthInBits) {
+
+        this.buffer = buffer;
+        this.offset = offset;
+        this.lengthInBits = lengthInBits;
+
+        return this;
+    }
+
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public int getLengthInBits() {
+        return lengthInBits;
+    }
+
+    /**
+     * Check the segment for validity in the same way as the
+     * {@link Segment#Segment(String)} constructor: the reserved fields must be
+     * empty, the urgent control flag must be set, the TCP length field must
+     * match the length of the data and the header length must leave room for
+     * a payload.
+     *
+     * @return  {@link SegmentError#NONE} if the segment is valid, otherwise the
+     *          reason it is invalid
+     */
+    public SegmentError check() {
+
+        // Check that there is enough data for the pseudo-header and fixed header fields
+        if (lengthInBits < PseudoHeader.LENGTH_IN_BIT + FIXED_HEADER_LENGTH_IN_BIT
+                || offset + (lengthInBits + 7) / 8 > buffer.limit()) {
+            return SegmentError.SEGMENT_TOO_SHORT;
+        }
+
+        // Check that the reserved fields are empty
+        if (getByte(offset + PSEUDO_RESERVED_OFFSET) != 0) {
+            return SegmentError.PSEUDO_HEADER_RESERVED_NOT_ZERO;
+        }
+
+        if (getReserved() != 0) {
+            return SegmentError.RESERVED_NOT_ZERO;
+        }
+
+        // Check that the urgent control flag is set
+        if (!getFlagUrgent()) {
+            return SegmentError.URGENT_FLAG_NOT_SET;
+        }
+
+        // Check that the length of the data matches the total length field value in bits
+        if (lengthInBits != PseudoHeader.LENGTH_IN_BIT + getSegmentLengthInBits()) {
+            return SegmentError.TCP_LENGTH_MISMATCH;
+        }
+
+        // Check that the length of the header data and/or payload data is of the right length
+        if (getHeaderLengthInBits() < FIXED_HEADER_LENGTH_IN_BIT
+                || getPayloadLengthInBits() < 8) {
+            return SegmentError.HEADER_LENGTH_INVALID;
+        }
+
+        return SegmentError.NONE;
+    }
+
+    /**
+     * Check the segment for validity. See {@link #check()} for the rules.
+     *
+     * @return  true if the segment is valid
+     */
+    public boolean validate() {
+        return check() == SegmentError.NONE;
+    }
+
+    /**
+     * Checks if the pseudo-header + segment have been corrupted, in the same way
+     * as {@link Segment#segmentHasValidChecksum()}. A segment whose TCP length
+     * field reaches past the length of the view or the limit of the buffer is
+     * taken as corrupted rather than read beyond its end.
+     *
+     * @return  false if the segment is corrupted
+     */
+    public boolean hasValidChecksum() {
+
+        int available = Math.min((lengthInBits + 7) / 8, buffer.limit() - offset);
+
+        if (available < PseudoHeader.LENGTH) {
+            return false;
+        }
+
+        int length = PseudoHeader.LENGTH + (getSegmentLengthInBits() + 7) / 8;
+
+        if (length > available) {
+            return false;
+        }
+
+        long sum = Checksum.sum(buffer, offset, length, 0);
+
+        return Checksum.complement(sum) == 0;
+    }
+
+
+    // -------------------------------------------------------------------------
+    //
+    // Pseudo-Header Field Getter Methods
+    //
+    // -------------------------------------------------------------------------
+
+
+    public long getSourceAddress() {
+        return getInt(offset + SOURCE_OFFSET);
+    }
+
+    public long getDestAddress() {
+        return getInt(offset + DEST_OFFSET);
+    }
+
+    public int getProtocol() {
+        return getByte(offset + PROTOCOL_OFFSET);
+    }
+
+    /**
+     * Get the length of the segment from the pseudo-header's TCP length field.
+     *
+     * @return  the length of the TCP segment in bits
+     */
+    public int getSegmentLengthInBits() {
+        return getShort(offset + SEGMENT_LENGTH_OFFSET);
+    }
+
+
+    // -------------------------------------------------------------------------
+    //
+    // Segment Field Getter Methods
+    //
+    // -------------------------------------------------------------------------
+
+
+    public int getSourcePort() {
+        return getShort(segmentOffset() + SOURCE_PORT_OFFSET);
+    }
+
+    public int getDestPort() {
+        return getShort(segmentOffset() + DEST_PORT_OFFSET);
+    }
+
+    public long getSequenceNumber() {
+        return getInt(segmentOffset() + SEQUENCE_OFFSET);
+    }
+
+    public long getAckNumber() {
+        return getInt(segmentOffset() + ACK_OFFSET);
+    }
+
+    /**
+     * Get the length of the header from the header length field (32-bit words).
+     *
+     * @return  the number of bits that contain the header
+     */
+    public int getHeaderLengthInBits() {
+        return (getByte(segmentOffset() + HEADER_LENGTH_OFFSET) >>> 4) * 32;
+    }
+
+    /**
+     * Get the reserved field, which sits across the byte of the header length
+     * and the byte of the control flags.
+     *
+     * @return  the 6 bits of the reserved field
+     */
+    public int getReserved() {
+        return (getByte(segmentOffset() + HEADER_LENGTH_OFFSET) & 0x0F) << 2
+                | getByte(segmentOffset() + FLAGS_OFFSET) >>> 6;
+    }
+
+    /**
+     * Get the control flags as a bit mask. Test individual flags against
+     * {@link Segment#URG_FLAG} through {@link Segment#FIN_FLAG}.
+     *
+     * @return  the 6 bits of the flags field
+     */
+    public byte getFlags() {
+        return (byte) (getByte(segmentOffset() + FLAGS_OFFSET) & 0x3F);
+    }
+
+    /**
+     * Check whether all of the given flags are set.
+     *
+     * @param mask  the flags to check, such as {@code SYN_FLAG | ACK_FLAG}
+     * @return      true if every flag in the mask is set
+     */
+    public boolean hasFlags(int mask) {
+        return (getFlags() & mask) == mask;
+    }
+
+    public boolean getFlagUrgent() {
+        return (getFlags() & Segment.URG_FLAG) != 0;
+    }
+
+    public boolean getFlagAcknowledgment() {
+        return (getFlags() & Segment.ACK_FLAG) != 0;
+    }
+
+    public boolean getFlagPush() {
+        return (getFlags() & Segment.PSH_FLAG) != 0;
+    }
+
+    public boolean getFlagReset() {
+        return (getFlags() & Segment.RST_FLAG) != 0;
+    }
+
+    public boolean getFlagSynchonize() {
+        return (getFlags() & Segment.SYN_FLAG) != 0;
+    }
+
+    public boolean getFlagFinal() {
+        return (getFlags() & Segment.FIN_FLAG) != 0;
+    }
+
+    public int getWindowSize() {
+        return getShort(segmentOffset() + WINDOW_OFFSET);
+    }
+
+    public int getChecksum() {
+        return getShort(segmentOffset() + CHECKSUM_OFFSET);
+    }
+
+    public int getUrgentPointer() {
+        return getShort(segmentOffset() + URGENT_POINTER_OFFSET);
+    }
+
+    /**
+     * Get the index within the buffer of the first byte of the options.
+     *
+     * @return  the index of the options
+     */
+    public int getOptionsOffset() {
+        return segmentOffset() + OPTIONS_OFFSET;
+    }
+
+    public int getOptionsLengthInBits() {
+        return getHeaderLengthInBits() - FIXED_HEADER_LENGTH_IN_BIT;
+    }
+
+    /**
+     * Get the index within the buffer of the first byte of the payload.
+     *
+     * @return  the index of the payload
+     */
+    public int getPayloadOffset() {
+        return segmentOffset() + getHeaderLengthInBits() / 8;
+    }
+
+    public int getPayloadLengthInBits() {
+        return getSegmentLengthInBits() - getHeaderLengthInBits();
+    }
+
+    /**
+     * Create a buffer that shares the payload bytes of this segment. Unlike
+     * the other methods of the view, this creates a new (small) object.
+     *
+     * @return  a buffer whose position is 0 and limit is the payload length
+     */
+    public ByteBuffer slicePayload() {
+
+        ByteBuffer payload = buffer.duplicate();
+        payload.limit(getPayloadOffset() + (getPayloadLengthInBits() + 7) / 8);
+        payload.position(getPayloadOffset());
+
+        return payload.slice();
+    }
+
+
+    // -------------------------------------------------------------------------
+    //
+    // Helper Buffer Reader Methods
+    //
+    // -------------------------------------------------------------------------
+
+
+    private int segmentOffset() {
+        return offset + PseudoHeader.LENGTH;
+    }
+
+    private int getByte(int index) {
+        return buffer.get(index) & 0xFF;
+    }
+
+    private int getShort(int index) {
+        return getByte(index) << 8 | getByte(index + 1);
+    }
+
+    private long getInt(int index) {
+        return (long) getShort(index) << 16 | getShort(index + 2);
+    }
+
+    @Override
+    public String toString() {
+        return "SegmentView{" +
+                "offset=" + offset +
+                ", lengthInBits=" + lengthInBits +
+                ", sourcePort=" + getSourcePort() +
+                ", destPort=" + getDestPort() +
+                ", sequence=" + getSequenceNumber() +
+                ", ack=" + getAckNumber() +
+                ", flags=" + getFlags() +
+                ", window=" + getWindowSize() +
+                '}';
+    }
+}
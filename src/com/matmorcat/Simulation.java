@@ -0,0 +1,378 @@
+package com.matmorcat;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A discrete-event simulation. Events are scheduled at times of a
+ * {@link VirtualClock}, and running the simulation moves the clock straight
+ * from one event to the next and fires it, so simulated time passes as fast
+ * as the events can be handled rather than in real time. Events at the same
+ * time fire in the order they were scheduled, so a run always repeats
+ * exactly.
+ *
+ * Pending events are kept in a 4-ary min-heap over parallel arrays of
+ * primitive timestamps, which is shallower than a binary heap and keeps the
+ * children of a node next to each other in memory. An event is a shared
+ * handler plus an argument, such as a {@link Link} and the segment it is
+ * delivering, so scheduling an event creates no objects.
+ *
+ * The simulation also owns a {@link TimingWheel} on its clock, and the
+ * clock stops at each time the wheel may expire a timer, so connection
+ * timers fire at the right simulated time between events.
+ *
+ * A simulation runs on one thread, and events may schedule further events.
+ */
+public class Simulation {
+
+    /**
+     * Something that happens at a point in simulated time.
+     */
+    public interface Event {
+
+        /**
+         * Handle the event at its time, which is the current time of the
+         * simulation's clock.
+         *
+         * @param argument      the argument the event was scheduled with
+         * @throws Exception    if the event could not be handled
+         */
+        void fire(Object argument) throws Exception;
+    }
+
+    // The default duration of a tick of the timing wheel
+    private static final long DEFAULT_TICK_NANOS = TimeUnit.MICROSECONDS.toNanos(1);
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final VirtualClock clock;
+    private final TimingWheel timingWheel;
+
+    // The heap of pending events: the time of each event, the order it was
+    // scheduled in to break ties, and its handler and argument
+    private long[] times = new long[INITIAL_CAPACITY];
+    private long[] orders = new long[INITIAL_CAPACITY];
+    private Event[] events = new Event[INITIAL_CAPACITY];
+    private Object[] arguments = new Object[INITIAL_CAPACITY];
+    private int size;
+
+    private long scheduledCount;
+    private long firedCount;
+
+    private boolean stopped;
+
+    /**
+     * Creates a simulation at time 0 whose timers have a resolution of 1
+     * microsecond.
+     */
+    public Simulation() {
+        this(DEFAULT_TICK_NANOS, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Creates a simulation at time 0.
+     *
+     * @param tickDuration  the resolution of timers armed in the timing wheel
+     * @param unit          the unit of the tick duration
+     */
+    public Simulation(long tickDuration, TimeUnit unit) {
+
+        this.clock = new VirtualClock();
+        this.timingWheel = new TimingWheel(clock, tickDuration, unit);
+    }
+
+
+    // -------------------------------------------------------------------------
+    //
+    // Event Scheduling Methods
+    //
+    // -------------------------------------------------------------------------
+
+
+    /**
+     * Schedule an event after a delay from the current time.
+     *
+     * @param delay     the time until the event
+     * @param unit      the unit of the delay
+     * @param event     the handler of the event
+     * @param argument  the argument to pass to the handler
+     */
+    public void schedule(long delay, TimeUnit unit, Event event, Object argument) {
+        scheduleAt(clock.nanoTime() + unit.toNanos(delay), event, argument);
+    }
+
+    /**
+     * Schedule an event with no argument after a delay from the current time.
+     *
+     * @param delay the time until the event
+     * @param unit  the unit of the delay
+     * @param event the handler of the event
+     */
+    public void schedule(long delay, TimeUnit unit, Event event) {
+        schedule(delay, unit, event, null);
+    }
+
+    /**
+     * Schedule an event at a time. A time that has already passed is taken
+     * as the current time.
+     *
+     * @param time      the time of the event in nanoseconds
+     * @param event     the handler of the event
+     * @param argument  the argument to pass to the handler
+     */
+    public void scheduleAt(long time, Event event, Object argument) {
+
+        if (size == times.length) {
+            grow();
+        }
+
+        // Sift the new event up from the bottom of the heap
+        long order = scheduledCount++;
+        int index = size++;
+
+        time = Math.max(time, clock.nanoTime());
+
+        while (index > 0) {
+
+            int parent = (index - 1) >>> 2;
+
+            if (!before(time, order, parent)) {
+                break;
+            }
+
+            move(parent, index);
+            index = parent;
+        }
+
+        set(index, time, order, event, argument);
+    }
+
+
+    // -------------------------------------------------------------------------
+    //
+    // Simulation Running Methods
+    //
+    // -------------------------------------------------------------------------
+
+
+    /**
+     * Run until no events or timers are left, or {@link #stop()} is called.
+     *
+     * @return              the number of events fired
+     * @throws Exception    if an event or timer failed
+     */
+    public long run() throws Exception {
+        return runUntil(Long.MAX_VALUE);
+    }
+
+    /**
+     * Run for a duration of simulated time from the current time.
+     *
+     * @param duration      the time to run for
+     * @param unit          the unit of the duration
+     * @return              the number of events fired
+     * @throws Exception    if an event or timer failed
+     */
+    public long runFor(long duration, TimeUnit unit) throws Exception {
+        return runUntil(clock.nanoTime() + unit.toNanos(duration));
+    }
+
+    /**
+     * Fire the events and timers up to and including a time, then move the
+     * clock to that time, unless {@link #stop()} is called first.
+     *
+     * @param endTime       the time in nanoseconds to run until
+     * @return              the number of events fired
+     * @throws Exception    if an event or timer failed
+     */
+    public long runUntil(long endTime) throws Exception {
+
+        stopped = false;
+        long fired = 0;
+
+        while (!stopped) {
+
+            long eventTime = size > 0 ? times[0] : Long.MAX_VALUE;
+            long timerTime = timingWheel.getNextCheckTime();
+            long next = Math.min(eventTime, timerTime);
+
+            if (next > endTime || next == Long.MAX_VALUE) {
+
+                if (endTime != Long.MAX_VALUE) {
+                    clock.advanceTo(Math.max(endTime, clock.nanoTime()));
+                }
+
+                break;
+            }
+
+            clock.advanceTo(Math.max(next, clock.nanoTime()));
+
+            if (timerTime < eventTime) {
+
+                timingWheel.advance();
+                continue;
+            }
+
+            Event event = events[0];
+            Object argument = arguments[0];
+
+            removeFirst();
+            fired++;
+            firedCount++;
+
+            event.fire(argument);
+        }
+
+        return fired;
+    }
+
+    /**
+     * Stop running after the current event, leaving the rest pending.
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+
+    // -------------------------------------------------------------------------
+    //
+    // Helper Heap Methods
+    //
+    // -------------------------------------------------------------------------
+
+
+    /**
+     * Remove the first event by moving the last event down from the top.
+     */
+    private void removeFirst() {
+
+        int last = --size;
+
+        long time = times[last];
+        long order = orders[last];
+        Event event = events[last];
+        Object argument = arguments[last];
+
+        events[last] = null;
+        arguments[last] = null;
+
+        if (last == 0) {
+            return;
+        }
+
+        int index = 0;
+
+        while (true) {
+
+            int firstChild = (index << 2) + 1;
+
+            if (firstChild >= last) {
+                break;
+            }
+
+            // Find the earliest of up to 4 children
+            int earliest = firstChild;
+            int end = Math.min(firstChild + 4, last);
+
+            for (int child = firstChild + 1; child < end; child++) {
+
+                if (before(times[child], orders[child], earliest)) {
+                    earliest = child;
+                }
+            }
+
+            if (!before(times[earliest], orders[earliest], time, order)) {
+                break;
+            }
+
+            move(earliest, index);
+            index = earliest;
+        }
+
+        set(index, time, order, event, argument);
+    }
+
+    private boolean before(long time, long order, int index) {
+        return before(time, order, times[index], orders[index]);
+    }
+
+    private static boolean before(long time, long order, long otherTime, long otherOrder) {
+        return time < otherTime || time == otherTime && order < otherOrder;
+    }
+
+    private void move(int from, int to) {
+        set(to, times[from], orders[from], events[from], arguments[from]);
+    }
+
+    private void set(int index, long time, long order, Event event, Object argument) {
+
+        times[index] = time;
+        orders[index] = order;
+        events[index] = event;
+        arguments[index] = argument;
+    }
+
+    private void grow() {
+
+        int capacity = times.length * 2;
+
+        times = Arrays.copyOf(times, capacity);
+        orders = Arrays.copyOf(orders, capacity);
+        events = Arrays.copyOf(events, capacity);
+        arguments = Arrays.copyOf(arguments, capacity);
+    }
+
+
+    // -------------------------------------------------------------------------
+    //
+    // Simulation Getter Methods
+    //
+    // -------------------------------------------------------------------------
+
+
+    public VirtualClock getClock() {
+        return clock;
+    }
+
+    /**
+     * Get the current simulated time.
+     *
+     * @return  the time in nanoseconds
+     */
+    public long now() {
+        return clock.nanoTime();
+    }
+
+    /**
+     * Get the timing wheel that runs on the simulation's clock, to arm
+     * connection timers in.
+     *
+     * @return  the timing wheel
+     */
+    public TimingWheel getTimingWheel() {
+        return timingWheel;
+    }
+
+    /**
+     * Get the number of events waiting to fire.
+     *
+     * @return  the number of pending events
+     */
+    public int getPendingEventCount() {
+        return size;
+    }
+
+    public long getFiredEventCount() {
+        return firedCount;
+    }
+
+    @Override
+    public String toString() {
+        return "Simulation{" +
+                "now=" + clock.nanoTime() +
+                ", pending=" + size +
+                ", fired=" + firedCount +
+                ", timers=" + timingWheel.size() +
+                '}';
+    }
+}
@@ -0,0 +1,757 @@
+package com.matmorcat;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The sending side of a TCP data transfer. The application writes a stream of
+ * bytes into a send buffer, and the sender cuts the stream into segments of
+ * at most one maximum segment size (MSS), numbers them and pushes them to its
+ * peer as far as the peer's advertised window allows. Acknowledgments pushed
+ * back by the peer free the acknowledged bytes and update the window, and
+ * each one lets the sender continue, so the rate of the transfer is set by
+ * the window and by how quickly acknowledgments return.
+ *
+ * The send buffer is a ring whose size is a power of 2. It holds every byte
+ * from the oldest unacknowledged byte to the last byte written, so bytes in
+ * flight can be sent again with {@link #rewind()} until they are
+ * acknowledged. Sequence numbers are tracked as 64-bit counts of bytes and
+ * only reduced to 32 bits on the wire, so they wrap around correctly.
+ *
+ * Segments are built in a scratch array and taken from a {@link SegmentPool},
+ * so a transfer creates no objects once the pool has warmed up.
+ *
+ * With a {@link TimingWheel} set, the sender keeps a retransmission timer
+ * armed while bytes are in flight, and computes its timeout as in section 2
+ * of RFC 6298: one segment at a time is timed, skipping segments that are
+ * sent again (Karn's algorithm), and each measured round-trip time updates
+ * the smoothed round-trip time (SRTT) and its variation (RTTVAR), giving a
+ * timeout of SRTT + max(G, 4 * RTTVAR) where G is the tick of the wheel.
+ * When the timer expires, the sender rewinds and sends again, and the
+ * timeout doubles until a segment that was not sent again is acknowledged.
+ *
+ * With a {@link CongestionControl} set, the bytes in flight are also limited
+ * by its congestion window, and the sender does fast retransmit and fast
+ * recovery: the third duplicate acknowledgment sends the oldest
+ * unacknowledged segment again, and the algorithm decides how the window
+ * changes until every byte sent before the loss is acknowledged. The
+ * measured round-trip times are passed on to the algorithm.
+ */
+public class SlidingWindowSender extends TransportLayer {
+
+    // The largest payload that fits in a segment (the TCP length field counts bits)
+    public static final int MAX_SEGMENT_SIZE = (0xFFFF - TcpHeader.FIXED_LENGTH * 8) / 8;
+
+    private static final long SEQUENCE_MASK = 0xFFFFFFFFL;
+
+    private final int maxSegmentSize;
+
+    private final byte[] buffer;
+    private final int mask;
+
+    // The pseudo-header + header + payload of the segment being built
+    private final byte[] scratch;
+    private final TcpHeader header = new TcpHeader();
+
+    private final SegmentPool pool = new SegmentPool(16);
+    private final ValidationResult result = new ValidationResult();
+
+    private TransportLayer peer;
+
+    // Byte counts since the initial sequence number: the oldest unacknowledged
+    // byte, the next byte to send, the byte after the last one sent so far
+    // and the byte after the last one written
+    private long unacknowledged;
+    private long next;
+    private long highestSent;
+    private long end;
+
+    private final long initialSequence;
+    private int peerWindow = 0xFFFF;
+
+    // Whether segments are being sent, so that an acknowledgment received
+    // during a push does not start sending again from within the push
+    private boolean sending;
+
+    private long segmentsSent;
+    private long bytesSent;
+    private long bytesRetransmitted;
+    private long duplicateAckCount;
+    private long windowLimitedCount;
+    private long timeoutCount;
+    private long fastRetransmitCount;
+
+    private CongestionControl congestionControl;
+    private Clock clock;
+
+    // Whether the sender is in fast recovery, the byte after the last one
+    // sent before the loss, and the duplicate acknowledgments in a row
+    private boolean inRecovery;
+    private long recoveryPoint;
+    private int duplicateAcks;
+
+    // Whether a segment is being timed, the byte after it and when it was sent
+    private boolean timing;
+    private long timedEnd;
+    private long timedStart;
+    private long lastRtt = -1;
+
+    // The retransmission timer, the least and the current timeout, and the
+    // smoothed round-trip time and its variation (-1 before the first sample)
+    private final WheelTimer retransmissionTimer = new WheelTimer() {
+
+        @Override
+        protected void expire() throws Exception {
+            retransmissionTimeout();
+        }
+    };
+
+    private TimingWheel timingWheel;
+    private long minTimeoutNanos;
+    private long timeoutNanos;
+    private long smoothedRtt = -1;
+    private long rttVariation;
+
+    // The most the timeout is backed off to (RFC 6298 2.5)
+    private static final long MAX_TIMEOUT_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    /**
+     * Creates a sender with an empty send buffer.
+     *
+     * @param sourceAddress     the address of this host (32 bits)
+     * @param destAddress       the address of the peer (32 bits)
+     * @param sourcePort        the port of this end of the connection
+     * @param destPort          the port of the peer's end of the connection
+     * @param maxSegmentSize    the most payload bytes to put in one segment
+     * @param bufferCapacity    the least number of bytes the send buffer can
+     *                          hold (rounded up to a power of 2)
+     * @param initialSequence   the sequence number of the first byte
+     */
+    public SlidingWindowSender(long sourceAddress, long destAddress, int sourcePort, int destPort,
+                               int maxSegmentSize, int bufferCapacity, long initialSequence) {
+
+        if (maxSegmentSize < 1 || maxSegmentSize > MAX_SEGMENT_SIZE) {
+            throw new IllegalArgumentException("The MSS must be between 1 and " + MAX_SEGMENT_SIZE + " bytes!");
+        }
+
+        if (bufferCapacity < 1 || bufferCapacity > 1 << 30) {
+            throw new IllegalArgumentException("The send buffer must hold between 1 and 2^30 bytes!");
+        }
+
+        int capacity = Integer.highestOneBit(bufferCapacity);
+
+        if (capacity < bufferCapacity) {
+            capacity <<= 1;
+        }
+
+        this.maxSegmentSize = maxSegmentSize;
+        this.buffer = new byte[capacity];
+        this.mask = capacity - 1;
+        this.initialSequence = initialSequence & SEQUENCE_MASK;
+
+        // The pseudo-header is the same for every segment apart from its length
+        this.scratch = new byte[PseudoHeader.LENGTH + TcpHeader.FIXED_LENGTH + maxSegmentSize];
+
+        PseudoHeader.writeTo(scratch, sourceAddress, destAddress, 0);
+
+        header.setSourcePort(sourcePort)
+                .setDestPort(destPort)
+                .setWindowSize(0xFFFF);
+    }
+
+
+    // -------------------------------------------------------------------------
+    //
+    // Application Stream Methods
+    //
+    // -------------------------------------------------------------------------
+
+
+    /**
+     * Add bytes of the application's stream to the send buffer, as many as
+     * there is room for. Nothing is sent until {@link #sendAvailable()}.
+     *
+     * @param data      the bytes to add
+     * @param offset    the index of the first byte
+     * @param length    the number of bytes
+     * @return          the number of bytes added
+     */
+    public int write(byte[] data, int offset, int length) {
+
+        int count = (int) Math.min(length, getFreeSpace());
+        int index = (int) end & mask;
+
+        // Copy up to the end of the ring, then the rest to its start
+        int first = Math.min(count, buffer.length - index);
+
+        System.arraycopy(data, offset, buffer, index, first);
+        System.arraycopy(data, offset + first, buffer, 0, count - first);
+
+        end += count;
+
+        return count;
+    }
+
+    /**
+     * Send as many segments of the buffered bytes as the peer's window allows.
+     *
+     * @return              the number of segments sent
+     * @throws Exception    if a segment could not be sent
+     */
+    public int sendAvailable() throws Exception {
+
+        if (peer == null) {
+            throw new IllegalStateException("The sender has no peer!");
+        }
+
+        if (sending) {
+            return 0;
+        }
+
+        sending = true;
+        int sent = 0;
+
+        try {
+
+            while (next < end) {
+
+                long window = congestionControl == null
+                        ? peerWindow
+                        : Math.min(peerWindow, congestionControl.getCongestionWindow());
+
+                long usable = unacknowledged + window - next;
+
+                if (usable <= 0) {
+
+                    windowLimitedCount++;
+                    break;
+                }
+
+                int length = (int) Math.min(Math.min(maxSegmentSize, end - next), usable);
+
+                // Avoid the silly window syndrome: while bytes are in flight,
+                // wait for room for a full segment rather than send a sliver
+                // of the window (RFC 1122 4.2.3.4)
+                if (length < maxSegmentSize && length < end - next && next > unacknowledged) {
+
+                    windowLimitedCount++;
+                    break;
+                }
+
+                sendSegment(next, length);
+                next += length;
+                sent++;
+            }
+
+        } finally {
+            sending = false;
+        }
+
+        return sent;
+    }
+
+    /**
+     * Go back to the oldest unacknowledged byte so that every byte in flight
+     * is sent again by the next {@link #sendAvailable()}, as when the
+     * retransmission timer expires.
+     */
+    public void rewind() {
+        next = unacknowledged;
+    }
+
+    /**
+     * Use a timing wheel to retransmit bytes that are not acknowledged in
+     * time. Round-trip times are measured with the clock of the wheel unless
+     * a congestion control algorithm gives another.
+     *
+     * @param wheel     the wheel to arm the retransmission timer in
+     * @param timeout   the timeout until a round-trip time is measured, which
+     *                  is also the least timeout (RFC 6298 2.1 and 2.4
+     *                  recommend 1 second)
+     * @param unit      the unit of the timeout
+     */
+    public void setRetransmissionTimer(TimingWheel wheel, long timeout, TimeUnit unit) {
+
+        if (timingWheel != null) {
+            timingWheel.cancel(retransmissionTimer);
+        }
+
+        this.timingWheel = wheel;
+        this.minTimeoutNanos = unit.toNanos(timeout);
+        this.timeoutNanos = minTimeoutNanos;
+        this.smoothedRtt = -1;
+
+        if (clock == null) {
+            clock = wheel.getClock();
+        }
+    }
+
+    /**
+     * Limit the bytes in flight by a congestion control algorithm.
+     *
+     * @param congestionControl the algorithm, which is reset for this sender
+     * @param clock             the clock to measure round-trip times with
+     */
+    public void setCongestionControl(CongestionControl congestionControl, Clock clock) {
+
+        this.congestionControl = congestionControl;
+        this.clock = clock;
+
+        congestionControl.reset(maxSegmentSize, clock.nanoTime());
+    }
+
+    /**
+     * Send the bytes in flight again after the retransmission timer expires,
+     * and back off by doubling the timeout (RFC 6298 5.5).
+     */
+    private void retransmissionTimeout() throws Exception {
+
+        timeoutCount++;
+        timeoutNanos = Math.min(timeoutNanos * 2, MAX_TIMEOUT_NANOS);
+
+        // Every byte in flight is sent again, so none of them can be timed
+        timing = false;
+
+        if (congestionControl != null) {
+
+            congestionControl.onRetransmissionTimeout(getBytesInFlight(), now());
+
+            inRecovery = false;
+            duplicateAcks = 0;
+        }
+
+        rewind();
+        sendAvailable();
+    }
+
+    /**
+     * Build the segment for a range of the buffer and push it to the peer.
+     */
+    private void sendSegment(long offset, int length) throws Exception {
+
+        int segmentLength = TcpHeader.FIXED_LENGTH + length;
+
+        // The last segment of the buffered bytes asks the peer to pass them on
+        int flags = Segment.URG_FLAG | Segment.ACK_FLAG | (offset + length == end ? Segment.PSH_FLAG : 0);
+
+        PseudoHeader.writeSegmentLength(scratch, segmentLength * 8);
+
+        header.setSequenceNumber(initialSequence + offset)
+                .setFlags(flags)
+                .writeTo(scratch, PseudoHeader.LENGTH);
+
+        int index = (int) offset & mask;
+        int first = Math.min(length, buffer.length - index);
+        int payload = PseudoHeader.LENGTH + TcpHeader.FIXED_LENGTH;
+
+        System.arraycopy(buffer, index, scratch, payload, first);
+        System.arraycopy(buffer, 0, scratch, payload + first, length - first);
+
+        Segment segment = pool.acquire(scratch, 0, (PseudoHeader.LENGTH + segmentLength) * 8,
+                Segment.ParseMode.STRICT, result);
+
+        if (segment == null) {
+            throw result.toException();
+        }
+
+        // Count any bytes that were sent before, which cannot be timed
+        if (offset < highestSent) {
+
+            bytesRetransmitted += Math.min(length, highestSent - offset);
+
+            if (offset < timedEnd) {
+                timing = false;
+            }
+
+        } else if (clock != null && !timing) {
+
+            timing = true;
+            timedEnd = offset + length;
+            timedStart = clock.nanoTime();
+        }
+
+        highestSent = Math.max(highestSent, offset + length);
+        segmentsSent++;
+        bytesSent += length;
+
+        if (timingWheel != null && !retransmissionTimer.isArmed()) {
+            timingWheel.schedule(retransmissionTimer, timeoutNanos, TimeUnit.NANOSECONDS);
+        }
+
+        setSegment(segment);
+        pushSegment(peer);
+    }
+
+
+    // -------------------------------------------------------------------------
+    //
+    // Acknowledgment Handling Methods
+    //
+    // -------------------------------------------------------------------------
+
+
+    /**
+     * Receive a segment from the peer. If it acknowledges bytes in flight,
+     * they are freed, the peer's window is updated and more bytes are sent.
+     */
+    @Override
+    boolean pullSegment(Segment segment) throws Exception {
+
+        if (!super.pullSegment(segment)) {
+            return false;
+        }
+
+        if (segment.hasFlags(Segment.ACK_FLAG)) {
+            acknowledge(segment.getAckNumber(), segment.getWindowSize());
+        }
+
+        if (!sending && peer != null) {
+            sendAvailable();
+        }
+
+        return true;
+    }
+
+    /**
+     * Apply an acknowledgment number and window received from the peer.
+     *
+     * @param ackNumber the acknowledgment number (32 bits)
+     * @param window    the peer's advertised window in bytes
+     */
+    void acknowledge(long ackNumber, int window) throws Exception {
+
+        // The distance from the oldest unacknowledged byte, which is huge for
+        // an acknowledgment older than that byte (it has wrapped around)
+        long acknowledged = (ackNumber - (initialSequence + unacknowledged)) & SEQUENCE_MASK;
+
+        if (acknowledged > highestSent - unacknowledged) {
+            return;
+        }
+
+        if (acknowledged == 0) {
+
+            // An acknowledgment that changes nothing while bytes are in
+            // flight says that a later segment arrived (RFC 5681 2)
+            if (highestSent > unacknowledged && window == peerWindow) {
+
+                duplicateAckCount++;
+
+                if (congestionControl != null) {
+                    duplicateAcknowledgment();
+                }
+            }
+
+            peerWindow = window;
+            return;
+        }
+
+        unacknowledged += acknowledged;
+        next = Math.max(next, unacknowledged);
+        peerWindow = window;
+
+        long rtt = -1;
+
+        if (timing && unacknowledged >= timedEnd) {
+
+            rtt = now() - timedStart;
+            lastRtt = rtt;
+            timing = false;
+        }
+
+        if (congestionControl != null) {
+            newAcknowledgment(acknowledged, rtt);
+        }
+
+        // New bytes were acknowledged, so restart the timer (RFC 6298 5.2, 5.3).
+        // A backed-off timeout is kept until a round-trip time is measured.
+        if (timingWheel != null) {
+
+            if (rtt >= 0) {
+                updateTimeout(rtt);
+            }
+
+            if (unacknowledged == highestSent) {
+                timingWheel.cancel(retransmissionTimer);
+            } else {
+                timingWheel.schedule(retransmissionTimer, timeoutNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
+    /**
+     * Count a duplicate acknowledgment, and start fast recovery on the third.
+     */
+    private void duplicateAcknowledgment() throws Exception {
+
+        duplicateAcks++;
+
+        if (inRecovery) {
+            congestionControl.onDuplicateAcknowledgment(now());
+        } else if (duplicateAcks == 3) {
+
+            inRecovery = true;
+            recoveryPoint = highestSent;
+            fastRetransmitCount++;
+
+            congestionControl.onLoss(getBytesInFlight(), now());
+            retransmitFirst();
+        }
+    }
+
+    /**
+     * Update the smoothed round-trip time and its variation with a measured
+     * round-trip time, and compute the timeout from them (RFC 6298 2.2, 2.3).
+     */
+    private void updateTimeout(long rtt) {
+
+        if (smoothedRtt < 0) {
+
+            smoothedRtt = rtt;
+            rttVariation = rtt / 2;
+
+        } else {
+
+            // The variation is updated with the smoothed time from before this sample
+            rttVariation = (3 * rttVariation + Math.abs(smoothedRtt - rtt)) / 4;
+            smoothedRtt = (7 * smoothedRtt + rtt) / 8;
+        }
+
+        long timeout = smoothedRtt + Math.max(timingWheel.getTickNanos(), 4 * rttVariation);
+
+        timeoutNanos = Math.min(Math.max(timeout, minTimeoutNanos), MAX_TIMEOUT_NANOS);
+    }
+
+    /**
+     * Tell the congestion control about newly acknowledged bytes, and end
+     * or continue fast recovery.
+     *
+     * @param acknowledged  the newly acknowledged bytes
+     * @param rtt           the measured round-trip time, or -1 if none
+     */
+    private void newAcknowledgment(long acknowledged, long rtt) throws Exception {
+
+        long now = now();
+
+        duplicateAcks = 0;
+
+        if (!inRecovery) {
+            congestionControl.onAcknowledgment(acknowledged, rtt, getBytesInFlight(), now);
+        } else if (unacknowledged < recoveryPoint && congestionControl.onPartialAcknowledgment(acknowledged, rtt, now)) {
+            retransmitFirst();
+        } else {
+
+            inRecovery = false;
+            congestionControl.onRecovered(acknowledged, rtt, now);
+        }
+    }
+
+    /**
+     * Send the oldest unacknowledged segment again, whatever the window.
+     */
+    private void retransmitFirst() throws Exception {
+
+        int length = (int) Math.min(maxSegmentSize, highestSent - unacknowledged);
+
+        if (length > 0) {
+            sendSegment(unacknowledged, length);
+        }
+    }
+
+    private long now() {
+        return clock == null ? 0 : clock.nanoTime();
+    }
+
+
+    // -------------------------------------------------------------------------
+    //
+    // Sender Getter & Setter Methods
+    //
+    // -------------------------------------------------------------------------
+
+
+    public TransportLayer getPeer() {
+        return peer;
+    }
+
+    public void setPeer(TransportLayer peer) {
+        this.peer = peer;
+    }
+
+    public int getMaxSegmentSize() {
+        return maxSegmentSize;
+    }
+
+    public int getBufferCapacity() {
+        return buffer.length;
+    }
+
+    /**
+     * Get the number of bytes that can be written before the buffer is full.
+     *
+     * @return  the free space in bytes
+     */
+    public long getFreeSpace() {
+        return buffer.length - (end - unacknowledged);
+    }
+
+    /**
+     * Get the number of bytes that have been sent but not acknowledged. After
+     * a {@link #rewind()} this still counts the bytes sent before it, which
+     * may yet be acknowledged.
+     *
+     * @return  the bytes in flight
+     */
+    public long getBytesInFlight() {
+        return highestSent - unacknowledged;
+    }
+
+    /**
+     * Get the number of written bytes that have not been sent yet.
+     *
+     * @return  the unsent bytes
+     */
+    public long getUnsentBytes() {
+        return end - next;
+    }
+
+    /**
+     * Get the number of bytes the peer has acknowledged.
+     *
+     * @return  the acknowledged bytes
+     */
+    public long getBytesAcknowledged() {
+        return unacknowledged;
+    }
+
+    /**
+     * Get the sequence number of the oldest unacknowledged byte.
+     *
+     * @return  the sequence number (32 bits)
+     */
+    public long getUnacknowledgedSequence() {
+        return (initialSequence + unacknowledged) & SEQUENCE_MASK;
+    }
+
+    /**
+     * Get the sequence number of the next byte to send.
+     *
+     * @return  the sequence number (32 bits)
+     */
+    public long getNextSequence() {
+        return (initialSequence + next) & SEQUENCE_MASK;
+    }
+
+    public int getPeerWindow() {
+        return peerWindow;
+    }
+
+    /**
+     * Set the peer's window before any acknowledgment has been received, such
+     * as the window of its SYN.
+     *
+     * @param peerWindow    the window in bytes
+     */
+    public void setPeerWindow(int peerWindow) {
+        this.peerWindow = peerWindow & 0xFFFF;
+    }
+
+    /**
+     * Set the window this end advertises in its segments.
+     *
+     * @param window    the window in bytes
+     */
+    public void setReceiveWindow(int window) {
+        header.setWindowSize(window);
+    }
+
+    public long getSegmentsSent() {
+        return segmentsSent;
+    }
+
+    /**
+     * Get the number of payload bytes sent, including bytes sent again.
+     *
+     * @return  the bytes sent
+     */
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    public long getBytesRetransmitted() {
+        return bytesRetransmitted;
+    }
+
+    public long getDuplicateAckCount() {
+        return duplicateAckCount;
+    }
+
+    /**
+     * Get the number of times sending stopped because the peer's window was
+     * full while there were still bytes to send.
+     *
+     * @return  the number of times the window limited the sender
+     */
+    public long getWindowLimitedCount() {
+        return windowLimitedCount;
+    }
+
+    public CongestionControl getCongestionControl() {
+        return congestionControl;
+    }
+
+    public boolean isInRecovery() {
+        return inRecovery;
+    }
+
+    public long getFastRetransmitCount() {
+        return fastRetransmitCount;
+    }
+
+    /**
+     * Get the last round-trip time measured.
+     *
+     * @return  the round-trip time in nanoseconds, or -1 if none was measured
+     */
+    public long getLastRtt() {
+        return lastRtt;
+    }
+
+    /**
+     * Get the smoothed round-trip time.
+     *
+     * @return  the smoothed round-trip time in nanoseconds, or -1 if no
+     *          round-trip time was measured
+     */
+    public long getSmoothedRtt() {
+        return smoothedRtt;
+    }
+
+    /**
+     * Get the timeout the retransmission timer is armed with next, including
+     * any backing off.
+     *
+     * @return  the timeout in nanoseconds
+     */
+    public long getRetransmissionTimeout() {
+        return timeoutNanos;
+    }
+
+    /**
+     * Get the number of times the retransmission timer expired.
+     *
+     * @return  the number of timeouts
+     */
+    public long getTimeoutCount() {
+        return timeoutCount;
+    }
+
+    @Override
+    public String toString() {
+        return "SlidingWindowSender{" +
+                "unacknowledged=" + getUnacknowledgedSequence() +
+                ", next=" + getNextSequence() +
+                ", inFlight=" + getBytesInFlight() +
+                ", unsent=" + getUnsentBytes() +
+                ", peerWindow=" + peerWindow +
+                '}';
+    }
+}
@@ -0,0 +1,125 @@
+package com.matmorcat;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded lock-free queue for exactly one producer thread and one consumer
+ * thread. Elements are stored in a ring whose size is a power of 2, and each
+ * side publishes its progress with an ordered (lazy) write of its own
+ * counter, so neither side ever takes a lock or writes the other side's
+ * counter. Each side also caches the last value it read of the other side's
+ * counter and only reads it again when the ring looks full or empty.
+ *
+ * @param <E>   the type of the elements
+ */
+final class SpscRing<E> {
+
+    private final Object[] elements;
+    private final int mask;
+
+    // The number of elements taken by the consumer and added by the producer
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    // The producer's last view of the head, and the consumer's last view of the tail
+    private long cachedHead;
+    private long cachedTail;
+
+    /**
+     * Creates an empty ring.
+     *
+     * @param capacity  the least number of elements the ring must hold, which
+     *                  is rounded up to a power of 2
+     */
+    SpscRing(int capacity) {
+
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("The capacity must be between 1 and 2^30!");
+        }
+
+        int size = Integer.highestOneBit(capacity);
+
+        if (size < capacity) {
+            size <<= 1;
+        }
+
+        this.elements = new Object[size];
+        this.mask = size - 1;
+    }
+
+    /**
+     * Add an element to the ring. Must only be called by the producer.
+     *
+     * @param element   the element to add
+     * @return          false if the ring was full
+     */
+    boolean offer(E element) {
+
+        long t = tail.get();
+
+        if (t - cachedHead > mask) {
+
+            cachedHead = head.get();
+
+            if (t - cachedHead > mask) {
+                return false;
+            }
+        }
+
+        elements[(int) t & mask] = element;
+        tail.lazySet(t + 1);
+
+        return true;
+    }
+
+    /**
+     * Take the oldest element from the ring. Must only be called by the
+     * consumer.
+     *
+     * @return  the element, or null if the ring was empty
+     */
+    @SuppressWarnings("unchecked")
+    E poll() {
+
+        long h = head.get();
+
+        if (h >= cachedTail) {
+
+            cachedTail = tail.get();
+
+            if (h >= cachedTail) {
+                return null;
+            }
+        }
+
+        int index = (int) h & mask;
+        E element = (E) elements[index];
+
+        elements[index] = null;
+        head.lazySet(h + 1);
+
+        return element;
+    }
+
+    /**
+     * Get the number of elements in the ring. From any thread other than the
+     * producer and consumer this is only an estimate.
+     *
+     * @return  the number of elements
+     */
+    int size() {
+
+        // Read the head first so that the result can never be negative
+        long h = head.get();
+
+        return (int) (tail.get() - h);
+    }
+
+    boolean isEmpty() {
+        return size() == 0;
+    }
+
+    int capacity() {
+        return elements.length;
+    }
+}
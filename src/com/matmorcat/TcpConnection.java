@@ -0,0 +1,303 @@
+package com.matmorcat;
+
+/**
+ * One end of a TCP connection. The connection is a Transport Layer that keeps
+ * track of its state (see {@link TcpState}) and answers each segment it
+ * receives as {@link TcpStateMachine} says, by pushing a reply to its peer.
+ * The application opens and closes the connection with {@link #listen()},
+ * {@link #connect(long)} and {@link #close()}.
+ *
+ * Every segment the connection sends is the same {@link Segment} object with
+ * its flags, sequence number and acknowledgment number rewritten, so running
+ * a connection through any number of handshakes creates no objects. The
+ * sequence numbers only count the SYN and FIN flags; the payload of each
+ * segment is carried along but not numbered. Every segment also has the URG
+ * flag set, as the validation rules of {@link Segment} require.
+ *
+ * Replies are pushed from within {@link #pullSegment(Segment)}, so two
+ * connections pushing to each other run a whole handshake within the call
+ * that starts it.
+ */
+public class TcpConnection extends TransportLayer {
+
+    private final Segment outgoing;
+
+    private TransportLayer peer;
+    private TcpState state = TcpState.CLOSED;
+
+    // Whether the connection was opened by listening rather than connecting
+    private boolean passiveOpen;
+
+    // The sequence number of the next segment to send, and the sequence
+    // number expected of the next segment to be received
+    private long sendNext;
+    private long receiveNext;
+
+    private long transitionCount;
+
+    /**
+     * Creates a closed connection.
+     *
+     * @param template      the pseudo-header + segment that the segments sent
+     *                      by this connection are made from, in binary or hex
+     * @throws Exception    the template was not a valid segment
+     */
+    public TcpConnection(String template) throws Exception {
+        this.outgoing = new Segment(template);
+    }
+
+
+    // -------------------------------------------------------------------------
+    //
+    // Application Event Methods
+    //
+    // -------------------------------------------------------------------------
+
+
+    /**
+     * Wait for a connection request from the peer (a passive open).
+     */
+    public void listen() {
+
+        requireState(TcpState.CLOSED);
+
+        passiveOpen = true;
+        moveTo(TcpState.LISTEN);
+    }
+
+    /**
+     * Send a connection request to the peer (an active open).
+     *
+     * @param initialSequence   the first sequence number of this end
+     * @throws Exception        if the request could not be sent
+     */
+    public void connect(long initialSequence) throws Exception {
+
+        requireState(TcpState.CLOSED);
+
+        sendNext = initialSequence & 0xFFFFFFFFL;
+        passiveOpen = false;
+        moveTo(TcpState.SYN_SENT);
+        send(Segment.SYN_FLAG);
+    }
+
+    /**
+     * Close this end of the connection. An open connection sends a FIN and
+     * waits for the peer; one that was never opened is closed at once.
+     *
+     * @throws Exception    if the FIN could not be sent
+     */
+    public void close() throws Exception {
+
+        switch (state) {
+            case LISTEN:
+            case SYN_SENT:
+                moveTo(TcpState.CLOSED);
+                break;
+            case SYN_RECEIVED:
+            case ESTABLISHED:
+                moveTo(TcpState.FIN_WAIT_1);
+                send(Segment.FIN_FLAG | Segment.ACK_FLAG);
+                break;
+            case CLOSE_WAIT:
+                moveTo(TcpState.LAST_ACK);
+                send(Segment.FIN_FLAG | Segment.ACK_FLAG);
+                break;
+            default:
+                throw new IllegalStateException("The connection is already closing (" + state + ")!");
+        }
+    }
+
+    /**
+     * Reset the connection, telling the peer if it was synchronized.
+     *
+     * @throws Exception    if the reset could not be sent
+     */
+    public void abort() throws Exception {
+
+        boolean notify = state == TcpState.SYN_RECEIVED || state.isSynchronized();
+
+        moveTo(TcpState.CLOSED);
+
+        if (notify) {
+            send(Segment.RST_FLAG);
+        }
+    }
+
+    /**
+     * End the TIME-WAIT state once twice the maximum segment lifetime has
+     * passed.
+     */
+    public void expireTimeWait() {
+
+        requireState(TcpState.TIME_WAIT);
+        moveTo(TcpState.CLOSED);
+    }
+
+
+    // -------------------------------------------------------------------------
+    //
+    // Segment Handling Methods
+    //
+    // -------------------------------------------------------------------------
+
+
+    /**
+     * Receive a segment from the peer and move to the state it leads to,
+     * pushing a reply to the peer if one is needed.
+     */
+    @Override
+    boolean pullSegment(Segment segment) throws Exception {
+
+        if (!super.pullSegment(segment)) {
+            return false;
+        }
+
+        int flags = segment.getFlags() & TcpStateMachine.FLAG_MASK;
+        int input = flags;
+
+        // An ACK only counts if it acknowledges everything sent so far
+        if ((flags & Segment.ACK_FLAG) != 0 && segment.getAckNumber() != sendNext) {
+            input |= TcpStateMachine.UNACCEPTABLE_ACK;
+        }
+
+        if (passiveOpen) {
+            input |= TcpStateMachine.PASSIVE_OPEN;
+        }
+
+        int transition = TcpStateMachine.lookup(state.ordinal(), input);
+        int reply = TcpStateMachine.replyFlags(transition);
+
+        // The SYN and FIN flags each take up one sequence number
+        boolean synOrFin = (flags & (Segment.SYN_FLAG | Segment.FIN_FLAG)) != 0;
+
+        // A reset takes its sequence number from the acknowledgment it answers,
+        // or if there is none, acknowledges the segment instead (RFC 793, page 36).
+        // Either way the segment is refused, so it does not move this end on.
+        if (reply == Segment.RST_FLAG) {
+
+            if ((flags & Segment.ACK_FLAG) != 0) {
+
+                moveTo(TcpState.of(TcpStateMachine.nextState(transition)));
+                send(reply, segment.getAckNumber());
+
+                return true;
+            }
+
+            reply |= Segment.ACK_FLAG;
+            receiveNext = (segment.getSequenceNumber() + (synOrFin ? 1 : 0)) & 0xFFFFFFFFL;
+
+        } else if (synOrFin) {
+
+            receiveNext = (segment.getSequenceNumber() + 1) & 0xFFFFFFFFL;
+        }
+
+        moveTo(TcpState.of(TcpStateMachine.nextState(transition)));
+
+        if (reply != 0) {
+            send(reply);
+        }
+
+        return true;
+    }
+
+    /**
+     * Send a segment with the given flags to the peer.
+     */
+    private void send(int flags) throws Exception {
+
+        long sequenceNumber = sendNext;
+
+        // The SYN and FIN flags each take up one sequence number. The peer may
+        // answer before the push returns, so this is counted first.
+        if ((flags & (Segment.SYN_FLAG | Segment.FIN_FLAG)) != 0) {
+            sendNext = (sendNext + 1) & 0xFFFFFFFFL;
+        }
+
+        send(flags, sequenceNumber);
+    }
+
+    /**
+     * Send a segment with the given flags and sequence number to the peer,
+     * without moving the next sequence number to send.
+     */
+    private void send(int flags, long sequenceNumber) throws Exception {
+
+        if (peer == null) {
+            throw new IllegalStateException("The connection has no peer!");
+        }
+
+        outgoing.setFlags(Segment.URG_FLAG | flags);
+        outgoing.setSequenceNumber(sequenceNumber);
+        outgoing.setAcknowledgmentNumber((flags & Segment.ACK_FLAG) != 0 ? receiveNext : 0);
+
+        setSegment(outgoing);
+        pushSegment(peer);
+    }
+
+    private void moveTo(TcpState next) {
+
+        if (next != state) {
+            state = next;
+            transitionCount++;
+        }
+    }
+
+    private void requireState(TcpState required) {
+
+        if (state != required) {
+            throw new IllegalStateException("The connection must be " + required + " but is " + state + "!");
+        }
+    }
+
+
+    // -------------------------------------------------------------------------
+    //
+    // Connection Getter & Setter Methods
+    //
+    // -------------------------------------------------------------------------
+
+
+    public TransportLayer getPeer() {
+        return peer;
+    }
+
+    /**
+     * Set the Transport Layer that this connection sends its segments to.
+     *
+     * @param peer  the other end of the connection
+     */
+    public void setPeer(TransportLayer peer) {
+        this.peer = peer;
+    }
+
+    public TcpState getState() {
+        return state;
+    }
+
+    public long getSendNext() {
+        return sendNext;
+    }
+
+    public long getReceiveNext() {
+        return receiveNext;
+    }
+
+    /**
+     * Get the number of times the connection has changed state.
+     *
+     * @return  the number of state changes
+     */
+    public long getTransitionCount() {
+        return transitionCount;
+    }
+
+    @Override
+    public String toString() {
+        return "TcpConnection{" +
+                "state=" + state +
+                ", sendNext=" + sendNext +
+                ", receiveNext=" + receiveNext +
+                '}';
+    }
+}
@@ -0,0 +1,215 @@
+package com.matmorcat;
+
+/**
+ * The fixed fields of a TCP header held as primitives, for code that works
+ * with header values rather than with the segment they came from. A header
+ * can be filled in from a {@link Segment} or {@link SegmentView} and written
+ * back out in its wire representation, and can be reused for any number of
+ * segments.
+ *
+ * The control flags are a bit mask of {@link Segment#URG_FLAG} through
+ * {@link Segment#FIN_FLAG}. Fields of 16 bits or more are unsigned, so they
+ * are held in the next larger primitive type.
+ */
+public final class TcpHeader {
+
+    // The length in bytes of the fields that are always present
+    static final int FIXED_LENGTH = 20;
+
+    private int sourcePort;
+    private int destPort;
+    private long sequenceNumber;
+    private long ackNumber;
+    private int headerLengthInWords = FIXED_LENGTH / 4;
+    private byte flags;
+    private int windowSize;
+    private int checksum;
+    private int urgentPointer;
+
+
+    // -------------------------------------------------------------------------
+    //
+    // Header Conversion Methods
+    //
+    // -------------------------------------------------------------------------
+
+
+    /**
+     * Fill in this header from the header of a segment.
+     *
+     * @param segment   the segment to read
+     * @return          this header
+     */
+    public TcpHeader readFrom(Segment segment) {
+
+        sourcePort = segment.getSourcePort();
+        destPort = segment.getDestPort();
+        sequenceNumber = segment.getSequenceNumber();
+        ackNumber = segment.getAckNumber();
+        headerLengthInWords = segment.getHeaderLengthInBits() / 32;
+        flags = segment.getFlags();
+        windowSize = segment.getWindowSize();
+        checksum = segment.getChecksum();
+        urgentPointer = segment.getUrgentPointer();
+
+        return this;
+    }
+
+    /**
+     * Fill in this header from the header of a segment in a buffer.
+     *
+     * @param view  the view of the segment to read
+     * @return      this header
+     */
+    public TcpHeader readFrom(SegmentView view) {
+
+        sourcePort = view.getSourcePort();
+        destPort = view.getDestPort();
+        sequenceNumber = view.getSequenceNumber();
+        ackNumber = view.getAckNumber();
+        headerLengthInWords = view.getHeaderLengthInBits() / 32;
+        flags = view.getFlags();
+        windowSize = view.getWindowSize();
+        checksum = view.getChecksum();
+        urgentPointer = view.getUrgentPointer();
+
+        return this;
+    }
+
+    /**
+     * Write the fixed fields of this header in their wire representation. The
+     * reserved field is written as 0s and any options are left untouched.
+     *
+     * @param data      the bytes to write to
+     * @param offset    the index of the first byte of the header
+     */
+    public void writeTo(byte[] data, int offset) {
+
+        Bits.write(data, offset * 8, 16, sourcePort);
+        Bits.write(data, offset * 8 + 16, 16, destPort);
+        Bits.write(data, offset * 8 + 32, 32, sequenceNumber);
+        Bits.write(data, offset * 8 + 64, 32, ackNumber);
+
+        // The header length, reserved field and flags share 16 bits
+        data[offset + 12] = (byte) (headerLengthInWords << 4);
+        data[offset + 13] = (byte) (flags & 0x3F);
+
+        Bits.write(data, offset * 8 + 112, 16, windowSize);
+        Bits.write(data, offset * 8 + 128, 16, checksum);
+        Bits.write(data, offset * 8 + 144, 16, urgentPointer);
+    }
+
+
+    // -------------------------------------------------------------------------
+    //
+    // Header Field Getter & Setter Methods
+    //
+    // -------------------------------------------------------------------------
+
+
+    public int getSourcePort() {
+        return sourcePort;
+    }
+
+    public TcpHeader setSourcePort(int sourcePort) {
+        this.sourcePort = sourcePort & 0xFFFF;
+        return this;
+    }
+
+    public int getDestPort() {
+        return destPort;
+    }
+
+    public TcpHeader setDestPort(int destPort) {
+        this.destPort = destPort & 0xFFFF;
+        return this;
+    }
+
+    public long getSequenceNumber() {
+        return sequenceNumber;
+    }
+
+    public TcpHeader setSequenceNumber(long sequenceNumber) {
+        this.sequenceNumber = sequenceNumber & 0xFFFFFFFFL;
+        return this;
+    }
+
+    public long getAckNumber() {
+        return ackNumber;
+    }
+
+    public TcpHeader setAckNumber(long ackNumber) {
+        this.ackNumber = ackNumber & 0xFFFFFFFFL;
+        return this;
+    }
+
+    public int getHeaderLengthInWords() {
+        return headerLengthInWords;
+    }
+
+    public TcpHeader setHeaderLengthInWords(int headerLengthInWords) {
+        this.headerLengthInWords = headerLengthInWords & 0xF;
+        return this;
+    }
+
+    public byte getFlags() {
+        return flags;
+    }
+
+    public TcpHeader setFlags(int flags) {
+        this.flags = (byte) (flags & 0x3F);
+        return this;
+    }
+
+    /**
+     * Check whether all of the given flags are set.
+     *
+     * @param mask  the flags to check, such as {@code SYN_FLAG | ACK_FLAG}
+     * @return      true if every flag in the mask is set
+     */
+    public boolean hasFlags(int mask) {
+        return (flags & mask) == mask;
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    public TcpHeader setWindowSize(int windowSize) {
+        this.windowSize = windowSize & 0xFFFF;
+        return this;
+    }
+
+    public int getChecksum() {
+        return checksum;
+    }
+
+    public TcpHeader setChecksum(int checksum) {
+        this.checksum = checksum & 0xFFFF;
+        return this;
+    }
+
+    public int getUrgentPointer() {
+        return urgentPointer;
+    }
+
+    public TcpHeader setUrgentPointer(int urgentPointer) {
+        this.urgentPointer = urgentPointer & 0xFFFF;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return "TcpHeader{" +
+                "sourcePort=" + sourcePort +
+                ", destPort=" + destPort +
+                ", sequenceNumber=" + sequenceNumber +
+                ", ackNumber=" + ackNumber +
+                ", headerLengthInWords=" + headerLengthInWords +
+                ", flags=" + flags +
+                ", windowSize=" + windowSize +
+                ", checksum=" + checksum +
+                ", urgentPointer=" + urgentPointer +
+                '}';
+    }
+}
@@ -0,0 +1,57 @@
+package com.matmorcat;
+
+/**
+ * The states of a TCP connection, as described in section 3.2 of RFC 793.
+ */
+public enum TcpState {
+
+    /** There is no connection. */
+    CLOSED,
+
+    /** Waiting for a connection request from any remote host. */
+    LISTEN,
+
+    /** Waiting for a matching connection request after sending one. */
+    SYN_SENT,
+
+    /** Waiting for the acknowledgment of a connection request after receiving and sending one. */
+    SYN_RECEIVED,
+
+    /** The connection is open and data can be sent both ways. */
+    ESTABLISHED,
+
+    /** Waiting for the remote host to acknowledge the close, or to close too. */
+    FIN_WAIT_1,
+
+    /** Waiting for the remote host to close after it acknowledged the close. */
+    FIN_WAIT_2,
+
+    /** Waiting for the local application to close after the remote host closed. */
+    CLOSE_WAIT,
+
+    /** Waiting for the remote host to acknowledge the close after both closed at once. */
+    CLOSING,
+
+    /** Waiting for the remote host to acknowledge the close after it closed first. */
+    LAST_ACK,
+
+    /** Waiting long enough to be sure the remote host received the last acknowledgment. */
+    TIME_WAIT;
+
+    // The states by ordinal, so that the state machine can look them up without copying values()
+    private static final TcpState[] STATES = values();
+
+    static TcpState of(int ordinal) {
+        return STATES[ordinal];
+    }
+
+    /**
+     * Check whether the state is one in which both hosts have exchanged
+     * connection requests (RFC 793 calls these the synchronized states).
+     *
+     * @return  true if the connection is synchronized
+     */
+    public boolean isSynchronized() {
+        return compareTo(ESTABLISHED) >= 0;
+    }
+}
@@ -0,0 +1,228 @@
+package com.matmorcat;
+
+import static com.matmorcat.Segment.ACK_FLAG;
+import static com.matmorcat.Segment.FIN_FLAG;
+import static com.matmorcat.Segment.RST_FLAG;
+import static com.matmorcat.Segment.SYN_FLAG;
+import static com.matmorcat.TcpState.*;
+
+/**
+ * The transitions of the TCP state machine (RFC 793) caused by receiving a
+ * segment. Every combination of a state and an input is worked out once,
+ * when the class is loaded, into a table holding the next state and the
+ * flags of the segment to send in reply, so handling a segment is a single
+ * array lookup.
+ *
+ * An input is the SYN, ACK, FIN and RST flags of the segment, together with
+ * two bits the connection knows and the flags do not say:
+ * {@link #UNACCEPTABLE_ACK}, set when the segment has an ACK that does not
+ * acknowledge everything sent so far (see {@link TcpConnection}), and
+ * {@link #PASSIVE_OPEN}, set when the connection was opened by listening.
+ * The first is what distinguishes, for example, the acknowledgment of a FIN
+ * from the acknowledgment of earlier data, and the second decides where a
+ * reset connection request goes. Combinations not listed in RFC 793 leave
+ * the state as it is and send nothing.
+ */
+public final class TcpStateMachine {
+
+    // The flags that take part in transitions
+    static final int FLAG_MASK = SYN_FLAG | ACK_FLAG | FIN_FLAG | RST_FLAG;
+
+    /**
+     * Set in an input when the ACK flag is set but the acknowledgment number
+     * is not the next sequence number to send. Takes the bit of the PSH flag,
+     * which the table does not look at.
+     */
+    static final int UNACCEPTABLE_ACK = Segment.PSH_FLAG;
+
+    /**
+     * Set in an input when the connection was opened by listening rather
+     * than by sending a connection request. Takes the bit of the URG flag,
+     * which the table does not look at.
+     */
+    static final int PASSIVE_OPEN = Segment.URG_FLAG;
+
+    // The flags and connection bits that make up an input
+    static final int INPUT_MASK = FLAG_MASK | UNACCEPTABLE_ACK | PASSIVE_OPEN;
+
+    // The connection bits, in every combination
+    private static final int[] CONTEXTS = {0, UNACCEPTABLE_ACK, PASSIVE_OPEN, UNACCEPTABLE_ACK | PASSIVE_OPEN};
+
+    // The number of bits of a table entry that hold the next state
+    private static final int STATE_BITS = 4;
+    private static final int STATE_MASK = (1 << STATE_BITS) - 1;
+
+    // The entries by [state][input], each holding the flags to reply with
+    // above the ordinal of the next state
+    private static final short[] TRANSITIONS = new short[TcpState.values().length * (INPUT_MASK + 1)];
+
+    static {
+
+        // Unless a rule says otherwise, a segment leaves the state as it is
+        for (TcpState state : TcpState.values()) {
+            for (int flags = 0; flags <= FLAG_MASK; flags++) {
+                set(state, flags, state, 0);
+            }
+        }
+
+        // A closed connection answers anything but a reset with a reset
+        forEachFlags(CLOSED, 0, CLOSED, RST_FLAG);
+        forEachFlags(CLOSED, RST_FLAG, CLOSED, 0);
+
+        // Opening a connection (the three-way handshake and simultaneous open)
+        set(LISTEN, SYN_FLAG, SYN_RECEIVED, SYN_FLAG | ACK_FLAG);
+        set(LISTEN, ACK_FLAG, LISTEN, RST_FLAG);
+        set(LISTEN, SYN_FLAG | ACK_FLAG, LISTEN, RST_FLAG);
+        set(SYN_SENT, SYN_FLAG | ACK_FLAG, ESTABLISHED, ACK_FLAG);
+        set(SYN_SENT, SYN_FLAG, SYN_RECEIVED, SYN_FLAG | ACK_FLAG);
+        set(SYN_SENT, RST_FLAG | ACK_FLAG, CLOSED, 0);
+        set(SYN_RECEIVED, ACK_FLAG, ESTABLISHED, 0);
+        set(SYN_RECEIVED, FIN_FLAG | ACK_FLAG, CLOSE_WAIT, ACK_FLAG);
+
+        // Closing a connection, from either end or both at once
+        set(ESTABLISHED, FIN_FLAG, CLOSE_WAIT, ACK_FLAG);
+        set(ESTABLISHED, FIN_FLAG | ACK_FLAG, CLOSE_WAIT, ACK_FLAG);
+        set(FIN_WAIT_1, ACK_FLAG, FIN_WAIT_2, 0);
+        set(FIN_WAIT_1, FIN_FLAG, CLOSING, ACK_FLAG);
+        set(FIN_WAIT_1, FIN_FLAG | ACK_FLAG, TIME_WAIT, ACK_FLAG);
+        set(FIN_WAIT_2, FIN_FLAG, TIME_WAIT, ACK_FLAG);
+        set(FIN_WAIT_2, FIN_FLAG | ACK_FLAG, TIME_WAIT, ACK_FLAG);
+        set(CLOSING, ACK_FLAG, TIME_WAIT, 0);
+        set(LAST_ACK, ACK_FLAG, CLOSED, 0);
+
+        // A repeated FIN means the last acknowledgment was lost, so send it again
+        set(CLOSE_WAIT, FIN_FLAG | ACK_FLAG, CLOSE_WAIT, ACK_FLAG);
+        set(TIME_WAIT, FIN_FLAG, TIME_WAIT, ACK_FLAG);
+        set(TIME_WAIT, FIN_FLAG | ACK_FLAG, TIME_WAIT, ACK_FLAG);
+
+        // A reset aborts a connection request or a synchronized connection.
+        // A request that came from listening goes back to listening.
+        forEachFlags(SYN_RECEIVED, RST_FLAG, CLOSED, 0);
+
+        for (int flags = 0; flags <= FLAG_MASK; flags++) {
+
+            if ((flags & RST_FLAG) != 0) {
+                setInput(SYN_RECEIVED, flags | PASSIVE_OPEN, LISTEN, 0);
+                setInput(SYN_RECEIVED, flags | PASSIVE_OPEN | UNACCEPTABLE_ACK, LISTEN, 0);
+            }
+        }
+
+        for (TcpState state : new TcpState[] {ESTABLISHED, FIN_WAIT_1, FIN_WAIT_2,
+                CLOSE_WAIT, CLOSING, LAST_ACK, TIME_WAIT}) {
+
+            forEachFlags(state, RST_FLAG, CLOSED, 0);
+
+            // A synchronized connection ignores an unacceptable ACK but still
+            // acts on the other flags of the segment
+            for (int input = 0; input <= INPUT_MASK; input++) {
+
+                if ((input & (UNACCEPTABLE_ACK | ACK_FLAG)) == (UNACCEPTABLE_ACK | ACK_FLAG)) {
+
+                    int withoutAck = input & ~(UNACCEPTABLE_ACK | ACK_FLAG);
+                    TRANSITIONS[index(state, input)] = TRANSITIONS[index(state, withoutAck)];
+                }
+            }
+        }
+
+        // A connection request answered with an unacceptable ACK is reset
+        // and the connection keeps waiting, unless the answer was itself a
+        // reset, which is dropped (RFC 793, pages 66 and 70)
+        for (TcpState state : new TcpState[] {SYN_SENT, SYN_RECEIVED}) {
+            for (int flags = 0; flags <= FLAG_MASK; flags++) {
+
+                if ((flags & ACK_FLAG) == 0 || (state == SYN_RECEIVED && (flags & RST_FLAG) != 0)) {
+                    continue;
+                }
+
+                int reply = (flags & RST_FLAG) == 0 ? RST_FLAG : 0;
+
+                setInput(state, flags | UNACCEPTABLE_ACK, state, reply);
+                setInput(state, flags | UNACCEPTABLE_ACK | PASSIVE_OPEN, state, reply);
+            }
+        }
+    }
+
+    private TcpStateMachine() {}
+
+    private static int index(TcpState state, int input) {
+        return state.ordinal() * (INPUT_MASK + 1) + input;
+    }
+
+    /**
+     * Set the transition for the given flags whatever the connection bits
+     * of the input are.
+     */
+    private static void set(TcpState state, int flags, TcpState next, int reply) {
+
+        for (int context : CONTEXTS) {
+            setInput(state, flags | context, next, reply);
+        }
+    }
+
+    private static void setInput(TcpState state, int input, TcpState next, int reply) {
+        TRANSITIONS[index(state, input)] = (short) (reply << STATE_BITS | next.ordinal());
+    }
+
+    /**
+     * Set the transition for every combination of flags that includes the
+     * given flags (or, if none are given, every combination without RST).
+     */
+    private static void forEachFlags(TcpState state, int flags, TcpState next, int reply) {
+
+        for (int other = 0; other <= FLAG_MASK; other++) {
+
+            boolean matches = flags == 0 ? (other & RST_FLAG) == 0 : (other & flags) == flags;
+
+            if (matches) {
+                set(state, other, next, reply);
+            }
+        }
+    }
+
+    /**
+     * Look up the transition for a state and the input made from a received
+     * segment.
+     *
+     * @param state the ordinal of the current state
+     * @param input the SYN, ACK, FIN and RST flags of the segment, with
+     *              {@link #UNACCEPTABLE_ACK} and {@link #PASSIVE_OPEN} if
+     *              they apply (other bits are ignored)
+     * @return      the flags to reply with above the ordinal of the next state;
+     *              see {@link #nextState(int)} and {@link #replyFlags(int)}
+     */
+    static int lookup(int state, int input) {
+        return TRANSITIONS[state * (INPUT_MASK + 1) + (input & INPUT_MASK)];
+    }
+
+    static int nextState(int transition) {
+        return transition & STATE_MASK;
+    }
+
+    static int replyFlags(int transition) {
+        return transition >>> STATE_BITS;
+    }
+
+    /**
+     * Get the state a connection moves to when it receives a segment.
+     *
+     * @param state the current state
+     * @param input the flags of the segment, with {@link #UNACCEPTABLE_ACK}
+     *              and {@link #PASSIVE_OPEN} if they apply
+     * @return      the next state
+     */
+    public static TcpState nextState(TcpState state, int input) {
+        return TcpState.of(nextState(lookup(state.ordinal(), input)));
+    }
+
+    /**
+     * Get the flags of the segment a connection sends in reply to a segment.
+     *
+     * @param state the current state
+     * @param input the flags of the segment, with {@link #UNACCEPTABLE_ACK}
+     *              and {@link #PASSIVE_OPEN} if they apply
+     * @return      the flags to reply with, or 0 to not reply
+     */
+    public static int replyFlags(TcpState state, int input) {
+        return replyFlags(lookup(state.ordinal(), input));
+    }
+}
@@ -0,0 +1,419 @@
+package com.matmorcat;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs {@link WheelTimer}s once their deadlines pass, for the retransmission,
+ * delayed acknowledgment, persist and TIME-WAIT timers of any number of
+ * connections. Time is counted in ticks of a fixed duration from a
+ * {@link Clock}, and a timer expires at the first tick at or after its
+ * deadline, so it is never early and at most one tick late.
+ *
+ * The wheel is hierarchical: level 0 has a slot for each of the next 64
+ * ticks, level 1 a slot for each of the next 64 runs of 64 ticks, and so on,
+ * up to the whole range of a long. A timer is linked into the slot of the
+ * lowest level that can tell its tick apart from the current tick, so arming
+ * and cancelling a timer take constant time however many are armed. When
+ * time reaches the range of a higher slot, its timers are moved down to the
+ * lower levels. Each level keeps a bit for each slot that holds timers, so
+ * the wheel jumps straight over empty slots and advancing over a long idle
+ * period costs no more than advancing by a tick.
+ *
+ * A wheel is not thread-safe. It is meant to be owned by the thread that
+ * runs the connections whose timers it holds.
+ */
+public class TimingWheel {
+
+    // The number of slots in each level is 2^SLOT_BITS, so that the slots
+    // holding timers fit in the bits of a long
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+
+    // Enough levels to cover any tick that fits in a long
+    private static final int LEVELS = (Long.SIZE - 1 + SLOT_BITS - 1) / SLOT_BITS;
+
+    // The slot index of a timer whose tick has come and is about to expire
+    static final int EXPIRING = -1;
+
+    private final Clock clock;
+    private final long tickNanos;
+
+    // The time of tick 0
+    private final long origin;
+
+    // The first timer of each slot, level by level, and the slots that hold
+    // any timers at each level
+    private final WheelTimer[] slots = new WheelTimer[LEVELS * SLOTS];
+    private final long[] occupied = new long[LEVELS];
+
+    // The timers of the current tick that have not expired yet
+    private WheelTimer expiring;
+
+    private long currentTick;
+    private int size;
+
+    /**
+     * Creates an empty wheel whose tick 0 is the current time of the clock.
+     *
+     * @param clock         the clock that gives the time
+     * @param tickDuration  the duration of a tick
+     * @param unit          the unit of the tick duration
+     */
+    public TimingWheel(Clock clock, long tickDuration, TimeUnit unit) {
+
+        this.clock = clock;
+        this.tickNanos = unit.toNanos(tickDuration);
+
+        if (tickNanos < 1) {
+            throw new IllegalArgumentException("A tick must last at least 1 nanosecond!");
+        }
+
+        this.origin = clock.nanoTime();
+    }
+
+
+    // -------------------------------------------------------------------------
+    //
+    // Timer Scheduling Methods
+    //
+    // -------------------------------------------------------------------------
+
+
+    /**
+     * Arm a timer to expire after a delay from the current time of the
+     * clock. A timer that is already armed is moved to its new deadline.
+     *
+     * @param timer the timer to arm
+     * @param delay the time until the timer expires
+     * @param unit  the unit of the delay
+     */
+    public void schedule(WheelTimer timer, long delay, TimeUnit unit) {
+        scheduleAt(timer, clock.nanoTime() + unit.toNanos(delay));
+    }
+
+    /**
+     * Arm a timer to expire at a time of the clock. A timer that is already
+     * armed is moved to its new deadline.
+     *
+     * @param timer     the timer to arm
+     * @param deadline  the time in nanoseconds to expire at
+     */
+    public void scheduleAt(WheelTimer timer, long deadline) {
+
+        if (timer.wheel != null) {
+            timer.wheel.cancel(timer);
+        }
+
+        // Round up to the first tick at or after the deadline
+        long elapsed = deadline - origin;
+
+        timer.expiryTick = elapsed <= 0 ? 0 : (elapsed - 1) / tickNanos + 1;
+        timer.setDeadline(deadline);
+        timer.wheel = this;
+
+        size++;
+        place(timer);
+    }
+
+    /**
+     * Disarm a timer so that it does not expire.
+     *
+     * @param timer the timer to disarm
+     * @return      true if the timer was armed in this wheel
+     */
+    public boolean cancel(WheelTimer timer) {
+
+        if (timer.wheel != this) {
+            return false;
+        }
+
+        unlink(timer);
+        timer.wheel = null;
+        size--;
+
+        return true;
+    }
+
+
+    // -------------------------------------------------------------------------
+    //
+    // Timer Expiry Methods
+    //
+    // -------------------------------------------------------------------------
+
+
+    /**
+     * Expire every timer whose deadline has passed by the current time of
+     * the clock.
+     *
+     * @return              the number of timers that expired
+     * @throws Exception    if a timer failed to handle its expiry, in which
+     *                      case the timers left to expire do so on the next
+     *                      advance
+     */
+    public int advance() throws Exception {
+        return advanceTo(clock.nanoTime());
+    }
+
+    /**
+     * Expire every timer whose deadline has passed by the given time, in the
+     * order of their ticks.
+     *
+     * @param time          the time in nanoseconds to advance to
+     * @return              the number of timers that expired
+     * @throws Exception    if a timer failed to handle its expiry
+     */
+    public int advanceTo(long time) throws Exception {
+
+        long target = Math.max(Math.floorDiv(time - origin, tickNanos), currentTick);
+
+        // Finish the timers left over by a failed expiry first
+        int expired = runExpiring();
+
+        while (true) {
+
+            expired += expireCurrentTick();
+
+            if (currentTick >= target) {
+                return expired;
+            }
+
+            currentTick = nextTick(target);
+        }
+    }
+
+    /**
+     * Get the earliest time at which advancing the wheel may expire a timer,
+     * so that a simulation can move its clock straight there. Advancing to
+     * that time may only move timers down a level, in which case this gives
+     * a later time afterwards.
+     *
+     * @return  the time in nanoseconds, or {@link Long#MAX_VALUE} if no
+     *          timers are armed
+     */
+    public long getNextCheckTime() {
+
+        if (size == 0) {
+            return Long.MAX_VALUE;
+        }
+
+        long tick = expiring != null || slots[digit(currentTick, 0)] != null
+                ? currentTick
+                : nextTick(Long.MAX_VALUE);
+
+        // A tick too far away to give as a time is as good as never
+        if (tick > (Long.MAX_VALUE - Math.max(origin, 0)) / tickNanos) {
+            return Long.MAX_VALUE;
+        }
+
+        return origin + tick * tickNanos;
+    }
+
+    /**
+     * Move the timers of the current tick down from the higher levels, then
+     * expire the timers in its level 0 slot.
+     */
+    private int expireCurrentTick() throws Exception {
+
+        // From the top, since a higher slot may move timers into a lower one
+        for (int level = LEVELS - 1; level > 0; level--) {
+
+            int index = level * SLOTS + digit(currentTick, level);
+
+            if (slots[index] != null) {
+                cascade(index);
+            }
+        }
+
+        int index = digit(currentTick, 0);
+        WheelTimer first = slots[index];
+
+        if (first == null) {
+            return 0;
+        }
+
+        // Timers armed for this tick while these expire wait for the next advance
+        slots[index] = null;
+        occupied[0] &= ~(1L << index);
+
+        for (WheelTimer timer = first; timer != null; timer = timer.next) {
+            timer.slot = EXPIRING;
+        }
+
+        expiring = first;
+
+        return runExpiring();
+    }
+
+    /**
+     * Expire the timers in the expiring list one at a time, so that a timer
+     * can cancel another that has not expired yet.
+     */
+    private int runExpiring() throws Exception {
+
+        int expired = 0;
+        WheelTimer timer;
+
+        while ((timer = expiring) != null) {
+
+            unlink(timer);
+            timer.wheel = null;
+            size--;
+            expired++;
+
+            timer.expire();
+        }
+
+        return expired;
+    }
+
+    /**
+     * Find the next tick that has timers to move or expire, but no later than
+     * the target.
+     */
+    private long nextTick(long target) {
+
+        for (int level = 0; level < LEVELS; level++) {
+
+            int shift = level * SLOT_BITS;
+
+            // The slots after the current tick's slot at this level
+            long later = occupied[level] & (-2L << digit(currentTick, level));
+
+            if (later != 0) {
+
+                // The tick that starts the first of those slots
+                long base = shift + SLOT_BITS >= Long.SIZE ? 0 : currentTick >>> (shift + SLOT_BITS) << (shift + SLOT_BITS);
+                long tick = base | (long) Long.numberOfTrailingZeros(later) << shift;
+
+                return Math.min(tick, target);
+            }
+        }
+
+        return target;
+    }
+
+
+    // -------------------------------------------------------------------------
+    //
+    // Helper Slot List Methods
+    //
+    // -------------------------------------------------------------------------
+
+
+    /**
+     * Link a timer into the slot for its tick, relative to the current tick.
+     */
+    private void place(WheelTimer timer) {
+
+        long tick = Math.max(timer.expiryTick, currentTick);
+
+        // The level of the highest digit that differs from the current tick
+        long difference = tick ^ currentTick;
+        int level = difference == 0 ? 0 : (Long.SIZE - 1 - Long.numberOfLeadingZeros(difference)) / SLOT_BITS;
+        int index = level * SLOTS + digit(tick, level);
+
+        WheelTimer first = slots[index];
+
+        timer.slot = index;
+        timer.previous = null;
+        timer.next = first;
+
+        if (first != null) {
+            first.previous = timer;
+        }
+
+        slots[index] = timer;
+        occupied[level] |= 1L << (index & (SLOTS - 1));
+    }
+
+    /**
+     * Move the timers of a higher slot to the lower levels.
+     */
+    private void cascade(int index) {
+
+        WheelTimer timer = slots[index];
+
+        slots[index] = null;
+        occupied[index / SLOTS] &= ~(1L << (index & (SLOTS - 1)));
+
+        while (timer != null) {
+
+            WheelTimer next = timer.next;
+            place(timer);
+            timer = next;
+        }
+    }
+
+    /**
+     * Unlink a timer from the slot or expiring list it is in.
+     */
+    private void unlink(WheelTimer timer) {
+
+        WheelTimer previous = timer.previous;
+        WheelTimer next = timer.next;
+
+        if (previous != null) {
+            previous.next = next;
+        } else if (timer.slot == EXPIRING) {
+            expiring = next;
+        } else {
+
+            slots[timer.slot] = next;
+
+            if (next == null) {
+                occupied[timer.slot / SLOTS] &= ~(1L << (timer.slot & (SLOTS - 1)));
+            }
+        }
+
+        if (next != null) {
+            next.previous = previous;
+        }
+
+        timer.previous = null;
+        timer.next = null;
+    }
+
+    private static int digit(long tick, int level) {
+        return (int) (tick >>> (level * SLOT_BITS)) & (SLOTS - 1);
+    }
+
+
+    // -------------------------------------------------------------------------
+    //
+    // Timing Wheel Getter Methods
+    //
+    // -------------------------------------------------------------------------
+
+
+    public Clock getClock() {
+        return clock;
+    }
+
+    /**
+     * Get the duration of a tick.
+     *
+     * @return  the tick duration in nanoseconds
+     */
+    public long getTickNanos() {
+        return tickNanos;
+    }
+
+    /**
+     * Get the number of armed timers.
+     *
+     * @return  the number of timers
+     */
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return "TimingWheel{" +
+                "tickNanos=" + tickNanos +
+                ", currentTick=" + currentTick +
+                ", size=" + size +
+                '}';
+    }
+}
@@ -1,5 +1,9 @@
 package com.matmorcat;
 
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
 /**
  * This object defines the functional model of the Transport Layer for TCP/IP
  * specifications.
@@ -9,33 +13,89 @@ package com.matmorcat;
 public class TransportLayer {
 
     //private String ipAddress;
-    private Segment segment;
+
+    // The current segment. A receiving thread may replace it while another
+    // thread takes it, so it is only ever swapped, and whichever thread swaps
+    // a segment out is the one that releases or keeps it.
+    private final AtomicReference<Segment> segment = new AtomicReference<>();
+
+    // The number of received segments that were discarded, and why the last
+    // one was discarded
+    private long rejectedSegmentCount;
+    private SegmentError lastRejection = SegmentError.NONE;
+
+    // Whether a segment has been received since the last one was taken, and
+    // the thread waiting for it in receiveSegment() (if any)
+    private volatile boolean segmentReceived;
+    private volatile Thread waitingReceiver;
 
     public TransportLayer() {
         //setIpAddress(ipAddress);
     }
 
-    public void pushSegment(TransportLayer receiver) throws Exception {
+    /**
+     * Push the current segment to the receiving host. A pooled segment is
+     * handed over to the receiver, so it is no longer held by this Transport
+     * Layer afterwards.
+     *
+     * @param receiver      the Transport Layer of the receiving host
+     * @return              true if the receiver accepted the segment, false if
+     *                      it was discarded
+     * @throws Exception    if the segment could not be passed on
+     */
+    public boolean pushSegment(TransportLayer receiver) throws Exception {
+
+        Segment segment = getSegment();
+
+        // A pooled segment has one owner at a time, so it leaves the sender
+        if (segment.isPooled()) {
+            segment = this.segment.getAndSet(null);
+        }
 
         // Push the segment to the receiving host
-        receiver.pullSegment(getSegment());
+        return receiver.pullSegment(segment);
     }
 
-    private void pullSegment(Segment segment) throws Exception {
+    /**
+     * Receive a segment pushed by a sending host.
+     *
+     * @param segment       the segment that was pushed
+     * @return              true if the segment was accepted, false if it was
+     *                      discarded
+     * @throws Exception    if the segment could not be received
+     */
+    boolean pullSegment(Segment segment) throws Exception {
 
-        // If the checksum of the received segment is not valid
+        // If the checksum of the received segment is not valid, the segment
+        // has been corrupted and is discarded
         if (!segment.segmentHasValidChecksum()) {
 
-            throw new Exception("Received segment does not have a valid " +
-                    "checksum. The segment has been corrupted and will be " +
-                    "discarded!");
+            rejectedSegmentCount++;
+            lastRejection = SegmentError.INVALID_CHECKSUM;
+
+            // Nothing else holds a discarded pooled segment
+            segment.release();
+
+            return false;
         }
         // Set the current working segment to the received segment
         setSegment(segment);
 
+        // Wake a thread waiting in receiveSegment(). Both fields are volatile,
+        // so either the waiting thread sees the segment before it parks or
+        // its thread is seen here.
+        segmentReceived = true;
+
+        Thread waiting = waitingReceiver;
+
+        if (waiting != null) {
+            LockSupport.unpark(waiting);
+        }
+
+        return true;
     }
     public Segment getSegment() {
-        return segment;
+        return segment.get();
     }
 
     public void setSegment(Segment segment) throws Exception {
@@ -43,6 +103,135 @@ public class TransportLayer {
         // Generate a new checksum
         segment.generateNewChecksum();
 
-        this.segment = segment;
+        // A pooled segment that is replaced is no longer needed
+        Segment replaced = this.segment.getAndSet(segment);
+
+        if (replaced != null && replaced != segment) {
+            replaced.release();
+        }
+    }
+
+    /**
+     * Take the current segment away from this Transport Layer. The caller
+     * becomes the owner of the segment and must release it if it is pooled.
+     *
+     * @return  the current segment, or null if there is none
+     */
+    public Segment takeSegment() {
+
+        segmentReceived = false;
+
+        return segment.getAndSet(null);
+    }
+
+    /**
+     * Wait for a segment to be received from a sending host, then take it in
+     * the same way as {@link #takeSegment()}. Only one thread may wait on a
+     * Transport Layer at a time.
+     *
+     * The thread parks while it waits rather than holding a lock or a
+     * monitor, so waiting costs little even for a virtual thread.
+     *
+     * @return  the received segment
+     * @throws InterruptedException if the thread was interrupted while waiting
+     */
+    public Segment receiveSegment() throws InterruptedException {
+
+        return receiveSegment(false, 0);
+    }
+
+    /**
+     * Wait up to the given time for a segment to be received from a sending
+     * host, then take it in the same way as {@link #takeSegment()}.
+     *
+     * @param timeout   the longest time to wait
+     * @param unit      the unit of the timeout
+     * @return          the received segment, or null if none was received in
+     *                  time
+     * @throws InterruptedException if the thread was interrupted while waiting
+     */
+    public Segment receiveSegment(long timeout, TimeUnit unit) throws InterruptedException {
+        return receiveSegment(true, System.nanoTime() + Math.max(unit.toNanos(timeout), 0));
+    }
+
+    /**
+     * Wait for a segment, until the given deadline (in {@link System#nanoTime()}
+     * time) if the wait is timed.
+     */
+    private Segment receiveSegment(boolean timed, long deadline) throws InterruptedException {
+
+        Segment received;
+
+        // A segment received just after the last one was taken sets the flag
+        // again, but the segment may have been taken with the last one, so
+        // the flag alone does not mean there is a segment
+        while ((received = waitForSegment(timed, deadline)) == null) {
+
+            if (timed && deadline - System.nanoTime() <= 0) {
+                return null;
+            }
+        }
+
+        return received;
+    }
+
+    /**
+     * Wait until a segment has been received, then take the current segment,
+     * which is null if it was already taken.
+     */
+    private Segment waitForSegment(boolean timed, long deadline) throws InterruptedException {
+
+        while (!segmentReceived) {
+
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+
+            waitingReceiver = Thread.currentThread();
+
+            if (!segmentReceived) {
+
+                if (!timed) {
+
+                    LockSupport.park(this);
+
+                } else {
+
+                    long remaining = deadline - System.nanoTime();
+
+                    if (remaining <= 0) {
+
+                        waitingReceiver = null;
+                        return null;
+                    }
+
+                    LockSupport.parkNanos(this, remaining);
+                }
+            }
+
+            waitingReceiver = null;
+        }
+
+        return takeSegment();
+    }
+
+    /**
+     * Get the number of received segments that were discarded because they
+     * were corrupted.
+     *
+     * @return  the number of discarded segments
+     */
+    public long getRejectedSegmentCount() {
+        return rejectedSegmentCount;
+    }
+
+    /**
+     * Get the reason the last discarded segment was discarded.
+     *
+     * @return  the reason, or {@link SegmentError#NONE} if no segment has
+     *          been discarded
+     */
+    public SegmentError getLastRejection() {
+        return lastRejection;
     }
 }
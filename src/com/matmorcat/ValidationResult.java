@@ -0,0 +1,93 @@
+package com.matmorcat;
+
+/**
+ * Holds the outcome of validating a segment without throwing an exception.
+ * A result can be reused for any number of validations, so rejecting a
+ * malformed segment costs no more than accepting a valid one.
+ */
+public final class ValidationResult {
+
+    private SegmentError error = SegmentError.NONE;
+    private int offset = -1;
+
+    /**
+     * Record a successful validation.
+     *
+     * @return  true
+     */
+    boolean pass() {
+
+        this.error = SegmentError.NONE;
+        this.offset = -1;
+
+        return true;
+    }
+
+    /**
+     * Record a failed validation at the offset of the field that caused it.
+     *
+     * @param error the reason for the failure
+     * @return      false
+     */
+    boolean fail(SegmentError error) {
+        return fail(error, error.getFieldOffsetInBits());
+    }
+
+    /**
+     * Record a failed validation.
+     *
+     * @param error     the reason for the failure
+     * @param offset    where in the input the failure was found
+     * @return          false
+     */
+    boolean fail(SegmentError error, int offset) {
+
+        this.error = error;
+        this.offset = offset;
+
+        return false;
+    }
+
+    public boolean isValid() {
+        return error == SegmentError.NONE;
+    }
+
+    public SegmentError getError() {
+        return error;
+    }
+
+    /**
+     * Get where in the input the failure was found. For
+     * {@link SegmentError#INVALID_CHARACTER} this is the index of the invalid
+     * character, otherwise it is the offset in bits from the start of the
+     * pseudo-header.
+     *
+     * @return  the offset of the failure, or -1 if it has no single location
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * Create the exception that describes the failure, for callers that
+     * report invalid segments by throwing.
+     *
+     * @return  the exception describing the failure
+     */
+    public Exception toException() {
+
+        if (error == SegmentError.INVALID_CHARACTER) {
+            return new Exception(error.getMessage() + " Invalid character at index " + offset + ".");
+        }
+
+        return new Exception(error.getMessage());
+    }
+
+    @Override
+    public String toString() {
+        return "ValidationResult{" +
+                "error=" + error +
+                ", offset=" + offset +
+                '}';
+    }
+}
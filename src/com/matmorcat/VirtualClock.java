@@ -0,0 +1,62 @@
+package com.matmorcat;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A clock whose time only changes when it is set or advanced, for simulated
+ * time. Time never goes backwards.
+ */
+public class VirtualClock implements Clock {
+
+    private long now;
+
+    /**
+     * Creates a clock at time 0.
+     */
+    public VirtualClock() {
+        this(0);
+    }
+
+    /**
+     * Creates a clock at the given time.
+     *
+     * @param start the time in nanoseconds
+     */
+    public VirtualClock(long start) {
+        this.now = start;
+    }
+
+    @Override
+    public long nanoTime() {
+        return now;
+    }
+
+    /**
+     * Move the clock forward to the given time.
+     *
+     * @param time  the new time in nanoseconds
+     */
+    public void advanceTo(long time) {
+
+        if (time < now) {
+            throw new IllegalArgumentException("The clock cannot go back from " + now + " to " + time + "!");
+        }
+
+        now = time;
+    }
+
+    /**
+     * Move the clock forward by the given duration.
+     *
+     * @param duration  the time to move forward by
+     * @param unit      the unit of the duration
+     */
+    public void advanceBy(long duration, TimeUnit unit) {
+        advanceTo(now + unit.toNanos(duration));
+    }
+
+    @Override
+    public String toString() {
+        return "VirtualClock{now=" + now + '}';
+    }
+}
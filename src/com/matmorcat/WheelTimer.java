@@ -0,0 +1,57 @@
+package com.matmorcat;
+
+/**
+ * A timer that can be armed in a {@link TimingWheel}. The timer is the node
+ * of the wheel's lists itself, so arming and cancelling it creates no objects
+ * and a connection can keep one timer of each kind and re-arm it for as long
+ * as it lives.
+ *
+ * A timer is armed in at most one wheel at a time.
+ */
+public abstract class WheelTimer {
+
+    // The neighbours in the list of the wheel slot the timer is in
+    WheelTimer previous;
+    WheelTimer next;
+
+    // The wheel the timer is armed in, or null
+    TimingWheel wheel;
+
+    // The index of the slot the timer is in, or TimingWheel.EXPIRING
+    int slot;
+
+    // The tick the timer expires at
+    long expiryTick;
+
+    private long deadline;
+
+    /**
+     * Called by the wheel once the deadline has passed. The timer is no
+     * longer armed, so it can be armed again from here.
+     *
+     * @throws Exception    if the expiry could not be handled
+     */
+    protected abstract void expire() throws Exception;
+
+    /**
+     * Check whether the timer is armed.
+     *
+     * @return  true if the timer is waiting to expire
+     */
+    public boolean isArmed() {
+        return wheel != null;
+    }
+
+    /**
+     * Get the time the timer was last armed to expire at.
+     *
+     * @return  the deadline in nanoseconds of the wheel's clock
+     */
+    public long getDeadline() {
+        return deadline;
+    }
+
+    void setDeadline(long deadline) {
+        this.deadline = deadline;
+    }
+}
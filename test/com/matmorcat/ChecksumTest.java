@@ -0,0 +1,133 @@
+package com.matmorcat;
+
+import static com.matmorcat.Tests.check;
+import static com.matmorcat.Tests.checkEquals;
+
+import java.util.Random;
+
+/**
+ * Checks that updating a checksum for a changed word (RFC 1624) gives the
+ * same checksum as summing all of the data again, both for
+ * {@link Checksum#update(int, int, int)} on its own and for the header
+ * setters of {@link Segment}, which use it.
+ */
+final class ChecksumTest {
+
+    private ChecksumTest() {}
+
+    static void run() throws Exception {
+
+        updateMatchesFullSum();
+        updateMatchesFullSumAtBoundaries();
+        settersMatchNewChecksum();
+    }
+
+    /**
+     * Change random words of random data and compare the updated checksum
+     * with a new one.
+     */
+    private static void updateMatchesFullSum() {
+
+        Random random = new Random(1624);
+
+        for (int i = 0; i < 10_000; i++) {
+
+            byte[] data = new byte[2 + 2 * random.nextInt(64)];
+            random.nextBytes(data);
+
+            int checksum = Checksum.complement(Checksum.sum(data, 0, data.length, 0));
+
+            int index = 2 * random.nextInt(data.length / 2);
+            int oldWord = (int) Bits.read(data, index * 8, 16);
+            int newWord = random.nextInt(0x10000);
+
+            Bits.write(data, index * 8, 16, newWord);
+
+            checkEquals(Checksum.complement(Checksum.sum(data, 0, data.length, 0)),
+                    Checksum.update(checksum, oldWord, newWord), "checksum after changing word " + index / 2);
+        }
+    }
+
+    /**
+     * The cases RFC 1624 was written for: changes that make the sum of the
+     * other words come to 0xFFFF (negative zero) or 0.
+     */
+    private static void updateMatchesFullSumAtBoundaries() {
+
+        int[][] words = {
+                {0x0000, 0xFFFF},
+                {0xFFFF, 0x0000},
+                {0x0001, 0xFFFE},
+                {0xFFFF, 0xFFFF},
+                {0x8000, 0x7FFF}
+        };
+
+        for (int[] pair : words) {
+            for (int newWord : new int[] {0x0000, 0xFFFF, 0x0001, pair[0]}) {
+
+                byte[] data = new byte[4];
+
+                Bits.write(data, 0, 16, pair[0]);
+                Bits.write(data, 16, 16, pair[1]);
+
+                int checksum = Checksum.complement(Checksum.sum(data, 0, data.length, 0));
+
+                Bits.write(data, 0, 16, newWord);
+
+                // A sum of only zero words is the one case where a full sum
+                // gives 0xFFFF and an update gives the other zero, 0x0000.
+                // Both verify, and it cannot happen in a segment, whose
+                // pseudo-header holds the protocol.
+                checkEquals(zero(Checksum.complement(Checksum.sum(data, 0, data.length, 0))),
+                        zero(Checksum.update(checksum, pair[0], newWord)),
+                        String.format("checksum of %04X %04X after changing to %04X", pair[0], pair[1], newWord));
+            }
+        }
+    }
+
+    /**
+     * Map the two one's complement zeros to one value.
+     */
+    private static int zero(int checksum) {
+        return checksum == 0xFFFF ? 0 : checksum;
+    }
+
+    /**
+     * Rewrite the header fields of segments with odd and even payload
+     * lengths, and compare the checksum each setter leaves with the one
+     * calculated from scratch.
+     */
+    private static void settersMatchNewChecksum() throws Exception {
+
+        Random random = new Random(793);
+
+        for (int payloadLength : new int[] {1, 2, 3, 64, 127, 1460}) {
+
+            Segment segment = Tests.createSegment(payloadLength, random);
+
+            for (int i = 0; i < 500; i++) {
+
+                switch (random.nextInt(8)) {
+                    case 0: segment.setSourcePort(random.nextInt(0x10000)); break;
+                    case 1: segment.setDestPort(random.nextInt(0x10000)); break;
+                    case 2: segment.setSequenceNumber(random.nextInt() & 0xFFFFFFFFL); break;
+                    case 3: segment.setAcknowledgmentNumber(random.nextInt() & 0xFFFFFFFFL); break;
+                    case 4: segment.setWindowSize(random.nextInt(0x10000)); break;
+                    case 5: segment.setUrgentPointer(random.nextInt(0x10000)); break;
+                    case 6: segment.setFlags(Segment.URG_FLAG | random.nextInt(0x20)); break;
+                    default: segment.setFlagPush(random.nextBoolean()); break;
+                }
+
+                int updated = segment.getChecksum();
+
+                check(segment.segmentHasValidChecksum(), "the checksum is valid after update " + i
+                        + " of a segment with " + payloadLength + " payload bytes");
+
+                segment.generateNewChecksum();
+
+                checkEquals(segment.getChecksum(), updated, "updated checksum of a segment with "
+                        + payloadLength + " payload bytes");
+            }
+        }
+    }
+}
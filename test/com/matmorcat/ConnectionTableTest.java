@@ -0,0 +1,134 @@
+package com.matmorcat;
+
+import static com.matmorcat.Tests.check;
+import static com.matmorcat.Tests.checkEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Checks {@link ConnectionTable} against a {@link HashMap} through random
+ * puts and removes, from a table small enough that it grows several times
+ * and removes close many gaps in long probe sequences.
+ */
+final class ConnectionTableTest {
+
+    private ConnectionTableTest() {}
+
+    static void run() {
+
+        putReplaceRemove();
+        matchesMap();
+        growsAndClears();
+    }
+
+    private static void putReplaceRemove() {
+
+        ConnectionTable<String> table = new ConnectionTable<>(1);
+
+        checkEquals(null, table.put(0xC0A80001L, 0xC0A80002L, 80, 49152, "a"), "put into an empty table");
+        checkEquals("a", table.get(0xC0A80001L, 0xC0A80002L, 80, 49152), "get after put");
+
+        // The same addresses and ports the other way round are another connection
+        checkEquals(null, table.get(0xC0A80002L, 0xC0A80001L, 49152, 80), "get of the reversed 4-tuple");
+
+        // Bits above the 32 bits of an address and the 16 bits of a port are ignored
+        checkEquals("a", table.get(0x1_C0A80001L, 0xC0A80002L, 80 | 0x10000, 49152), "get with higher bits set");
+
+        checkEquals("a", table.put(0xC0A80001L, 0xC0A80002L, 80, 49152, "b"), "put replacing a connection");
+        checkEquals(1, table.size(), "size after replacing");
+
+        checkEquals("b", table.remove(0xC0A80001L, 0xC0A80002L, 80, 49152), "remove");
+        checkEquals(null, table.remove(0xC0A80001L, 0xC0A80002L, 80, 49152), "remove twice");
+        checkEquals(0, table.size(), "size after remove");
+
+        try {
+
+            table.put(1, 2, 3, 4, null);
+            check(false, "a null connection was accepted");
+
+        } catch (NullPointerException expected) {
+            // The table uses null for empty slots
+        }
+    }
+
+    private static void matchesMap() {
+
+        Random random = new Random(19);
+
+        ConnectionTable<Long> table = new ConnectionTable<>(4);
+        Map<Long, Long> map = new HashMap<>();
+
+        for (int i = 0; i < 200_000; i++) {
+
+            // Few enough 4-tuples that most operations hit one already there
+            long sourceAddress = 0x0A000000L | random.nextInt(64);
+            long destAddress = 0x0A000100L;
+            int sourcePort = random.nextInt(4) == 0 ? 65535 : 1024 + random.nextInt(32);
+            int destPort = 443;
+
+            long key = sourceAddress << 16 | sourcePort;
+
+            if (random.nextInt(3) == 0) {
+
+                checkEquals(map.remove(key), table.remove(sourceAddress, destAddress, sourcePort, destPort),
+                        "removed connection " + i);
+
+            } else {
+
+                Long value = (long) i;
+
+                checkEquals(map.put(key, value), table.put(sourceAddress, destAddress, sourcePort, destPort, value),
+                        "replaced connection " + i);
+            }
+
+            checkEquals(map.size(), table.size(), "size after operation " + i);
+
+            // Every so often, check that every connection can still be found
+            if (i % 10_000 == 0) {
+
+                for (Map.Entry<Long, Long> entry : map.entrySet()) {
+
+                    long k = entry.getKey();
+
+                    checkEquals(entry.getValue(), table.get(k >>> 16, destAddress, (int) k & 0xFFFF, destPort),
+                            "connection after operation " + i);
+                }
+            }
+        }
+    }
+
+    private static void growsAndClears() {
+
+        ConnectionTable<Integer> table = new ConnectionTable<>(0);
+        int count = 100_000;
+
+        for (int i = 0; i < count; i++) {
+            table.put(i, ~i, i, ~i, i);
+        }
+
+        checkEquals(count, table.size(), "size after growing");
+
+        for (int i = 0; i < count; i++) {
+            checkEquals((Integer) i, table.get(i, ~i, i & 0xFFFF, ~i & 0xFFFF), "connection " + i + " after growing");
+        }
+
+        // Remove every other connection, and check the rest moved into the gaps correctly
+        for (int i = 0; i < count; i += 2) {
+            checkEquals((Integer) i, table.remove(i, ~i, i, ~i), "removed connection " + i);
+        }
+
+        for (int i = 0; i < count; i++) {
+            checkEquals(i % 2 == 0 ? null : i, table.get(i, ~i, i, ~i), "connection " + i + " after removes");
+        }
+
+        table.clear();
+
+        checkEquals(0, table.size(), "size after clear");
+        checkEquals(null, table.get(1, ~1, 1, ~1), "connection after clear");
+
+        table.put(1, 2, 3, 4, 5);
+        checkEquals((Integer) 5, table.get(1, 2, 3, 4), "connection put after clear");
+    }
+}
@@ -0,0 +1,155 @@
+package com.matmorcat;
+
+import static com.matmorcat.Tests.check;
+import static com.matmorcat.Tests.checkEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Checks that {@link ReassemblyBuffer} puts a stream back together across the
+ * point where sequence numbers wrap around at 32 bits, and that it counts
+ * out-of-order, duplicate and trimmed bytes the same way as a simple model
+ * that tracks each byte of the stream.
+ */
+final class ReassemblyBufferTest {
+
+    private ReassemblyBufferTest() {}
+
+    static void run() {
+
+        wrapsAround();
+        matchesModel();
+    }
+
+    /**
+     * Receive a stream whose sequence numbers wrap around in the middle, in
+     * an order that leaves a gap on both sides of the wrap.
+     */
+    private static void wrapsAround() {
+
+        byte[] stream = new byte[64];
+        new Random(32).nextBytes(stream);
+
+        long initialSequence = 0xFFFFFFE0L;
+        ReassemblyBuffer buffer = new ReassemblyBuffer(64, initialSequence);
+
+        // Bytes 40 to 48, past the wrap, then 16 to 32, which end on it
+        checkEquals(0, buffer.insert(initialSequence + 40 & 0xFFFFFFFFL, stream, 40, 8), "readable after bytes 40 to 48");
+        checkEquals(0, buffer.insert(initialSequence + 16, stream, 16, 16), "readable after bytes 16 to 32");
+        checkEquals(2, buffer.getHoleCount(), "holes before the first bytes");
+        checkEquals(24, buffer.getOutOfOrderBytes(), "out-of-order bytes before the first bytes");
+
+        // Bytes 0 to 20 fill the first gap and overlap the range after it
+        checkEquals(32, buffer.insert(initialSequence, stream, 0, 20), "readable after bytes 0 to 20");
+        checkEquals(4, buffer.getDuplicateBytes(), "duplicates after bytes 0 to 20");
+        checkEquals(0, buffer.getReceiveNext(), "next sequence number at the wrap");
+
+        // Bytes 28 to 64 repeat 4 bytes before the wrap and 8 after it
+        checkEquals(32, buffer.insert(initialSequence + 28, stream, 28, 36), "readable after bytes 28 to 64");
+        checkEquals(16, buffer.getDuplicateBytes(), "duplicates after bytes 28 to 64");
+        checkEquals(0, buffer.getHoleCount(), "holes at the end");
+        checkEquals(0, buffer.getOutOfOrderBytes(), "out-of-order bytes at the end");
+        checkEquals(32, buffer.getReceiveNext(), "next sequence number at the end");
+        checkEquals(64, buffer.getBytesReceived(), "bytes received at the end");
+
+        byte[] read = new byte[64];
+
+        checkEquals(64, buffer.read(read, 0, 64), "bytes read");
+        check(Arrays.equals(stream, read), "the stream read is the stream sent");
+    }
+
+    /**
+     * Insert random pieces of a stream, starting near the wrap, and compare
+     * the buffer with a model that marks each byte of the stream as it
+     * arrives.
+     */
+    private static void matchesModel() {
+
+        Random random = new Random(21);
+
+        for (int trial = 0; trial < 2000; trial++) {
+
+            int capacity = 1 << 4 + random.nextInt(8);
+            long initialSequence = 0xFFFFFFFFL - random.nextInt(5000);
+
+            ReassemblyBuffer buffer = new ReassemblyBuffer(capacity, initialSequence);
+
+            byte[] stream = new byte[capacity * 4];
+            random.nextBytes(stream);
+
+            byte[] read = new byte[stream.length];
+            int readCount = 0;
+
+            // The model: which bytes arrived, and the counts they give
+            boolean[] arrived = new boolean[stream.length];
+            int received = 0;
+            long duplicateBytes = 0;
+            long trimmedBytes = 0;
+
+            for (int step = 0; step < 400; step++) {
+
+                int start = Math.max(0, readCount + random.nextInt(capacity) - capacity / 4);
+                int length = 1 + random.nextInt(Math.max(1, capacity / 3));
+
+                if (start + length > stream.length) {
+                    continue;
+                }
+
+                int limit = readCount + capacity;
+
+                for (int i = start; i < start + length; i++) {
+
+                    if (i >= limit) {
+                        trimmedBytes++;
+                    } else if (arrived[i]) {
+                        duplicateBytes++;
+                    } else {
+                        arrived[i] = true;
+                    }
+                }
+
+                int receivedBefore = received;
+
+                while (received < stream.length && arrived[received]) {
+                    received++;
+                }
+
+                String what = "trial " + trial + ", step " + step;
+
+                checkEquals(received - receivedBefore, buffer.insert(initialSequence + start & 0xFFFFFFFFL,
+                        stream, start, length), "readable bytes after " + what);
+                checkEquals(received, buffer.getBytesReceived(), "bytes received after " + what);
+                checkEquals(initialSequence + received & 0xFFFFFFFFL, buffer.getReceiveNext(),
+                        "next sequence number after " + what);
+                checkEquals(duplicateBytes, buffer.getDuplicateBytes(), "duplicates after " + what);
+                checkEquals(trimmedBytes, buffer.getTrimmedBytes(), "trimmed bytes after " + what);
+
+                long outOfOrderBytes = 0;
+                int holeCount = 0;
+
+                for (int i = received; i < Math.min(stream.length, limit); i++) {
+
+                    if (arrived[i]) {
+
+                        outOfOrderBytes++;
+
+                        if (!arrived[i - 1]) {
+                            holeCount++;
+                        }
+                    }
+                }
+
+                checkEquals(outOfOrderBytes, buffer.getOutOfOrderBytes(), "out-of-order bytes after " + what);
+                checkEquals(holeCount, buffer.getHoleCount(), "holes after " + what);
+
+                if (random.nextBoolean()) {
+                    readCount += buffer.read(read, readCount, random.nextInt(capacity));
+                }
+            }
+
+            check(Arrays.equals(Arrays.copyOf(stream, readCount), Arrays.copyOf(read, readCount)),
+                    "the stream read is the stream sent in trial " + trial);
+        }
+    }
+}
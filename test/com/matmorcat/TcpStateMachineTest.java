@@ -0,0 +1,236 @@
+package com.matmorcat;
+
+import static com.matmorcat.Segment.ACK_FLAG;
+import static com.matmorcat.Segment.FIN_FLAG;
+import static com.matmorcat.Segment.RST_FLAG;
+import static com.matmorcat.Segment.SYN_FLAG;
+import static com.matmorcat.TcpState.*;
+import static com.matmorcat.TcpStateMachine.INPUT_MASK;
+import static com.matmorcat.TcpStateMachine.PASSIVE_OPEN;
+import static com.matmorcat.TcpStateMachine.UNACCEPTABLE_ACK;
+import static com.matmorcat.Tests.checkEquals;
+
+/**
+ * Checks every transition of the {@link TcpStateMachine} table against the
+ * rules of RFC 793 written out state by state, for every combination of
+ * flags with and without an unacceptable ACK and a passive open, and then
+ * walks a few whole connections through it.
+ */
+final class TcpStateMachineTest {
+
+    private TcpStateMachineTest() {}
+
+    static void run() {
+
+        everyTransition();
+        connections();
+    }
+
+    private static void everyTransition() {
+
+        for (TcpState state : TcpState.values()) {
+            for (int input = 0; input <= INPUT_MASK; input++) {
+
+                int[] expected = expected(state, input);
+                String what = state + " on " + describe(input);
+
+                checkEquals(TcpState.of(expected[0]), TcpStateMachine.nextState(state, input), "next state of " + what);
+                checkEquals(expected[1], TcpStateMachine.replyFlags(state, input), "reply to " + what);
+
+                // Bits above the flags of the segment are ignored
+                int withOtherBits = input | 0xFF00;
+
+                checkEquals(TcpStateMachine.lookup(state.ordinal(), input),
+                        TcpStateMachine.lookup(state.ordinal(), withOtherBits), "bits outside the input of " + what);
+            }
+        }
+    }
+
+    /**
+     * Work out a transition from the rules of RFC 793.
+     *
+     * @return  the ordinal of the next state and the flags to reply with
+     */
+    private static int[] expected(TcpState state, int input) {
+
+        int flags = input & TcpStateMachine.FLAG_MASK;
+        boolean reset = (flags & RST_FLAG) != 0;
+        boolean unacceptableAck = (flags & ACK_FLAG) != 0 && (input & UNACCEPTABLE_ACK) != 0;
+        boolean passiveOpen = (input & PASSIVE_OPEN) != 0;
+
+        switch (state) {
+
+            case CLOSED:
+                return reset ? to(CLOSED, 0) : to(CLOSED, RST_FLAG);
+
+            case LISTEN:
+                if (flags == SYN_FLAG) {
+                    return to(SYN_RECEIVED, SYN_FLAG | ACK_FLAG);
+                }
+                if (flags == ACK_FLAG || flags == (SYN_FLAG | ACK_FLAG)) {
+                    return to(LISTEN, RST_FLAG);
+                }
+                return to(LISTEN, 0);
+
+            case SYN_SENT:
+                if (unacceptableAck) {
+                    return to(SYN_SENT, reset ? 0 : RST_FLAG);
+                }
+                if (flags == (SYN_FLAG | ACK_FLAG)) {
+                    return to(ESTABLISHED, ACK_FLAG);
+                }
+                if (flags == SYN_FLAG) {
+                    return to(SYN_RECEIVED, SYN_FLAG | ACK_FLAG);
+                }
+                if (flags == (RST_FLAG | ACK_FLAG)) {
+                    return to(CLOSED, 0);
+                }
+                return to(SYN_SENT, 0);
+
+            case SYN_RECEIVED:
+                if (reset) {
+                    return to(passiveOpen ? LISTEN : CLOSED, 0);
+                }
+                if (unacceptableAck) {
+                    return to(SYN_RECEIVED, RST_FLAG);
+                }
+                if (flags == ACK_FLAG) {
+                    return to(ESTABLISHED, 0);
+                }
+                if (flags == (FIN_FLAG | ACK_FLAG)) {
+                    return to(CLOSE_WAIT, ACK_FLAG);
+                }
+                return to(SYN_RECEIVED, 0);
+
+            default:
+                break;
+        }
+
+        // The synchronized states
+        if (reset) {
+            return to(CLOSED, 0);
+        }
+
+        // An unacceptable ACK is ignored, but not the rest of the segment
+        if (unacceptableAck) {
+            flags &= ~ACK_FLAG;
+        }
+
+        boolean fin = (flags & FIN_FLAG) != 0 && (flags & SYN_FLAG) == 0;
+
+        switch (state) {
+
+            case ESTABLISHED:
+                return fin ? to(CLOSE_WAIT, ACK_FLAG) : to(ESTABLISHED, 0);
+
+            case FIN_WAIT_1:
+                if (flags == ACK_FLAG) {
+                    return to(FIN_WAIT_2, 0);
+                }
+                if (flags == FIN_FLAG) {
+                    return to(CLOSING, ACK_FLAG);
+                }
+                if (flags == (FIN_FLAG | ACK_FLAG)) {
+                    return to(TIME_WAIT, ACK_FLAG);
+                }
+                return to(FIN_WAIT_1, 0);
+
+            case FIN_WAIT_2:
+                return fin ? to(TIME_WAIT, ACK_FLAG) : to(FIN_WAIT_2, 0);
+
+            case CLOSE_WAIT:
+                return to(CLOSE_WAIT, flags == (FIN_FLAG | ACK_FLAG) ? ACK_FLAG : 0);
+
+            case CLOSING:
+                return to(flags == ACK_FLAG ? TIME_WAIT : CLOSING, 0);
+
+            case LAST_ACK:
+                return to(flags == ACK_FLAG ? CLOSED : LAST_ACK, 0);
+
+            default:
+                return to(TIME_WAIT, fin ? ACK_FLAG : 0);
+        }
+    }
+
+    private static int[] to(TcpState next, int reply) {
+        return new int[] {next.ordinal(), reply};
+    }
+
+    /**
+     * Walk both ends of a connection through opening and closing.
+     */
+    private static void connections() {
+
+        // The three-way handshake
+        checkSteps(LISTEN, PASSIVE_OPEN,
+                SYN_FLAG, SYN_RECEIVED, SYN_FLAG | ACK_FLAG,
+                ACK_FLAG, ESTABLISHED, 0);
+
+        checkSteps(SYN_SENT, 0,
+                SYN_FLAG | ACK_FLAG, ESTABLISHED, ACK_FLAG);
+
+        // Closing first, closing second and closing at once
+        checkSteps(FIN_WAIT_1, 0,
+                ACK_FLAG, FIN_WAIT_2, 0,
+                FIN_FLAG | ACK_FLAG, TIME_WAIT, ACK_FLAG,
+                FIN_FLAG | ACK_FLAG, TIME_WAIT, ACK_FLAG);
+
+        checkSteps(ESTABLISHED, 0,
+                FIN_FLAG | ACK_FLAG, CLOSE_WAIT, ACK_FLAG);
+
+        checkSteps(LAST_ACK, 0,
+                ACK_FLAG | UNACCEPTABLE_ACK, LAST_ACK, 0,
+                ACK_FLAG, CLOSED, 0);
+
+        checkSteps(FIN_WAIT_1, 0,
+                FIN_FLAG, CLOSING, ACK_FLAG,
+                ACK_FLAG, TIME_WAIT, 0);
+
+        // A reset connection request goes back to where it came from
+        checkSteps(LISTEN, PASSIVE_OPEN,
+                SYN_FLAG, SYN_RECEIVED, SYN_FLAG | ACK_FLAG,
+                RST_FLAG, LISTEN, 0);
+
+        checkSteps(SYN_SENT, 0,
+                SYN_FLAG, SYN_RECEIVED, SYN_FLAG | ACK_FLAG,
+                RST_FLAG, CLOSED, 0);
+    }
+
+    /**
+     * Feed inputs to the table from a state, checking the state and reply
+     * after each.
+     *
+     * @param state     the state to start from
+     * @param context   the connection bits of every input
+     * @param steps     the input, next state and reply of each step
+     */
+    private static void checkSteps(TcpState state, int context, Object... steps) {
+
+        for (int i = 0; i < steps.length; i += 3) {
+
+            int input = ((Number) steps[i]).intValue() | context;
+            String what = state + " on " + describe(input);
+
+            checkEquals(((Number) steps[i + 2]).intValue(), TcpStateMachine.replyFlags(state, input), "reply to " + what);
+
+            state = TcpStateMachine.nextState(state, input);
+            checkEquals(steps[i + 1], state, "state after " + what);
+        }
+    }
+
+    private static String describe(int input) {
+
+        StringBuilder builder = new StringBuilder();
+
+        String[] names = {"FIN", "SYN", "RST", "unacceptable ACK", "ACK", "passive open"};
+
+        for (int bit = 0; bit < names.length; bit++) {
+
+            if ((input & 1 << bit) != 0) {
+                builder.append(builder.length() > 0 ? "+" : "").append(names[bit]);
+            }
+        }
+
+        return builder.length() > 0 ? builder.toString() : "no flags";
+    }
+}
@@ -0,0 +1,125 @@
+package com.matmorcat;
+
+import java.util.Random;
+
+/**
+ * Runs the tests in the test folder. Each test is a class with a static
+ * {@code run()} method that fails with an {@link AssertionError} at the first
+ * check that does not hold, and the classes are in the same package as the
+ * code they test so that they can reach its package-private parts.
+ *
+ * Run with an optional argument to only run the tests whose names contain it,
+ * for example "Checksum". The exit status is 1 if any test failed.
+ */
+public final class Tests {
+
+    // The pseudo-header without its TCP length, and a header of 5 words
+    private static final String PSEUDO_HEADER_PREFIX = "AAAA9955555555550006";
+    private static final String HEADER = "12C45678FFFFFFFFBBBBBBBB50381B3400005E55";
+
+    /**
+     * A test to run.
+     */
+    private interface Test {
+        void run() throws Exception;
+    }
+
+    private Tests() {}
+
+    public static void main(String[] args) {
+
+        String filter = args.length > 0 ? args[0] : "";
+
+        String[] names = {
+                "ChecksumTest", "TcpStateMachineTest", "ConnectionTableTest", "ReassemblyBufferTest",
+                "TimingWheelTest"
+        };
+        Test[] tests = {
+                ChecksumTest::run, TcpStateMachineTest::run, ConnectionTableTest::run, ReassemblyBufferTest::run,
+                TimingWheelTest::run
+        };
+
+        int failed = 0;
+
+        for (int i = 0; i < tests.length; i++) {
+
+            if (!names[i].contains(filter)) {
+                continue;
+            }
+
+            try {
+
+                tests[i].run();
+                System.out.println(String.format("%-28s passed", names[i]));
+
+            } catch (Throwable t) {
+
+                failed++;
+                System.out.println(String.format("%-28s FAILED: %s", names[i], t));
+                t.printStackTrace(System.out);
+            }
+        }
+
+        if (failed > 0) {
+            System.exit(1);
+        }
+    }
+
+
+    // -------------------------------------------------------------------------
+    //
+    // Check Methods
+    //
+    // -------------------------------------------------------------------------
+
+
+    static void check(boolean condition, String message) {
+
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+
+    static void checkEquals(long expected, long actual, String what) {
+
+        if (expected != actual) {
+            throw new AssertionError(what + ": expected " + expected + " but was " + actual);
+        }
+    }
+
+    static void checkEquals(Object expected, Object actual, String what) {
+
+        if (expected == null ? actual != null : !expected.equals(actual)) {
+            throw new AssertionError(what + ": expected " + expected + " but was " + actual);
+        }
+    }
+
+
+    // -------------------------------------------------------------------------
+    //
+    // Test Data Methods
+    //
+    // -------------------------------------------------------------------------
+
+
+    /**
+     * Create a segment with a valid checksum and a random payload.
+     *
+     * @param payloadLength the payload length in bytes (at least 1)
+     * @param random        the source of the payload
+     * @return              the segment
+     */
+    static Segment createSegment(int payloadLength, Random random) throws Exception {
+
+        byte[] payload = new byte[payloadLength];
+        random.nextBytes(payload);
+
+        int segmentLengthInBits = HEADER.length() * 4 + payloadLength * 8;
+
+        Segment segment = new Segment(PSEUDO_HEADER_PREFIX + String.format("%04X", segmentLengthInBits) + HEADER
+                + HexCodec.encodeHex(payload, payloadLength * 2));
+        segment.generateNewChecksum();
+
+        return segment;
+    }
+}
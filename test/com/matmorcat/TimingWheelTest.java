@@ -0,0 +1,238 @@
+package com.matmorcat;
+
+import static com.matmorcat.Tests.check;
+import static com.matmorcat.Tests.checkEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks that a {@link TimingWheel} expires timers at the first tick at or
+ * after their deadlines and in the order of their ticks, for deadlines that
+ * are placed in every level of the wheel and moved down as time passes.
+ */
+final class TimingWheelTest {
+
+    private static final long TICK_NANOS = 1000;
+
+    private TimingWheelTest() {}
+
+    /**
+     * A timer that records when it expired.
+     */
+    private static final class Timer extends WheelTimer {
+
+        private final VirtualClock clock;
+        private final List<Timer> expired;
+
+        // The tick the timer is armed for, or -1 if it is not armed
+        long tick = -1;
+
+        // The time of the clock when it last expired
+        long expiredAt = -1;
+
+        Timer(VirtualClock clock, List<Timer> expired) {
+            this.clock = clock;
+            this.expired = expired;
+        }
+
+        /**
+         * Arm the timer in a wheel whose tick 0 is at the given origin.
+         */
+        void arm(TimingWheel wheel, long origin, long deadline) {
+
+            tick = Math.max(0, (deadline - origin + TICK_NANOS - 1) / TICK_NANOS);
+            wheel.scheduleAt(this, deadline);
+        }
+
+        @Override
+        protected void expire() {
+
+            expiredAt = clock.nanoTime();
+            expired.add(this);
+        }
+    }
+
+    static void run() throws Exception {
+
+        expiresInOrderAcrossLevels();
+        matchesModel();
+        cancelsWhileExpiring();
+    }
+
+    /**
+     * Arm one timer for each level, and the ticks on both sides of where a
+     * level starts, in a shuffled order, and advance through all of them.
+     */
+    private static void expiresInOrderAcrossLevels() throws Exception {
+
+        VirtualClock clock = new VirtualClock();
+        TimingWheel wheel = new TimingWheel(clock, TICK_NANOS, TimeUnit.NANOSECONDS);
+        List<Timer> expired = new ArrayList<>();
+        List<Timer> timers = new ArrayList<>();
+
+        for (int shift = 0; shift <= 48; shift += 6) {
+            for (long ticks = (1L << shift) - 1; ticks <= (1L << shift) + 1; ticks++) {
+
+                Timer timer = new Timer(clock, expired);
+
+                timer.tick = ticks;
+                timers.add(timer);
+            }
+        }
+
+        Collections.shuffle(timers, new Random(64));
+
+        // Deadlines half a tick before the ticks, so they round up to them
+        for (Timer timer : timers) {
+            timer.arm(wheel, 0, Math.max(0, timer.tick * TICK_NANOS - TICK_NANOS / 2));
+        }
+
+        checkEquals(timers.size(), wheel.size(), "armed timers");
+
+        // Jump from one check time to the next, as a simulation does
+        while (wheel.size() > 0) {
+
+            long next = wheel.getNextCheckTime();
+
+            check(next != Long.MAX_VALUE, "a check time while timers are armed");
+
+            clock.advanceTo(next);
+            wheel.advance();
+        }
+
+        checkEquals(timers.size(), expired.size(), "expired timers");
+
+        long previousTick = 0;
+
+        for (Timer timer : expired) {
+
+            checkEquals(timer.tick * TICK_NANOS, timer.expiredAt, "expiry time of the timer for tick " + timer.tick);
+            check(previousTick <= timer.tick, "the timer for tick " + timer.tick
+                    + " expired after the one for tick " + previousTick);
+
+            previousTick = timer.tick;
+        }
+
+        checkEquals(Long.MAX_VALUE, wheel.getNextCheckTime(), "check time of an empty wheel");
+    }
+
+    /**
+     * Arm, re-arm and cancel timers with deadlines of every magnitude while
+     * advancing by random steps, and compare what expires with the timers
+     * whose ticks have come.
+     */
+    private static void matchesModel() throws Exception {
+
+        Random random = new Random(22);
+
+        VirtualClock clock = new VirtualClock(random.nextInt(1_000_000));
+        TimingWheel wheel = new TimingWheel(clock, TICK_NANOS, TimeUnit.NANOSECONDS);
+        List<Timer> expired = new ArrayList<>();
+
+        long origin = clock.nanoTime();
+        Timer[] timers = new Timer[500];
+
+        for (int i = 0; i < timers.length; i++) {
+            timers[i] = new Timer(clock, expired);
+        }
+
+        for (int step = 0; step < 20_000; step++) {
+
+            for (int i = 0; i < 5; i++) {
+
+                Timer timer = timers[random.nextInt(timers.length)];
+
+                if (random.nextInt(4) == 0) {
+
+                    checkEquals(timer.tick >= 0, wheel.cancel(timer), "cancel in step " + step);
+                    timer.tick = -1;
+
+                } else {
+
+                    // A delay of any magnitude, so that timers land in every level
+                    long delay = random.nextLong() & (1L << random.nextInt(40)) - 1;
+
+                    timer.arm(wheel, origin, clock.nanoTime() + delay);
+                }
+            }
+
+            // Sometimes jump to the next check time, as a simulation does
+            long time = random.nextInt(8) == 0
+                    ? Math.min(wheel.getNextCheckTime(), clock.nanoTime() + (1L << 40))
+                    : clock.nanoTime() + (random.nextLong() & (1L << random.nextInt(30)) - 1);
+
+            clock.advanceTo(time);
+            expired.clear();
+
+            int count = wheel.advance();
+            long currentTick = (time - origin) / TICK_NANOS;
+            int armed = 0;
+
+            for (Timer timer : timers) {
+
+                boolean due = timer.tick >= 0 && timer.tick <= currentTick;
+
+                check(due == expired.contains(timer), "a timer for tick " + timer.tick
+                        + (due ? " did not expire" : " expired") + " at tick " + currentTick + " in step " + step);
+
+                if (due) {
+                    timer.tick = -1;
+                }
+
+                check(timer.isArmed() == timer.tick >= 0, "armed state of a timer in step " + step);
+
+                if (timer.isArmed()) {
+                    armed++;
+                }
+            }
+
+            checkEquals(expired.size(), count, "timers counted as expired in step " + step);
+            checkEquals(armed, wheel.size(), "armed timers in step " + step);
+        }
+    }
+
+    /**
+     * A timer that expires can cancel another timer of the same tick, which
+     * then does not expire.
+     */
+    private static void cancelsWhileExpiring() throws Exception {
+
+        VirtualClock clock = new VirtualClock();
+        // Not named wheel, which the timer's own field would hide
+        TimingWheel timingWheel = new TimingWheel(clock, TICK_NANOS, TimeUnit.NANOSECONDS);
+        List<Timer> expired = new ArrayList<>();
+
+        Timer first = new Timer(clock, expired);
+        Timer second = new Timer(clock, expired);
+
+        WheelTimer canceller = new WheelTimer() {
+
+            @Override
+            protected void expire() {
+                timingWheel.cancel(first);
+                timingWheel.cancel(second);
+            }
+        };
+
+        // All three in a level 1 slot, so they are moved down before they expire
+        first.arm(timingWheel, 0, 100 * TICK_NANOS);
+        timingWheel.scheduleAt(canceller, 100 * TICK_NANOS);
+        second.arm(timingWheel, 0, 100 * TICK_NANOS);
+
+        clock.advanceTo(100 * TICK_NANOS);
+
+        int count = timingWheel.advance();
+
+        checkEquals(0, timingWheel.size(), "armed timers after cancelling");
+
+        // The canceller was armed between the others, so whichever way a
+        // slot is ordered, it expires before at least one of them
+        checkEquals(count, 1 + expired.size(), "timers counted as expired");
+        check(expired.size() < 2, "a timer cancelled while expiring still expired");
+        check(!first.isArmed() && !second.isArmed(), "the cancelled timers are disarmed");
+    }
+}